@@ -15,7 +15,7 @@ const CategoryCard: React.FC<CategoryCardProps> = ({ category, onEdit, onDelete
       {/* Category Image */}
       <div className="aspect-video w-full mb-4 rounded-lg overflow-hidden bg-gray-800/50">
         <img
-          src={category.image}
+          src={category.thumbnail ?? category.image}
           alt={category.title}
           className="w-full h-full object-cover"
         />
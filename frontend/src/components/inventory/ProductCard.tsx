@@ -15,7 +15,7 @@ const ProductCard: React.FC<ProductCardProps> = ({ product, onEdit, onDelete })
       {/* Product Image */}
       <div className="aspect-square w-full mb-4 rounded-lg overflow-hidden bg-gray-800/50">
         <img
-          src={product.image}
+          src={product.thumbnail ?? product.image}
           alt={product.title}
           className="w-full h-full object-cover"
         />
@@ -62,7 +62,7 @@ export const CartProvider: React.FC<CartProviderProps> = ({ children }) => {
         const newItem: CartItem = {
           productId: product.id!,
           productTitle: product.title,
-          productImage: product.image,
+          productImage: product.thumbnailSmall ?? product.image,
           unitPrice: product.price,
           quantity: Math.min(quantity, product.count),
           maxQuantity: product.count,
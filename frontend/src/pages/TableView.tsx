@@ -287,11 +287,12 @@ const TableView: React.FC = () => {
         image: product.image,
         price: product.price,
         count: product.count,
+        version: product.version,
       };
-      await apiService.products.update(product.id!, productToUpdate);
-      // Update local state
+      const updated = await apiService.products.update(product.id!, productToUpdate);
+      // Update local state (the new version is needed for the next save)
       setProducts((prev) =>
-        prev.map((p) => (p.id === product.id ? { ...p, count: product.count } : p))
+        prev.map((p) => (p.id === product.id ? { ...p, count: product.count, version: updated.version } : p))
       );
     } catch (err) {
       throw new Error('Failed to update count');
@@ -306,7 +307,7 @@ const TableView: React.FC = () => {
         header: 'Image',
         cell: ({ row }) => (
           <img
-            src={row.original.image}
+            src={row.original.thumbnailSmall ?? row.original.image}
             alt={row.original.title}
             className="w-12 h-12 object-cover rounded-lg"
           />
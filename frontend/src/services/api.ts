@@ -253,8 +253,11 @@ export const apiService = {
     },
 
     // Finalize order (deduct inventory, generate invoice)
+    // One idempotency key per order: a double click or retry gets the first response instead of finalizing twice
     finalize: async (id: number): Promise<Order> => {
-      const response = await api.post(`/orders/${id}/finalize`);
+      const response = await api.post(`/orders/${id}/finalize`, null, {
+        headers: { 'Idempotency-Key': `finalize-${id}` },
+      });
       return response.data;
     },
 
@@ -2,5 +2,6 @@ export interface Category {
   id?: number;
   companyId: number;
   title: string;
-  image: string; // Base64 encoded image
+  image: string; // Base64 image on upload, image URL (/api/images/{hash}) when read
+  thumbnail?: string; // Read-only thumbnail URL for the category cards
 }
@@ -10,6 +10,14 @@ export interface OrderItem {
   subtotal: number;
 }
 
+// Line changes applied by an order update (only present in update responses)
+export interface OrderItemChanges {
+  addedProductIds: number[];
+  updatedProductIds: number[];
+  removedProductIds: number[];
+  unchanged: number;
+}
+
 export interface Order {
   id: number;
   companyId: number;
@@ -28,6 +36,7 @@ export interface Order {
   totalAmount: number;
   invoiceNumber?: string;
   items: OrderItem[];
+  itemChanges?: OrderItemChanges;
 }
 
 export interface CreateOrderDTO {
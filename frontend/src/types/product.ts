@@ -2,7 +2,10 @@ export interface Product {
   id?: number;
   categoryId: number;
   title: string;
-  image: string; // Base64 encoded image
+  image: string; // Base64 image on upload, image URL (/api/images/{hash}) when read
+  thumbnail?: string; // Read-only thumbnail URL for grid cards
+  thumbnailSmall?: string; // Read-only thumbnail URL for table rows and cart lines
   price: number;
   count: number;
+  version?: number; // Optimistic lock version; send it back on update (409 if the product changed since)
 }
@@ -0,0 +1,61 @@
+package net.javaguides.spring_app.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Applies SQL migrations that Hibernate's ddl-auto=update cannot express
+ * (expression/partial/trigram indexes, extensions, data fixes).
+ * Runs after Hibernate has created/updated the tables; each script is applied once
+ * and recorded in the schema_migrations table. Scripts must be idempotent.
+ */
+@Component
+public class DatabaseMigrationRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseMigrationRunner.class);
+
+    // Scripts in src/main/resources/db/migration, in the order they are applied
+    private static final List<String> MIGRATIONS = List.of(
+            "product_listing_indexes.sql",
+            "order_search_indexes.sql",
+            "order_search_names_index.sql",
+            "quick_stats_indexes.sql",
+            "product_daily_stats_product_fk.sql"
+    );
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                "script VARCHAR(255) PRIMARY KEY, applied_at TIMESTAMP NOT NULL)");
+
+        List<String> applied = jdbcTemplate.queryForList("SELECT script FROM schema_migrations", String.class);
+        for (String script : MIGRATIONS) {
+            if (applied.contains(script)) {
+                continue;
+            }
+            log.info("Applying database migration {}", script);
+            ResourceDatabasePopulator populator =
+                    new ResourceDatabasePopulator(new ClassPathResource("db/migration/" + script));
+            populator.execute(dataSource);
+            jdbcTemplate.update("INSERT INTO schema_migrations (script, applied_at) VALUES (?, ?)",
+                    script, LocalDateTime.now());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.javaguides.spring_app.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables @Scheduled background jobs (e.g. reservation expiry)
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,9 +1,11 @@
 package net.javaguides.spring_app.config;
 
+import jakarta.servlet.DispatcherType;
 import net.javaguides.spring_app.security.JwtAuthenticationFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -33,6 +35,10 @@ public class SecurityConfig {
                 session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/api/users/login", "/api/users", "/api/auth/login").permitAll()
+                // Content-addressed images are loaded by <img> tags, which cannot send the JWT header
+                .requestMatchers(HttpMethod.GET, "/api/images/**").permitAll()
+                // Completion of streamed responses (exports); the request itself was authorized on the way in
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 .anyRequest().authenticated()
             )
             .httpBasic(httpBasic -> httpBasic.disable())
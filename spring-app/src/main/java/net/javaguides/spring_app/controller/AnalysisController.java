@@ -2,18 +2,23 @@ package net.javaguides.spring_app.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
 import net.javaguides.spring_app.dto.InventoryAnalysisResponse;
+import net.javaguides.spring_app.dto.ProductMovement;
 import net.javaguides.spring_app.entity.Product;
-import net.javaguides.spring_app.entity.ProductCountHistory;
 import net.javaguides.spring_app.repository.ProductRepository;
+import net.javaguides.spring_app.service.BulkheadService;
 import net.javaguides.spring_app.service.GeminiAnalysisService;
-import net.javaguides.spring_app.service.ProductCountHistoryService;
+import net.javaguides.spring_app.service.ProductDailyStatsService;
+import net.javaguides.spring_app.service.QuickStatsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.HashMap;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/analysis")
@@ -23,32 +28,48 @@ public class AnalysisController {
     private ProductRepository productRepository;
 
     @Autowired
-    private ProductCountHistoryService productCountHistoryService;
+    private ProductDailyStatsService productDailyStatsService;
 
     @Autowired
     private GeminiAnalysisService geminiAnalysisService;
 
+    @Autowired
+    private BulkheadService bulkheadService;
+
+    @Autowired
+    private QuickStatsService quickStatsService;
+
     /**
      * Get full AI-powered inventory analysis
+     * Runs in the analysis bulkhead: 429 or 503 with Retry-After when it is full.
      * @param request the HTTP request containing JWT token with userId (companyId)
      * @return AI-generated analysis with insights and recommendations
      */
     @GetMapping
-    public ResponseEntity<InventoryAnalysisResponse> getAnalysis(HttpServletRequest request) {
+    public CompletableFuture<ResponseEntity<?>> getAnalysis(HttpServletRequest request) {
         Long companyId = (Long) request.getAttribute("userId");
 
-        // Get all products for the company
-        List<Product> products = productRepository.findByCategoryCompanyId(companyId);
-
-        // Get history for last 6 months
-        List<ProductCountHistory> history =
-                productCountHistoryService.getCompanyHistoryLastMonths(companyId, 6);
-
-        // Call Gemini AI for analysis
-        InventoryAnalysisResponse analysis =
-                geminiAnalysisService.analyzeInventory(products, history);
-
-        return ResponseEntity.ok(analysis);
+        try {
+            return bulkheadService.<ResponseEntity<?>>submit(BulkheadService.ANALYSIS, companyId, () -> {
+                // Get all products for the company
+                List<Product> products = productRepository.findByCategoryCompanyId(companyId);
+
+                // Get stock movements of the last 6 months (summed from the daily rollup)
+                List<ProductMovement> movements =
+                        productDailyStatsService.getMovementsSince(companyId, LocalDate.now().minusMonths(6));
+
+                // Call Gemini AI for analysis
+                InventoryAnalysisResponse analysis =
+                        geminiAnalysisService.analyzeInventory(products, movements);
+
+                return ResponseEntity.ok(analysis);
+            });
+        } catch (BulkheadService.RejectedException e) {
+            return CompletableFuture.completedFuture(ResponseEntity
+                    .status(e.isCompanyLimit() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of("error", e.getMessage())));
+        }
     }
 
     /**
@@ -60,33 +81,7 @@ public class AnalysisController {
     public ResponseEntity<Map<String, Object>> getQuickStats(HttpServletRequest request) {
         Long companyId = (Long) request.getAttribute("userId");
 
-        // Get all products for the company
-        List<Product> products = productRepository.findByCategoryCompanyId(companyId);
-
-        // Calculate quick stats
-        int totalProducts = products.size();
-        int lowStock = (int) products.stream()
-                .filter(p -> p.getCount() > 0 && p.getCount() <= 10)
-                .count();
-        int outOfStock = (int) products.stream()
-                .filter(p -> p.getCount() == 0)
-                .count();
-
-        // Get total sold in last month
-        List<ProductCountHistory> lastMonthHistory =
-                productCountHistoryService.getCompanyHistoryLastMonths(companyId, 1);
-        int totalSoldLastMonth = lastMonthHistory.stream()
-                .filter(h -> h.getChangeType() == ProductCountHistory.ChangeType.SALE)
-                .mapToInt(h -> Math.abs(h.getChangeAmount()))
-                .sum();
-
-        // Build response
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalProducts", totalProducts);
-        stats.put("lowStock", lowStock);
-        stats.put("outOfStock", outOfStock);
-        stats.put("totalSoldLastMonth", totalSoldLastMonth);
-
-        return ResponseEntity.ok(stats);
+        // Aggregate queries only (product counts and the daily rollup), cached briefly per company
+        return ResponseEntity.ok(quickStatsService.getQuickStats(companyId));
     }
 }
@@ -4,6 +4,9 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import net.javaguides.spring_app.entity.Category;
 import net.javaguides.spring_app.repository.CategoryRepository;
+import net.javaguides.spring_app.service.ImageService;
+import net.javaguides.spring_app.service.ImageThumbnailService;
+import net.javaguides.spring_app.service.QuickStatsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -18,6 +21,15 @@ public class CategoryController {
     @Autowired
     private CategoryRepository categoryRepository;
 
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageThumbnailService imageThumbnailService;
+
+    @Autowired
+    private QuickStatsService quickStatsService;
+
     /**
      * Get all categories for a specific company
      * @param request the HTTP request containing JWT token with userId (companyId)
@@ -53,13 +65,20 @@ public class CategoryController {
      * @return the created category
      */
     @PostMapping
-    public ResponseEntity<Category> createCategory(
+    public ResponseEntity<?> createCategory(
             @Valid @RequestBody Category category,
             HttpServletRequest request) {
         // Set the company ID from JWT token to ensure it matches the authenticated user
         Long companyId = (Long) request.getAttribute("userId");
         category.setCompanyId(companyId);
+        // Store uploaded image once and keep only its reference on the category
+        try {
+            category.setImage(imageService.toReference(category.getImage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
         Category savedCategory = categoryRepository.save(category);
+        imageThumbnailService.generateAsync(savedCategory.getImage());
         return ResponseEntity.status(HttpStatus.CREATED).body(savedCategory);
     }
 
@@ -71,16 +90,22 @@ public class CategoryController {
      * @return the updated category
      */
     @PutMapping("/{id}")
-    public ResponseEntity<Category> updateCategory(
+    public ResponseEntity<?> updateCategory(
             @PathVariable Long id,
             @Valid @RequestBody Category categoryDetails,
             HttpServletRequest request) {
         Long companyId = (Long) request.getAttribute("userId");
         return categoryRepository.findByIdAndCompanyId(id, companyId)
-                .map(category -> {
+                .<ResponseEntity<?>>map(category -> {
+                    // Store uploaded image once and keep only its reference on the category
+                    try {
+                        category.setImage(imageService.toReference(categoryDetails.getImage()));
+                    } catch (IllegalArgumentException e) {
+                        return ResponseEntity.badRequest().body(e.getMessage());
+                    }
                     category.setTitle(categoryDetails.getTitle());
-                    category.setImage(categoryDetails.getImage());
                     Category updatedCategory = categoryRepository.save(category);
+                    imageThumbnailService.generateAsync(updatedCategory.getImage());
                     return ResponseEntity.ok(updatedCategory);
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -100,6 +125,7 @@ public class CategoryController {
         return categoryRepository.findByIdAndCompanyId(id, companyId)
                 .map(category -> {
                     categoryRepository.delete(category);
+                    quickStatsService.stockChanged(companyId);
                     return ResponseEntity.noContent().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -0,0 +1,101 @@
+package net.javaguides.spring_app.controller;
+
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import net.javaguides.spring_app.service.ImageService;
+import net.javaguides.spring_app.service.ImageThumbnailService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/api/images")
+public class ImageController {
+
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+    // Thumbnail URL of an image without thumbnails (cannot be decoded): the original, revalidated daily
+    private static final CacheControl NO_THUMBNAIL = CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic();
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageThumbnailService imageThumbnailService;
+
+    /**
+     * Stream a stored image by its content hash, or one of its thumbnails.
+     * Images are content-addressed, so they never change and can be cached forever by the browser.
+     * @param hash the SHA-256 content hash
+     * @param size optional thumbnail size (small, medium); omit for the original image
+     * @param ifNoneMatch the ETag the client already has (optional)
+     * @return the image bytes, 304 if the client copy is current, or 404
+     */
+    @GetMapping("/{hash}")
+    public ResponseEntity<StreamingResponseBody> getImage(
+            @PathVariable String hash,
+            @RequestParam(required = false) String size,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (!ImageService.isValidHash(hash)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (size == null || size.isEmpty()) {
+            return streamImage(hash, ifNoneMatch, IMMUTABLE);
+        }
+
+        ThumbnailSize thumbnailSize;
+        try {
+            thumbnailSize = ThumbnailSize.valueOf(size.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (imageThumbnailService.isUndecodable(hash)) {
+            return streamImage(hash, ifNoneMatch, NO_THUMBNAIL);
+        }
+        return imageThumbnailService.findThumbnailHash(hash, thumbnailSize)
+                .map(thumbnailHash -> streamImage(thumbnailHash, ifNoneMatch, IMMUTABLE))
+                .orElseGet(() -> {
+                    // Not generated yet: serve the original without long-term caching, so the browser picks up
+                    // the thumbnail on a later request, and queue it (only for images that exist)
+                    ResponseEntity<StreamingResponseBody> original = streamImage(hash, null, CacheControl.noCache());
+                    if (original.getStatusCode().is2xxSuccessful()) {
+                        imageThumbnailService.generateAsync(ImageService.REFERENCE_PREFIX + hash);
+                    }
+                    return original;
+                });
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamImage(String hash, String ifNoneMatch,
+                                                              CacheControl cacheControl) {
+        String etag = "\"" + hash + "\"";
+
+        // Same hash means same bytes - no need to touch the database
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+
+        return imageService.getMetadata(hash)
+                .map(metadata -> {
+                    StreamingResponseBody body = out -> imageService.streamTo(hash, out);
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.parseMediaType(metadata.getContentType()))
+                            .contentLength(metadata.getSizeBytes())
+                            .eTag(etag)
+                            .cacheControl(cacheControl)
+                            .header("X-Content-Type-Options", "nosniff")
+                            .header("Content-Security-Policy", "default-src 'none'; style-src 'unsafe-inline'; sandbox")
+                            .body(body);
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+}
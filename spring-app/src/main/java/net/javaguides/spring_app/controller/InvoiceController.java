@@ -0,0 +1,64 @@
+package net.javaguides.spring_app.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import net.javaguides.spring_app.service.InvoiceZipService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/invoices")
+public class InvoiceController {
+
+    @Autowired
+    private InvoiceZipService invoiceZipService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${invoices.zip.request-timeout-ms:1800000}")
+    private long zipTimeoutMs;
+
+    /**
+     * Download the invoices of the orders finalized in a date range as one ZIP (one PDF per order)
+     * The ZIP is streamed while the invoices are prepared, so any range can be downloaded.
+     * Example: GET /api/invoices/archive?from=2025-01-01&to=2025-01-31
+     * @param from first day of the range (yyyy-MM-dd)
+     * @param to last day of the range, inclusive (yyyy-MM-dd)
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return the ZIP file as an attachment
+     */
+    @GetMapping("/archive")
+    public ResponseEntity<StreamingResponseBody> downloadInvoiceArchive(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        if (to.isBefore(from)) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> objectMapper.writeValue(out, Map.of("error", "to must not be before from")));
+        }
+
+        String filename = "invoices-" + from + "-" + to + ".zip";
+        StreamingResponseBody body = out -> invoiceZipService.writeInvoiceZip(companyId, from, to, out);
+        // The stream runs as an async request: allow it longer than the default async timeout
+        WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest().setTimeout(zipTimeoutMs);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+}
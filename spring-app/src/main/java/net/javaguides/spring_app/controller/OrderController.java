@@ -1,21 +1,51 @@
 package net.javaguides.spring_app.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import net.javaguides.spring_app.dto.BulkImportResponse;
 import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.CursorPage;
+import net.javaguides.spring_app.dto.FinalizeBatchRequest;
+import net.javaguides.spring_app.dto.FinalizeBatchResponse;
+import net.javaguides.spring_app.dto.OrderSummary;
+import net.javaguides.spring_app.entity.FinalizationJob;
 import net.javaguides.spring_app.entity.Order;
-import net.javaguides.spring_app.service.InvoiceService;
+import net.javaguides.spring_app.entity.OrderArchive;
+import net.javaguides.spring_app.entity.OrderStats;
+import net.javaguides.spring_app.service.BulkheadService;
+import net.javaguides.spring_app.service.FinalizationQueueService;
+import net.javaguides.spring_app.service.IdempotencyService;
+import net.javaguides.spring_app.service.InvoiceStoreService;
+import net.javaguides.spring_app.service.OrderImportService;
+import net.javaguides.spring_app.service.OrderArchiveService;
+import net.javaguides.spring_app.service.OrderExportService;
+import net.javaguides.spring_app.service.OrderListingService;
 import net.javaguides.spring_app.service.OrderService;
+import net.javaguides.spring_app.service.OrderStatsService;
+import net.javaguides.spring_app.service.StockRetryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/orders")
@@ -25,7 +55,40 @@ public class OrderController {
     private OrderService orderService;
 
     @Autowired
-    private InvoiceService invoiceService;
+    private InvoiceStoreService invoiceStoreService;
+
+    @Autowired
+    private BulkheadService bulkheadService;
+
+    @Autowired
+    private OrderListingService orderListingService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private OrderImportService orderImportService;
+
+    @Autowired
+    private OrderExportService orderExportService;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private FinalizationQueueService finalizationQueueService;
+
+    @Autowired
+    private StockRetryService stockRetryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${orders.export.request-timeout-ms:1800000}")
+    private long exportTimeoutMs;
 
     /**
      * Get all orders for the authenticated company
@@ -51,6 +114,57 @@ public class OrderController {
         return ResponseEntity.ok(orders);
     }
 
+    /**
+     * Get one page of order summaries (no line items), newest first
+     * Example: GET /api/orders?view=summary&limit=50&status=pending&cursor=...
+     * @param cursor nextCursor of the previous page (omit for the first page)
+     * @param limit page size (default 50, max 200)
+     * @param status optional status filter: pending, finalized
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return page of order summaries with the cursor of the next page
+     */
+    @GetMapping(params = "view=summary")
+    public ResponseEntity<?> getOrderSummaries(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String status,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        try {
+            CursorPage<OrderSummary> page = orderListingService.listOrders(companyId, cursor, limit, status);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Search order summaries by client name, client company, email, phone or invoice number, newest first
+     * Names match anywhere, email, phone and invoice number by prefix; a number also finds its invoice
+     * Example: GET /api/orders/search?q=popescu&limit=50&status=finalized&cursor=...
+     * @param q the search text (at least 2 characters)
+     * @param cursor nextCursor of the previous page (omit for the first page)
+     * @param limit page size (default 50, max 200)
+     * @param status optional status filter: pending, finalized
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return page of matching order summaries with the cursor of the next page
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchOrders(
+            @RequestParam String q,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String status,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        try {
+            CursorPage<OrderSummary> page = orderListingService.searchOrders(companyId, q, cursor, limit, status);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Get a specific order by ID
      */
@@ -70,37 +184,63 @@ public class OrderController {
 
     /**
      * Create a new order with PENDING status
+     * An optional Idempotency-Key header makes retries return the first response instead of creating another order
      */
     @PostMapping
     public ResponseEntity<?> createOrder(
             @Valid @RequestBody CreateOrderDTO createOrderDTO,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
             HttpServletRequest request) {
-        try {
-            Long companyId = (Long) request.getAttribute("userId");
-            Order order = orderService.createOrder(companyId, createOrderDTO);
-            return ResponseEntity.status(HttpStatus.CREATED).body(order);
-        } catch (RuntimeException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of("error", e.getMessage()));
+        Long companyId = (Long) request.getAttribute("userId");
+        return idempotencyService.execute(companyId, idempotencyKey, "POST /api/orders", createOrderDTO, transaction -> {
+            try {
+                return transaction.execute(() -> ResponseEntity.status(HttpStatus.CREATED)
+                        .body(orderService.createOrder(companyId, createOrderDTO)));
+            } catch (RuntimeException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(Map.of("error", e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Import many PENDING orders in one request (marketplace imports)
+     * Body: a JSON array or NDJSON stream of orders in the same format as POST /api/orders.
+     * Orders are read as a stream and written in chunks; each order succeeds or fails on its own.
+     * Malformed input stops the import: the answer is 400 only if no order was created, otherwise 200 with
+     * the error next to the results, since the orders read before it are already committed.
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return per-order results (index in the input, order ID or error)
+     */
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE,
+            MediaType.APPLICATION_NDJSON_VALUE, "application/x-ndjson"})
+    public ResponseEntity<BulkImportResponse> bulkImportOrders(HttpServletRequest request) throws IOException {
+        Long companyId = (Long) request.getAttribute("userId");
+        BulkImportResponse response = orderImportService.importOrders(companyId, request.getInputStream());
+        if (response.getError() != null && response.getCreated() == 0) {
+            return ResponseEntity.badRequest().body(response);
         }
+        return ResponseEntity.ok(response);
     }
 
     /**
-     * Update an existing PENDING order
+     * Update an existing PENDING order (optional Idempotency-Key header, as for create)
      */
     @PutMapping("/{id}")
     public ResponseEntity<?> updateOrder(
             @PathVariable Long id,
             @Valid @RequestBody CreateOrderDTO createOrderDTO,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
             HttpServletRequest request) {
-        try {
-            Long companyId = (Long) request.getAttribute("userId");
-            Order order = orderService.updateOrder(companyId, id, createOrderDTO);
-            return ResponseEntity.ok(order);
-        } catch (RuntimeException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of("error", e.getMessage()));
-        }
+        Long companyId = (Long) request.getAttribute("userId");
+        return idempotencyService.execute(companyId, idempotencyKey, "PUT /api/orders/" + id, createOrderDTO, transaction -> {
+            try {
+                return transaction.execute(() -> ResponseEntity.ok(orderService.updateOrder(companyId, id, createOrderDTO)));
+            } catch (RuntimeException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(Map.of("error", e.getMessage()));
+            }
+        });
     }
 
     /**
@@ -122,15 +262,77 @@ public class OrderController {
 
     /**
      * Finalize an order - check stock, deduct inventory, generate invoice number
+     * With async=true the order is queued instead and 202 is returned with the job; poll
+     * GET /api/orders/finalize-jobs/{jobId} for the outcome.
+     * With an Idempotency-Key header, a repeated finalize (double click, retry) returns the first response
      */
     @PostMapping("/{id}/finalize")
     public ResponseEntity<?> finalizeOrder(
             @PathVariable Long id,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        String operation = "POST /api/orders/" + id + "/finalize" + (async ? "?async=true" : "");
+        return idempotencyService.execute(companyId, idempotencyKey, operation, null, transaction -> {
+            try {
+                if (async) {
+                    return transaction.execute(() -> {
+                        FinalizationJob job = finalizationQueueService.enqueue(companyId, id);
+                        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                                .header(HttpHeaders.LOCATION, "/api/orders/finalize-jobs/" + job.getId())
+                                .body(job);
+                    });
+                }
+                // Each attempt is a transaction of its own
+                return stockRetryService.execute("finalize",
+                        () -> transaction.execute(() -> ResponseEntity.ok(orderService.finalizeOrder(companyId, id))));
+            } catch (ConcurrencyFailureException e) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(Map.of("error", "Order could not be finalized because of concurrent stock updates, please retry"));
+            } catch (RuntimeException e) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(Map.of("error", e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Get the status of an asynchronous finalization (QUEUED, RUNNING, SUCCEEDED with the invoice number, FAILED with the error)
+     */
+    @GetMapping("/finalize-jobs/{jobId}")
+    public ResponseEntity<?> getFinalizationJob(
+            @PathVariable Long jobId,
             HttpServletRequest request) {
         try {
             Long companyId = (Long) request.getAttribute("userId");
-            Order order = orderService.finalizeOrder(companyId, id);
-            return ResponseEntity.ok(order);
+            FinalizationJob job = finalizationQueueService.getJob(companyId, jobId);
+            return ResponseEntity.ok(job);
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Finalize many PENDING orders in one transaction (end-of-day batch)
+     * Body: {"orderIds": [1, 2, 3]}. Each order is finalized or rejected on its own; when stock runs short
+     * it goes to the orders listed first.
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return per-order results (invoice number or error), in request order
+     */
+    @PostMapping("/finalize-batch")
+    public ResponseEntity<?> finalizeOrders(
+            @Valid @RequestBody FinalizeBatchRequest finalizeBatchRequest,
+            HttpServletRequest request) {
+        try {
+            Long companyId = (Long) request.getAttribute("userId");
+            FinalizeBatchResponse response = stockRetryService.execute("finalize-batch",
+                    () -> orderService.finalizeOrders(companyId, finalizeBatchRequest.getOrderIds()));
+            return ResponseEntity.ok(response);
+        } catch (ConcurrencyFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Orders could not be finalized because of concurrent stock updates, please retry"));
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(Map.of("error", e.getMessage()));
@@ -139,9 +341,12 @@ public class OrderController {
 
     /**
      * Download invoice PDF for a finalized order
+     * The PDF is rendered once and then served from the invoice store; supports If-None-Match,
+     * If-Modified-Since and Range requests. Rendering runs in the invoices bulkhead: 429 or 503 with
+     * Retry-After when it is full.
      */
     @GetMapping("/{id}/invoice")
-    public ResponseEntity<?> downloadInvoice(
+    public CompletableFuture<ResponseEntity<?>> downloadInvoice(
             @PathVariable Long id,
             HttpServletRequest request) {
         try {
@@ -149,27 +354,98 @@ public class OrderController {
             Order order = orderService.getOrderById(companyId, id);
 
             if (order.getStatus() != Order.OrderStatus.FINALIZED) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(Map.of("error", "Cannot download invoice for non-finalized order"));
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(Map.of("error", "Cannot download invoice for non-finalized order")));
             }
 
-            // Generate PDF
-            byte[] pdfBytes = invoiceService.generateInvoicePdf(order);
+            return bulkheadService.<ResponseEntity<?>>submit(BulkheadService.INVOICES, companyId, () -> {
+                InvoiceStoreService.InvoicePdf pdf = invoiceStoreService.getInvoicePdf(order);
 
-            // Set headers for PDF download
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_PDF);
-            headers.setContentDispositionFormData("attachment",
-                    "invoice-" + order.getInvoiceNumber() + ".pdf");
-            headers.setContentLength(pdfBytes.length);
+                // Set headers for PDF download (conditional and range requests are answered by Spring from
+                // the ETag / Last-Modified headers and the resource body)
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_PDF);
+                headers.setContentDispositionFormData("attachment",
+                        "invoice-" + order.getInvoiceNumber() + ".pdf");
+                headers.setETag(pdf.getEtag());
+                headers.setLastModified(pdf.getLastModified());
+                headers.setCacheControl(CacheControl.noCache().cachePrivate());
 
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(pdfBytes);
+                return ResponseEntity.ok()
+                        .headers(headers)
+                        .body(new ByteArrayResource(pdf.getBytes()));
+            }).exceptionally(e -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage())));
+        } catch (BulkheadService.RejectedException e) {
+            return CompletableFuture.completedFuture(ResponseEntity
+                    .status(e.isCompanyLimit() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of("error", e.getMessage())));
         } catch (RuntimeException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", e.getMessage()));
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage())));
+        }
+    }
+
+    /**
+     * Export the orders finalized in a date range, with their line items (accounting exports)
+     * The file is streamed while it is read from the database, so any range can be exported.
+     * Example: GET /api/orders/export?from=2025-01-01&to=2025-03-31&format=csv
+     * @param from first day of the range (yyyy-MM-dd)
+     * @param to last day of the range, inclusive (yyyy-MM-dd)
+     * @param format csv (one row per line item, default) or ndjson (one order per line)
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return the export file as an attachment
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "csv") String format,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        if (to.isBefore(from)) {
+            return exportError("to must not be before from");
+        }
+        OrderExportService.ExportFormat exportFormat;
+        try {
+            exportFormat = OrderExportService.ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return exportError("Invalid format: " + format);
         }
+
+        MediaType contentType = exportFormat == OrderExportService.ExportFormat.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : new MediaType("application", "x-ndjson", StandardCharsets.UTF_8);
+        String filename = "orders-" + from + "-" + to + "." + format.toLowerCase();
+        StreamingResponseBody body = out -> orderExportService.exportFinalizedOrders(companyId, from, to, exportFormat, out);
+        // The stream runs as an async request: allow it longer than the default async timeout
+        WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest().setTimeout(exportTimeoutMs);
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+
+    /**
+     * 400 with the usual {"error": ...} body, written directly (the export's response type is a stream)
+     */
+    private ResponseEntity<StreamingResponseBody> exportError(String message) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, Map.of("error", message)));
+    }
+
+    /**
+     * List the archived months of the company (their orders are still returned by ID and in exports)
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return archived months with their order and history counts, oldest first
+     */
+    @GetMapping("/archives")
+    public ResponseEntity<List<OrderArchive>> getArchives(HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        return ResponseEntity.ok(orderArchiveService.getArchives(companyId));
     }
 
     /**
@@ -179,20 +455,16 @@ public class OrderController {
     public ResponseEntity<Map<String, Object>> getOrderStats(HttpServletRequest request) {
         Long companyId = (Long) request.getAttribute("userId");
 
-        List<Order> allOrders = orderService.getOrders(companyId);
-        List<Order> pendingOrders = orderService.getOrdersByStatus(companyId, Order.OrderStatus.PENDING);
-        List<Order> finalizedOrders = orderService.getOrdersByStatus(companyId, Order.OrderStatus.FINALIZED);
+        OrderStats orderStats = orderStatsService.getStats(companyId);
 
         Map<String, Object> stats = new HashMap<>();
-        stats.put("total", allOrders.size());
-        stats.put("pending", pendingOrders.size());
-        stats.put("finalized", finalizedOrders.size());
-
-        // Calculate total revenue from finalized orders
-        double totalRevenue = finalizedOrders.stream()
-                .mapToDouble(Order::getTotalAmount)
-                .sum();
-        stats.put("totalRevenue", totalRevenue);
+        stats.put("total", orderStats.getPendingCount() + orderStats.getFinalizedCount());
+        stats.put("pending", orderStats.getPendingCount());
+        stats.put("finalized", orderStats.getFinalizedCount());
+        stats.put("totalRevenue", orderStats.getFinalizedRevenue());
+        stats.put("pendingAmount", orderStats.getPendingAmount());
+        stats.put("pendingItems", orderStats.getPendingItems());
+        stats.put("finalizedItems", orderStats.getFinalizedItems());
 
         return ResponseEntity.ok(stats);
     }
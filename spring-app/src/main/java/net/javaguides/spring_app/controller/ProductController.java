@@ -2,16 +2,27 @@ package net.javaguides.spring_app.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import net.javaguides.spring_app.dto.CursorPage;
+import net.javaguides.spring_app.dto.ProductSummary;
 import net.javaguides.spring_app.entity.Product;
 import net.javaguides.spring_app.repository.CategoryRepository;
 import net.javaguides.spring_app.repository.ProductRepository;
+import net.javaguides.spring_app.service.ImageService;
+import net.javaguides.spring_app.service.ImageThumbnailService;
 import net.javaguides.spring_app.service.ProductCountHistoryService;
+import net.javaguides.spring_app.service.ProductListingService;
+import net.javaguides.spring_app.service.QuickStatsService;
+import net.javaguides.spring_app.service.StockRetryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/products")
@@ -26,6 +37,21 @@ public class ProductController {
     @Autowired
     private ProductCountHistoryService productCountHistoryService;
 
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageThumbnailService imageThumbnailService;
+
+    @Autowired
+    private ProductListingService productListingService;
+
+    @Autowired
+    private StockRetryService stockRetryService;
+
+    @Autowired
+    private QuickStatsService quickStatsService;
+
     /**
      * Get all products for a specific company
      * @param request the HTTP request containing JWT token with userId (companyId)
@@ -38,6 +64,36 @@ public class ProductController {
         return ResponseEntity.ok(products);
     }
 
+    /**
+     * Get one page of products (keyset pagination, no image payloads)
+     * @param cursor cursor returned with the previous page (omit for the first page)
+     * @param limit page size (default 50, max 200)
+     * @param categoryId optional category filter
+     * @param stock optional stock filter: low, out
+     * @param q optional case-insensitive title prefix
+     * @param sort category (default) or -category
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return page of product summaries with the cursor of the next page
+     */
+    @GetMapping("/page")
+    public ResponseEntity<?> getProductPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long categoryId,
+            @RequestParam(required = false) String stock,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String sort,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        try {
+            CursorPage<ProductSummary> page = productListingService.listProducts(
+                    companyId, cursor, limit, categoryId, stock, q, sort);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Get all products for a specific category (with ownership verification)
      * @param categoryId the category ID
@@ -58,6 +114,35 @@ public class ProductController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Get the company's most contended products (conflicting stock updates since startup)
+     * @param limit maximum number of products (default 20)
+     * @param request the HTTP request containing JWT token with userId (companyId)
+     * @return products with their conflict counts, most contended first
+     */
+    @GetMapping("/contention")
+    public ResponseEntity<List<Map<String, Object>>> getProductContention(
+            @RequestParam(defaultValue = "20") int limit,
+            HttpServletRequest request) {
+        Long companyId = (Long) request.getAttribute("userId");
+        Map<Long, Long> conflicts = stockRetryService.getConflictsByProduct();
+        Map<Long, Product> products = new HashMap<>();
+        if (!conflicts.isEmpty()) {
+            productRepository.findAllByIdInAndCategoryCompanyId(conflicts.keySet(), companyId)
+                    .forEach(product -> products.put(product.getId(), product));
+        }
+
+        List<Map<String, Object>> hot = new ArrayList<>();
+        conflicts.forEach((productId, count) -> {
+            Product product = products.get(productId);
+            if (product != null && hot.size() < limit) {
+                hot.add(Map.of("productId", productId, "title", product.getTitle(),
+                        "count", product.getCount(), "conflicts", count));
+            }
+        });
+        return ResponseEntity.ok(hot);
+    }
+
     /**
      * Get a specific product by ID (verify ownership)
      * @param id the product ID
@@ -88,9 +173,17 @@ public class ProductController {
         Long companyId = (Long) request.getAttribute("userId");
         return categoryRepository.findByIdAndCompanyId(product.getCategoryId(), companyId)
                 .<ResponseEntity<?>>map(category -> {
+                    // Store uploaded image once and keep only its reference on the product
+                    try {
+                        product.setImage(imageService.toReference(product.getImage()));
+                    } catch (IllegalArgumentException e) {
+                        return ResponseEntity.badRequest().body(e.getMessage());
+                    }
                     Product savedProduct = productRepository.save(product);
+                    imageThumbnailService.generateAsync(savedProduct.getImage());
                     // Record initial count in history
                     productCountHistoryService.recordInitialCount(savedProduct.getId(), savedProduct.getCount());
+                    quickStatsService.stockChanged(companyId);
                     return ResponseEntity.status(HttpStatus.CREATED).body(savedProduct);
                 })
                 .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -99,8 +192,10 @@ public class ProductController {
 
     /**
      * Update an existing product (verify ownership)
+     * If the product changed since the client read it (its version differs from the one sent, or a sale
+     * or another edit lands while saving), nothing is written and 409 is returned with the current product.
      * @param id the product ID
-     * @param productDetails the updated product details
+     * @param productDetails the updated product details (with the version the client read)
      * @param request the HTTP request containing JWT token with userId (companyId)
      * @return the updated product
      */
@@ -110,11 +205,35 @@ public class ProductController {
             @Valid @RequestBody Product productDetails,
             HttpServletRequest request) {
         Long companyId = (Long) request.getAttribute("userId");
+        try {
+            return applyProductUpdate(id, companyId, productDetails);
+        } catch (OptimisticLockingFailureException e) {
+            stockRetryService.recordConflict("product-update", id);
+            return productRepository.findByIdAndCategoryCompanyId(id, companyId)
+                    .<ResponseEntity<?>>map(current -> ResponseEntity.status(HttpStatus.CONFLICT).body(current))
+                    .orElse(ResponseEntity.notFound().build());
+        }
+    }
+
+    private ResponseEntity<?> applyProductUpdate(Long id, Long companyId, Product productDetails) {
         return productRepository.findByIdAndCategoryCompanyId(id, companyId)
                 .<ResponseEntity<?>>map(product -> {
+                    // Reject edits based on a stale read (e.g. a sale changed the count since)
+                    if (productDetails.getVersion() != null && !productDetails.getVersion().equals(product.getVersion())) {
+                        stockRetryService.recordConflict("product-update", id);
+                        return ResponseEntity.status(HttpStatus.CONFLICT).body(product);
+                    }
+
                     // Capture old count before update
                     Integer oldCount = product.getCount();
 
+                    // Store uploaded image once and keep only its reference on the product
+                    try {
+                        productDetails.setImage(imageService.toReference(productDetails.getImage()));
+                    } catch (IllegalArgumentException e) {
+                        return ResponseEntity.badRequest().body(e.getMessage());
+                    }
+
                     // Validate new category if changed
                     if (!product.getCategoryId().equals(productDetails.getCategoryId())) {
                         return categoryRepository.findByIdAndCompanyId(productDetails.getCategoryId(), companyId)
@@ -125,11 +244,13 @@ public class ProductController {
                                     product.setPrice(productDetails.getPrice());
                                     product.setCount(productDetails.getCount());
                                     Product updatedProduct = productRepository.save(product);
+                                    imageThumbnailService.generateAsync(updatedProduct.getImage());
                                     // Record count change if count changed
                                     if (!oldCount.equals(productDetails.getCount())) {
                                         productCountHistoryService.recordCountChange(
                                             updatedProduct.getId(), oldCount, productDetails.getCount(), null);
                                     }
+                                    quickStatsService.stockChanged(companyId);
                                     return ResponseEntity.ok(updatedProduct);
                                 })
                                 .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -140,11 +261,13 @@ public class ProductController {
                         product.setPrice(productDetails.getPrice());
                         product.setCount(productDetails.getCount());
                         Product updatedProduct = productRepository.save(product);
+                        imageThumbnailService.generateAsync(updatedProduct.getImage());
                         // Record count change if count changed
                         if (!oldCount.equals(productDetails.getCount())) {
                             productCountHistoryService.recordCountChange(
                                 updatedProduct.getId(), oldCount, productDetails.getCount(), null);
                         }
+                        quickStatsService.stockChanged(companyId);
                         return ResponseEntity.ok(updatedProduct);
                     }
                 })
@@ -165,6 +288,7 @@ public class ProductController {
         return productRepository.findByIdAndCategoryCompanyId(id, companyId)
                 .map(product -> {
                     productRepository.delete(product);
+                    quickStatsService.stockChanged(companyId);
                     return ResponseEntity.noContent().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -36,7 +36,7 @@ public class ProductCountHistoryController {
         return productRepository.findByIdAndCategoryCompanyId(productId, companyId)
                 .map(product -> {
                     List<ProductCountHistory> history =
-                        productCountHistoryService.getProductHistory(productId);
+                        productCountHistoryService.getProductHistory(companyId, productId);
                     return ResponseEntity.ok(history);
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -3,6 +3,7 @@ package net.javaguides.spring_app.controller;
 import net.javaguides.spring_app.entity.User;
 import net.javaguides.spring_app.repository.UserRepository;
 import net.javaguides.spring_app.security.JwtUtil;
+import net.javaguides.spring_app.service.InvoiceService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -23,6 +24,9 @@ public class UserController {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private InvoiceService invoiceService;
+
     // Get all users
     @GetMapping
     public List<User> getAllUsers() {
@@ -137,6 +141,8 @@ public class UserController {
             user.setCompanyName(userDetails.getCompanyName());
             user.setCompanyEmail(userDetails.getCompanyEmail());
             User updatedUser = userRepository.save(user);
+            // New invoices show the new company details
+            invoiceService.evictTemplate(id);
             return ResponseEntity.ok(updatedUser);
         } else {
             return ResponseEntity.notFound().build();
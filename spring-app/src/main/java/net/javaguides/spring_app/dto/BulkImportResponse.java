@@ -0,0 +1,64 @@
+package net.javaguides.spring_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a bulk order import: one entry per input order, plus an error if the input could not be read to the end
+ */
+public class BulkImportResponse {
+
+    private int created;
+    private int failed;
+    private List<BulkOrderResult> results = new ArrayList<>();
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String error;
+
+    public BulkImportResponse() {
+    }
+
+    public void add(BulkOrderResult result) {
+        results.add(result);
+        if ("CREATED".equals(result.getStatus())) {
+            created++;
+        } else {
+            failed++;
+        }
+    }
+
+    // Getters and Setters
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<BulkOrderResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<BulkOrderResult> results) {
+        this.results = results;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,30 @@
+package net.javaguides.spring_app.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * DTO for finalizing several PENDING orders at once
+ */
+public class FinalizeBatchRequest {
+
+    @NotEmpty(message = "At least one order ID is required")
+    private List<Long> orderIds;
+
+    // Constructors
+    public FinalizeBatchRequest() {
+    }
+
+    public FinalizeBatchRequest(List<Long> orderIds) {
+        this.orderIds = orderIds;
+    }
+
+    // Getters and Setters
+    public List<Long> getOrderIds() {
+        return orderIds;
+    }
+
+    public void setOrderIds(List<Long> orderIds) {
+        this.orderIds = orderIds;
+    }
+}
@@ -0,0 +1,51 @@
+package net.javaguides.spring_app.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a batch finalization: one entry per requested order, in request order
+ */
+public class FinalizeBatchResponse {
+
+    private int finalized;
+    private int rejected;
+    private List<FinalizeBatchResult> results = new ArrayList<>();
+
+    public FinalizeBatchResponse() {
+    }
+
+    public void add(FinalizeBatchResult result) {
+        results.add(result);
+        if ("FINALIZED".equals(result.getStatus())) {
+            finalized++;
+        } else {
+            rejected++;
+        }
+    }
+
+    // Getters and Setters
+    public int getFinalized() {
+        return finalized;
+    }
+
+    public void setFinalized(int finalized) {
+        this.finalized = finalized;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    public List<FinalizeBatchResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<FinalizeBatchResult> results) {
+        this.results = results;
+    }
+}
@@ -0,0 +1,67 @@
+package net.javaguides.spring_app.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one order of a batch finalization
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FinalizeBatchResult {
+
+    private Long orderId;
+    private String status;
+    private String invoiceNumber;
+    private String error;
+
+    public FinalizeBatchResult() {
+    }
+
+    public static FinalizeBatchResult finalized(Long orderId, String invoiceNumber) {
+        FinalizeBatchResult result = new FinalizeBatchResult();
+        result.setOrderId(orderId);
+        result.setStatus("FINALIZED");
+        result.setInvoiceNumber(invoiceNumber);
+        return result;
+    }
+
+    public static FinalizeBatchResult rejected(Long orderId, String error) {
+        FinalizeBatchResult result = new FinalizeBatchResult();
+        result.setOrderId(orderId);
+        result.setStatus("REJECTED");
+        result.setError(error);
+        return result;
+    }
+
+    // Getters and Setters
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    public void setInvoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,55 @@
+package net.javaguides.spring_app.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What an order update changed in the order lines, by product ID
+ */
+public class OrderItemChanges {
+
+    private List<Long> addedProductIds = new ArrayList<>();
+    private List<Long> updatedProductIds = new ArrayList<>();
+    private List<Long> removedProductIds = new ArrayList<>();
+    private int unchanged;
+
+    public OrderItemChanges() {
+    }
+
+    public boolean hasChanges() {
+        return !addedProductIds.isEmpty() || !updatedProductIds.isEmpty() || !removedProductIds.isEmpty();
+    }
+
+    // Getters and Setters
+    public List<Long> getAddedProductIds() {
+        return addedProductIds;
+    }
+
+    public void setAddedProductIds(List<Long> addedProductIds) {
+        this.addedProductIds = addedProductIds;
+    }
+
+    public List<Long> getUpdatedProductIds() {
+        return updatedProductIds;
+    }
+
+    public void setUpdatedProductIds(List<Long> updatedProductIds) {
+        this.updatedProductIds = updatedProductIds;
+    }
+
+    public List<Long> getRemovedProductIds() {
+        return removedProductIds;
+    }
+
+    public void setRemovedProductIds(List<Long> removedProductIds) {
+        this.removedProductIds = removedProductIds;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(int unchanged) {
+        this.unchanged = unchanged;
+    }
+}
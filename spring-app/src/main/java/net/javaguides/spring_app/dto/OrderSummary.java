@@ -0,0 +1,29 @@
+package net.javaguides.spring_app.dto;
+
+import net.javaguides.spring_app.entity.Order.OrderStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lightweight order projection for list views (no line items)
+ */
+public interface OrderSummary {
+
+    Long getId();
+
+    String getClientName();
+
+    String getClientCompany();
+
+    OrderStatus getStatus();
+
+    Integer getTotalItems();
+
+    Double getTotalAmount();
+
+    String getInvoiceNumber();
+
+    LocalDateTime getCreatedAt();
+
+    LocalDateTime getFinalizedAt();
+}
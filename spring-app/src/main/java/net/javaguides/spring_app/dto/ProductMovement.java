@@ -0,0 +1,17 @@
+package net.javaguides.spring_app.dto;
+
+/**
+ * Stock movement totals of a product over a period (from the daily rollup)
+ */
+public interface ProductMovement {
+
+    Long getProductId();
+
+    Long getUnitsSold();
+
+    Long getUnitsRestocked();
+
+    Long getAdjustments();
+
+    Long getTransactionCount();
+}
@@ -0,0 +1,31 @@
+package net.javaguides.spring_app.dto;
+
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import net.javaguides.spring_app.service.ImageService;
+
+/**
+ * Lightweight product projection for list views (no image payload, only the image reference)
+ */
+public interface ProductSummary {
+
+    Long getId();
+
+    String getTitle();
+
+    Double getPrice();
+
+    Integer getCount();
+
+    Long getCategoryId();
+
+    String getImage();
+
+    // Thumbnail URLs (same as Product.getThumbnail and getThumbnailSmall)
+    default String getThumbnail() {
+        return ImageService.thumbnailUrl(getImage(), ThumbnailSize.MEDIUM);
+    }
+
+    default String getThumbnailSmall() {
+        return ImageService.thumbnailUrl(getImage(), ThumbnailSize.SMALL);
+    }
+}
@@ -1,14 +1,19 @@
 package net.javaguides.spring_app.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import net.javaguides.spring_app.service.ImageService;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "categories")
+@Table(name = "categories", indexes = {
+    // Company scoping of category and product queries (e.g. the quick-stats counts)
+    @Index(name = "idx_category_company", columnList = "company_id")
+})
 public class Category {
 
     @Id
@@ -25,7 +30,7 @@ public class Category {
 
     @NotBlank(message = "Image is required")
     @Column(nullable = false, columnDefinition = "TEXT")
-    private String image; // Base64 encoded
+    private String image; // Image reference (/api/images/{hash}), see ImageService
 
     @JsonIgnore
     @ManyToOne(fetch = FetchType.LAZY)
@@ -80,6 +85,12 @@ public class Category {
         this.image = image;
     }
 
+    // Thumbnail URL for the category cards (generated in the background by ImageThumbnailService)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public String getThumbnail() {
+        return ImageService.thumbnailUrl(image, ImageThumbnail.ThumbnailSize.MEDIUM);
+    }
+
     public User getCompany() {
         return company;
     }
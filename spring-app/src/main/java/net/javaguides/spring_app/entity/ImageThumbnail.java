@@ -0,0 +1,93 @@
+package net.javaguides.spring_app.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Maps a stored image and a thumbnail size to the stored image holding the thumbnail.
+ * Thumbnails are themselves content-addressed images in the images table.
+ */
+@Entity
+@Table(name = "image_thumbnails", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_thumbnail_source_size", columnNames = {"source_hash", "size"})
+})
+public class ImageThumbnail {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "source_hash", nullable = false, length = 64)
+    private String sourceHash;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "size", nullable = false, length = 20)
+    private ThumbnailSize size;
+
+    @Column(name = "thumbnail_hash", nullable = false, length = 64)
+    private String thumbnailHash;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public enum ThumbnailSize {
+        SMALL(96),    // Table rows, cart lines
+        MEDIUM(320);  // Inventory grid cards
+
+        private final int maxDimension;
+
+        ThumbnailSize(int maxDimension) {
+            this.maxDimension = maxDimension;
+        }
+
+        public int getMaxDimension() {
+            return maxDimension;
+        }
+    }
+
+    // Default constructor (required by JPA)
+    public ImageThumbnail() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    public void setSourceHash(String sourceHash) {
+        this.sourceHash = sourceHash;
+    }
+
+    public ThumbnailSize getSize() {
+        return size;
+    }
+
+    public void setSize(ThumbnailSize size) {
+        this.size = size;
+    }
+
+    public String getThumbnailHash() {
+        return thumbnailHash;
+    }
+
+    public void setThumbnailHash(String thumbnailHash) {
+        this.thumbnailHash = thumbnailHash;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,10 +1,12 @@
 package net.javaguides.spring_app.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import net.javaguides.spring_app.dto.OrderItemChanges;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,7 +15,10 @@ import java.util.List;
 @Table(name = "orders", indexes = {
     @Index(name = "idx_order_company", columnList = "company_id"),
     @Index(name = "idx_order_status", columnList = "status"),
-    @Index(name = "idx_order_created", columnList = "created_at")
+    @Index(name = "idx_order_created", columnList = "created_at"),
+    @Index(name = "idx_order_company_keyset", columnList = "company_id, created_at, id"),
+    @Index(name = "idx_order_company_status_keyset", columnList = "company_id, status, created_at, id"),
+    @Index(name = "idx_order_company_finalized", columnList = "company_id, finalized_at, id")
 })
 public class Order {
 
@@ -95,6 +100,11 @@ public class Order {
     @JoinColumn(name = "company_id", insertable = false, updatable = false)
     private User company;
 
+    // Line changes applied by the last update (only present in update responses)
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private OrderItemChanges itemChanges;
+
     public enum OrderStatus {
         PENDING,
         FINALIZED
@@ -272,6 +282,14 @@ public class Order {
         this.items = items;
     }
 
+    public OrderItemChanges getItemChanges() {
+        return itemChanges;
+    }
+
+    public void setItemChanges(OrderItemChanges itemChanges) {
+        this.itemChanges = itemChanges;
+    }
+
     public User getCompany() {
         return company;
     }
@@ -0,0 +1,192 @@
+package net.javaguides.spring_app.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Manifest entry of an archived month of a company: its finalized orders (with items) and product count
+ * history were moved to compressed files and deleted from the database.
+ * The totals let order statistics include archived orders without reading the files.
+ */
+@Entity
+@Table(name = "order_archives", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_order_archive_company_month", columnNames = {"company_id", "month"})
+})
+public class OrderArchive {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "company_id", nullable = false)
+    private Long companyId;
+
+    // First day of the archived month
+    @Column(name = "month", nullable = false)
+    private LocalDate month;
+
+    @Column(name = "order_count", nullable = false)
+    private Long orderCount = 0L;
+
+    @Column(name = "total_items", nullable = false)
+    private Long totalItems = 0L;
+
+    @Column(name = "total_amount", nullable = false)
+    private Double totalAmount = 0.0;
+
+    // Smallest and largest archived order ID (find the file of an order without opening the others)
+    @Column(name = "first_order_id")
+    private Long firstOrderId;
+
+    @Column(name = "last_order_id")
+    private Long lastOrderId;
+
+    @Column(name = "history_count", nullable = false)
+    private Long historyCount = 0L;
+
+    @JsonIgnore
+    @Column(name = "orders_file", length = 500)
+    private String ordersFile;
+
+    @JsonIgnore
+    @Column(name = "history_file", length = 500)
+    private String historyFile;
+
+    // Products with entries in the history file, so a product's history only opens the files that contain it
+    // (null until indexed: such files are read for every product)
+    @JsonIgnore
+    @Column(name = "history_product_ids", columnDefinition = "bigint[]")
+    private Long[] historyProductIds;
+
+    @Column(name = "size_bytes", nullable = false)
+    private Long sizeBytes = 0L;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    // Default constructor (required by JPA)
+    public OrderArchive() {
+        this.archivedAt = LocalDateTime.now();
+    }
+
+    public OrderArchive(Long companyId, LocalDate month) {
+        this();
+        this.companyId = companyId;
+        this.month = month;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getCompanyId() {
+        return companyId;
+    }
+
+    public void setCompanyId(Long companyId) {
+        this.companyId = companyId;
+    }
+
+    public LocalDate getMonth() {
+        return month;
+    }
+
+    public void setMonth(LocalDate month) {
+        this.month = month;
+    }
+
+    public Long getOrderCount() {
+        return orderCount;
+    }
+
+    public void setOrderCount(Long orderCount) {
+        this.orderCount = orderCount;
+    }
+
+    public Long getTotalItems() {
+        return totalItems;
+    }
+
+    public void setTotalItems(Long totalItems) {
+        this.totalItems = totalItems;
+    }
+
+    public Double getTotalAmount() {
+        return totalAmount;
+    }
+
+    public void setTotalAmount(Double totalAmount) {
+        this.totalAmount = totalAmount;
+    }
+
+    public Long getFirstOrderId() {
+        return firstOrderId;
+    }
+
+    public void setFirstOrderId(Long firstOrderId) {
+        this.firstOrderId = firstOrderId;
+    }
+
+    public Long getLastOrderId() {
+        return lastOrderId;
+    }
+
+    public void setLastOrderId(Long lastOrderId) {
+        this.lastOrderId = lastOrderId;
+    }
+
+    public Long getHistoryCount() {
+        return historyCount;
+    }
+
+    public void setHistoryCount(Long historyCount) {
+        this.historyCount = historyCount;
+    }
+
+    public String getOrdersFile() {
+        return ordersFile;
+    }
+
+    public void setOrdersFile(String ordersFile) {
+        this.ordersFile = ordersFile;
+    }
+
+    public String getHistoryFile() {
+        return historyFile;
+    }
+
+    public void setHistoryFile(String historyFile) {
+        this.historyFile = historyFile;
+    }
+
+    public Long[] getHistoryProductIds() {
+        return historyProductIds;
+    }
+
+    public void setHistoryProductIds(Long[] historyProductIds) {
+        this.historyProductIds = historyProductIds;
+    }
+
+    public Long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(Long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public LocalDateTime getArchivedAt() {
+        return archivedAt;
+    }
+
+    public void setArchivedAt(LocalDateTime archivedAt) {
+        this.archivedAt = archivedAt;
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import net.javaguides.spring_app.service.ImageService;
 
 @Entity
 @Table(name = "order_items", indexes = {
@@ -27,6 +28,7 @@ public class OrderItem {
     @Column(name = "product_title", nullable = false, length = 100)
     private String productTitle;
 
+    // Immutable image reference (/api/images/{hash}), never the image payload
     @Column(name = "product_image", columnDefinition = "TEXT")
     private String productImage;
 
@@ -71,7 +73,8 @@ public class OrderItem {
         OrderItem item = new OrderItem();
         item.setProductId(product.getId());
         item.setProductTitle(product.getTitle());
-        item.setProductImage(product.getImage());
+        // Content-addressed references never change, so lines can share them instead of copying the image
+        item.setProductImage(ImageService.isReference(product.getImage()) ? product.getImage() : null);
         item.setQuantity(quantity);
         item.setUnitPrice(product.getPrice());
         item.calculateSubtotal();
@@ -0,0 +1,114 @@
+package net.javaguides.spring_app.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Per-company order statistics, maintained incrementally by order create/update/delete/finalize
+ * and periodically recomputed from the orders table.
+ */
+@Entity
+@Table(name = "order_stats")
+public class OrderStats {
+
+    @Id
+    @Column(name = "company_id")
+    private Long companyId;
+
+    @Column(name = "pending_count", nullable = false)
+    private Long pendingCount = 0L;
+
+    @Column(name = "finalized_count", nullable = false)
+    private Long finalizedCount = 0L;
+
+    @Column(name = "pending_items", nullable = false)
+    private Long pendingItems = 0L;
+
+    @Column(name = "finalized_items", nullable = false)
+    private Long finalizedItems = 0L;
+
+    @Column(name = "pending_amount", nullable = false)
+    private Double pendingAmount = 0.0;
+
+    @Column(name = "finalized_revenue", nullable = false)
+    private Double finalizedRevenue = 0.0;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    // Default constructor (required by JPA)
+    public OrderStats() {
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    // Constructor with companyId (empty statistics)
+    public OrderStats(Long companyId) {
+        this();
+        this.companyId = companyId;
+    }
+
+    // Getters and Setters
+    public Long getCompanyId() {
+        return companyId;
+    }
+
+    public void setCompanyId(Long companyId) {
+        this.companyId = companyId;
+    }
+
+    public Long getPendingCount() {
+        return pendingCount;
+    }
+
+    public void setPendingCount(Long pendingCount) {
+        this.pendingCount = pendingCount;
+    }
+
+    public Long getFinalizedCount() {
+        return finalizedCount;
+    }
+
+    public void setFinalizedCount(Long finalizedCount) {
+        this.finalizedCount = finalizedCount;
+    }
+
+    public Long getPendingItems() {
+        return pendingItems;
+    }
+
+    public void setPendingItems(Long pendingItems) {
+        this.pendingItems = pendingItems;
+    }
+
+    public Long getFinalizedItems() {
+        return finalizedItems;
+    }
+
+    public void setFinalizedItems(Long finalizedItems) {
+        this.finalizedItems = finalizedItems;
+    }
+
+    public Double getPendingAmount() {
+        return pendingAmount;
+    }
+
+    public void setPendingAmount(Double pendingAmount) {
+        this.pendingAmount = pendingAmount;
+    }
+
+    public Double getFinalizedRevenue() {
+        return finalizedRevenue;
+    }
+
+    public void setFinalizedRevenue(Double finalizedRevenue) {
+        this.finalizedRevenue = finalizedRevenue;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -1,16 +1,24 @@
 package net.javaguides.spring_app.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import net.javaguides.spring_app.service.ImageService;
 
 @Entity
-@Table(name = "products")
+@Table(name = "products", indexes = {
+    // Keyset pagination of product listings (see ProductRepository.findSummaryPageAsc)
+    @Index(name = "idx_product_category_keyset", columnList = "category_id, id")
+})
 public class Product {
 
+    // Products at or below this count (but not zero) are reported as low stock
+    public static final int LOW_STOCK_THRESHOLD = 10;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -25,7 +33,7 @@ public class Product {
 
     @NotBlank(message = "Image is required")
     @Column(nullable = false, columnDefinition = "TEXT")
-    private String image; // Base64 encoded
+    private String image; // Image reference (/api/images/{hash}), see ImageService
 
     @DecimalMin(value = "0.01", message = "Price must be greater than 0")
     @Column(nullable = false)
@@ -35,6 +43,12 @@ public class Product {
     @Column(nullable = false)
     private Integer count;
 
+    // Optimistic lock: incremented by every write, including the JDBC stock updates in StockService.
+    // Clients send back the version they read; PUT /api/products/{id} answers 409 if it is stale.
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
     @JsonIgnore
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "category_id", insertable = false, updatable = false)
@@ -86,6 +100,18 @@ public class Product {
         this.image = image;
     }
 
+    // Thumbnail URLs (generated in the background by ImageThumbnailService): grid cards
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public String getThumbnail() {
+        return ImageService.thumbnailUrl(image, ImageThumbnail.ThumbnailSize.MEDIUM);
+    }
+
+    // Table rows, cart lines
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public String getThumbnailSmall() {
+        return ImageService.thumbnailUrl(image, ImageThumbnail.ThumbnailSize.SMALL);
+    }
+
     public Double getPrice() {
         return price;
     }
@@ -102,6 +128,14 @@ public class Product {
         this.count = count;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Category getCategory() {
         return category;
     }
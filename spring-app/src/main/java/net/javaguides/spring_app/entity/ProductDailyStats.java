@@ -0,0 +1,140 @@
+package net.javaguides.spring_app.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Daily rollup of a product's count history: units sold, restocked and adjusted, number of history entries
+ * and the count at the end of the day. Maintained incrementally as history entries are recorded
+ * (and rebuilt from the history for a range of days), so analytics read one row per product and day.
+ * Deleted together with the product (ON DELETE CASCADE, see product_daily_stats_product_fk.sql).
+ */
+@Entity
+@Table(name = "product_daily_stats", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_product_daily_stats_product_day", columnNames = {"product_id", "day"})
+}, indexes = {
+    @Index(name = "idx_product_daily_stats_company_day", columnList = "company_id, day")
+})
+public class ProductDailyStats {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "company_id", nullable = false)
+    private Long companyId;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "day", nullable = false)
+    private LocalDate day;
+
+    // Units removed by SALE entries
+    @Column(name = "units_sold", nullable = false)
+    private Long unitsSold = 0L;
+
+    // Units added by RESTOCK entries
+    @Column(name = "units_restocked", nullable = false)
+    private Long unitsRestocked = 0L;
+
+    // Net units of INITIAL and ADJUSTMENT entries
+    @Column(name = "adjustments", nullable = false)
+    private Long adjustments = 0L;
+
+    @Column(name = "transaction_count", nullable = false)
+    private Long transactionCount = 0L;
+
+    // Count after the day's last entry, and the time of that entry
+    @Column(name = "closing_count", nullable = false)
+    private Integer closingCount;
+
+    @Column(name = "closing_at", nullable = false)
+    private LocalDateTime closingAt;
+
+    // Default constructor (required by JPA)
+    public ProductDailyStats() {
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getCompanyId() {
+        return companyId;
+    }
+
+    public void setCompanyId(Long companyId) {
+        this.companyId = companyId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public void setDay(LocalDate day) {
+        this.day = day;
+    }
+
+    public Long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public void setUnitsSold(Long unitsSold) {
+        this.unitsSold = unitsSold;
+    }
+
+    public Long getUnitsRestocked() {
+        return unitsRestocked;
+    }
+
+    public void setUnitsRestocked(Long unitsRestocked) {
+        this.unitsRestocked = unitsRestocked;
+    }
+
+    public Long getAdjustments() {
+        return adjustments;
+    }
+
+    public void setAdjustments(Long adjustments) {
+        this.adjustments = adjustments;
+    }
+
+    public Long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public void setTransactionCount(Long transactionCount) {
+        this.transactionCount = transactionCount;
+    }
+
+    public Integer getClosingCount() {
+        return closingCount;
+    }
+
+    public void setClosingCount(Integer closingCount) {
+        this.closingCount = closingCount;
+    }
+
+    public LocalDateTime getClosingAt() {
+        return closingAt;
+    }
+
+    public void setClosingAt(LocalDateTime closingAt) {
+        this.closingAt = closingAt;
+    }
+}
@@ -2,6 +2,8 @@ package net.javaguides.spring_app.repository;
 
 import net.javaguides.spring_app.entity.Category;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -24,4 +26,15 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
      * @return optional category if found and belongs to company
      */
     Optional<Category> findByIdAndCompanyId(Long id, Long companyId);
+
+    /**
+     * Find IDs of categories whose image is still stored inline (base64) instead of as an image reference.
+     * Keyset-paginated by ID so the image migration can process rows in bounded batches.
+     * @param afterId only return IDs greater than this one
+     * @param limit maximum number of IDs to return
+     * @return list of category IDs in ascending order
+     */
+    @Query(value = "SELECT id FROM categories WHERE id > :afterId AND image NOT LIKE '/api/images/%' " +
+                   "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsWithInlineImage(@Param("afterId") Long afterId, @Param("limit") int limit);
 }
@@ -0,0 +1,23 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.entity.FinalizationJob;
+import net.javaguides.spring_app.entity.FinalizationJob.JobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Optional;
+
+@Repository
+public interface FinalizationJobRepository extends JpaRepository<FinalizationJob, Long> {
+
+    /**
+     * Find job by ID and company ID (for ownership verification)
+     */
+    Optional<FinalizationJob> findByIdAndCompanyId(Long id, Long companyId);
+
+    /**
+     * Find the job of an order that is still queued or running, if any
+     */
+    Optional<FinalizationJob> findFirstByOrderIdAndStatusIn(Long orderId, Collection<JobStatus> statuses);
+}
@@ -0,0 +1,32 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.entity.ImageThumbnail;
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ImageThumbnailRepository extends JpaRepository<ImageThumbnail, Long> {
+
+    /**
+     * Find the hash of the thumbnail image for a source image and size
+     * @param sourceHash the content hash of the original image
+     * @param size the thumbnail size
+     * @return optional thumbnail hash if it has been generated
+     */
+    @Query("SELECT t.thumbnailHash FROM ImageThumbnail t WHERE t.sourceHash = :sourceHash AND t.size = :size")
+    Optional<String> findThumbnailHash(@Param("sourceHash") String sourceHash, @Param("size") ThumbnailSize size);
+
+    /**
+     * Find the sizes already generated for a source image
+     * @param sourceHash the content hash of the original image
+     * @return list of generated sizes
+     */
+    @Query("SELECT t.size FROM ImageThumbnail t WHERE t.sourceHash = :sourceHash")
+    List<ThumbnailSize> findSizesBySourceHash(@Param("sourceHash") String sourceHash);
+}
@@ -0,0 +1,60 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.entity.OrderArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface OrderArchiveRepository extends JpaRepository<OrderArchive, Long> {
+
+    /**
+     * Find the archived months of a company, oldest first
+     */
+    List<OrderArchive> findByCompanyIdOrderByMonthAsc(Long companyId);
+
+    /**
+     * Check whether a month of a company is archived
+     */
+    boolean existsByCompanyIdAndMonth(Long companyId, LocalDate month);
+
+    /**
+     * Find the archived months of a company from a month on, oldest first
+     */
+    List<OrderArchive> findByCompanyIdAndMonthGreaterThanEqualOrderByMonthAsc(Long companyId, LocalDate month);
+
+    /**
+     * Find the archived months of a company in a range of months, oldest first
+     */
+    List<OrderArchive> findByCompanyIdAndMonthBetweenOrderByMonthAsc(Long companyId, LocalDate fromMonth, LocalDate toMonth);
+
+    /**
+     * Find the archived months of a company whose history file may contain a product (its index lists the
+     * product, or the file is not indexed yet), oldest first
+     */
+    @Query(value = "SELECT * FROM order_archives WHERE company_id = :companyId AND history_file IS NOT NULL " +
+                   "AND (history_product_ids IS NULL OR :productId = ANY (history_product_ids)) ORDER BY month",
+           nativeQuery = true)
+    List<OrderArchive> findWithHistoryOfProduct(@Param("companyId") Long companyId, @Param("productId") Long productId);
+
+    /**
+     * Find archived months whose history file is not indexed by product yet
+     */
+    List<OrderArchive> findByHistoryFileIsNotNullAndHistoryProductIdsIsNull();
+
+    /**
+     * Find every company's archive of a month
+     */
+    List<OrderArchive> findByMonth(LocalDate month);
+
+    /**
+     * Find the archived months whose order ID range contains an order ID
+     */
+    @Query("SELECT a FROM OrderArchive a WHERE a.companyId = :companyId " +
+           "AND a.firstOrderId <= :orderId AND a.lastOrderId >= :orderId ORDER BY a.month")
+    List<OrderArchive> findContainingOrder(@Param("companyId") Long companyId, @Param("orderId") Long orderId);
+}
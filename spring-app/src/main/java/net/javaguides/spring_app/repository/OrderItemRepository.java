@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,6 +18,11 @@ public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
      */
     List<OrderItem> findByOrderId(Long orderId);
 
+    /**
+     * Find all items of several orders in one query
+     */
+    List<OrderItem> findByOrderIdIn(Collection<Long> orderIds);
+
     /**
      * Delete all items for an order
      */
@@ -33,4 +39,15 @@ public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
      * Count items by order ID
      */
     Long countByOrderId(Long orderId);
+
+    /**
+     * Find IDs of order items that still hold an inline (base64) product image instead of an image reference.
+     * Keyset-paginated by ID so the backfill can process rows in bounded batches.
+     * @param afterId only return IDs greater than this one
+     * @param limit maximum number of IDs to return
+     * @return list of order item IDs in ascending order
+     */
+    @Query(value = "SELECT id FROM order_items WHERE id > :afterId AND product_image IS NOT NULL " +
+                   "AND product_image NOT LIKE '/api/images/%' ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsWithInlineImage(@Param("afterId") Long afterId, @Param("limit") int limit);
 }
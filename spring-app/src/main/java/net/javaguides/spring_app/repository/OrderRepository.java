@@ -1,12 +1,19 @@
 package net.javaguides.spring_app.repository;
 
+import jakarta.persistence.LockModeType;
+import net.javaguides.spring_app.dto.OrderSummary;
 import net.javaguides.spring_app.entity.Order;
 import net.javaguides.spring_app.entity.Order.OrderStatus;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,6 +30,77 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
      */
     Optional<Order> findByIdAndCompanyId(Long id, Long companyId);
 
+    /**
+     * Find order by ID and company ID and lock its row until the transaction ends
+     * (finalization, update and delete: a concurrent finalization of the same order waits, then sees it FINALIZED)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT o FROM Order o WHERE o.id = :id AND o.companyId = :companyId")
+    Optional<Order> findForUpdateByIdAndCompanyId(@Param("id") Long id, @Param("companyId") Long companyId);
+
+    /**
+     * Find several orders of a company and lock their rows in ID order (batch finalization)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT o FROM Order o WHERE o.id IN :ids AND o.companyId = :companyId ORDER BY o.id")
+    List<Order> findAllForUpdateByIdInAndCompanyId(@Param("ids") Collection<Long> ids, @Param("companyId") Long companyId);
+
+    /**
+     * Find order by ID and company ID with its items loaded in the same query
+     */
+    @EntityGraph(attributePaths = "items")
+    @Query("SELECT o FROM Order o WHERE o.id = :id AND o.companyId = :companyId")
+    Optional<Order> findWithItemsByIdAndCompanyId(@Param("id") Long id, @Param("companyId") Long companyId);
+
+    /**
+     * Find orders by ID with their items loaded in the same query, in finalization order (archival)
+     */
+    @EntityGraph(attributePaths = "items")
+    @Query("SELECT o FROM Order o WHERE o.id IN :ids ORDER BY o.finalizedAt, o.id")
+    List<Order> findAllWithItemsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Keyset page of order summaries, newest first (status is optional)
+     * Returns orders strictly after (afterCreatedAt, afterId) in (createdAt DESC, id DESC) order
+     */
+    @Query("SELECT o.id AS id, o.clientName AS clientName, o.clientCompany AS clientCompany, " +
+           "o.status AS status, o.totalItems AS totalItems, o.totalAmount AS totalAmount, " +
+           "o.invoiceNumber AS invoiceNumber, o.createdAt AS createdAt, o.finalizedAt AS finalizedAt " +
+           "FROM Order o WHERE o.companyId = :companyId " +
+           "AND (:status IS NULL OR o.status = :status) " +
+           "AND (o.createdAt < :afterCreatedAt OR (o.createdAt = :afterCreatedAt AND o.id < :afterId)) " +
+           "ORDER BY o.createdAt DESC, o.id DESC")
+    List<OrderSummary> findSummaryPage(@Param("companyId") Long companyId,
+                                       @Param("status") OrderStatus status,
+                                       @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                       @Param("afterId") Long afterId,
+                                       Limit limit);
+
+    /**
+     * Keyset page of the order summaries matching a search, newest first (status is optional, as an OrderStatus name)
+     * Client name and company are matched with namePattern (substring, trigram index idx_order_search_names_trgm);
+     * email and phone with prefix, invoice number with invoicePrefix or exactly (btree indexes idx_order_search_*)
+     */
+    @Query(value = "SELECT o.id AS \"id\", o.client_name AS \"clientName\", o.client_company AS \"clientCompany\", " +
+           "o.status AS \"status\", o.total_items AS \"totalItems\", o.total_amount AS \"totalAmount\", " +
+           "o.invoice_number AS \"invoiceNumber\", o.created_at AS \"createdAt\", o.finalized_at AS \"finalizedAt\" " +
+           "FROM orders o WHERE o.company_id = :companyId " +
+           "AND (lower(' ' || o.client_name || ' ' || coalesce(o.client_company, '')) LIKE :namePattern " +
+           "OR lower(o.client_email) LIKE :prefix OR o.client_phone LIKE :prefix " +
+           "OR o.invoice_number LIKE :invoicePrefix OR o.invoice_number = CAST(:invoiceNumber AS varchar)) " +
+           "AND (CAST(:status AS varchar) IS NULL OR o.status = CAST(:status AS varchar)) " +
+           "AND (o.created_at, o.id) < (:afterCreatedAt, :afterId) " +
+           "ORDER BY o.created_at DESC, o.id DESC LIMIT :limit", nativeQuery = true)
+    List<OrderSummary> searchSummaryPage(@Param("companyId") Long companyId,
+                                         @Param("namePattern") String namePattern,
+                                         @Param("prefix") String prefix,
+                                         @Param("invoicePrefix") String invoicePrefix,
+                                         @Param("invoiceNumber") String invoiceNumber,
+                                         @Param("status") String status,
+                                         @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                         @Param("afterId") Long afterId,
+                                         @Param("limit") int limit);
+
     /**
      * Find orders by company and status
      */
@@ -34,13 +112,6 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
     @Query("SELECT COUNT(o) FROM Order o WHERE o.companyId = :companyId AND o.status = :status")
     Long countByCompanyIdAndStatus(@Param("companyId") Long companyId, @Param("status") OrderStatus status);
 
-    /**
-     * Find the maximum invoice number for a company to generate the next one
-     * Invoice format: INV-XXXXX where XXXXX is a zero-padded number
-     */
-    @Query("SELECT MAX(o.invoiceNumber) FROM Order o WHERE o.companyId = :companyId AND o.invoiceNumber IS NOT NULL")
-    String findMaxInvoiceNumber(@Param("companyId") Long companyId);
-
     /**
      * Check if any order item uses a specific product
      */
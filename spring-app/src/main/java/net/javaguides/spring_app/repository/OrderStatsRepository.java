@@ -0,0 +1,9 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.entity.OrderStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface OrderStatsRepository extends JpaRepository<OrderStats, Long> {
+}
@@ -7,6 +7,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -53,4 +54,9 @@ public interface ProductCountHistoryRepository extends JpaRepository<ProductCoun
     List<Object[]> findTotalSoldByProducts(
             @Param("productIds") List<Long> productIds,
             @Param("startDate") LocalDateTime startDate);
+
+    /**
+     * Find history entries by ID, oldest first (archival)
+     */
+    List<ProductCountHistory> findByIdInOrderByChangedAtAscIdAsc(Collection<Long> ids);
 }
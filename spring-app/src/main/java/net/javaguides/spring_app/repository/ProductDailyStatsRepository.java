@@ -0,0 +1,32 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.dto.ProductMovement;
+import net.javaguides.spring_app.entity.ProductDailyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ProductDailyStatsRepository extends JpaRepository<ProductDailyStats, Long> {
+
+    /**
+     * Sum the daily rows of each of a company's products from a day on
+     * @param companyId the company ID
+     * @param since the first day
+     * @return one movement per product with history in the period
+     */
+    @Query("SELECT s.productId AS productId, SUM(s.unitsSold) AS unitsSold, SUM(s.unitsRestocked) AS unitsRestocked, " +
+           "SUM(s.adjustments) AS adjustments, SUM(s.transactionCount) AS transactionCount " +
+           "FROM ProductDailyStats s WHERE s.companyId = :companyId AND s.day >= :since GROUP BY s.productId")
+    List<ProductMovement> findMovementsSince(@Param("companyId") Long companyId, @Param("since") LocalDate since);
+
+    /**
+     * Total units sold by a company's products from a day on
+     */
+    @Query("SELECT COALESCE(SUM(s.unitsSold), 0) FROM ProductDailyStats s WHERE s.companyId = :companyId AND s.day >= :since")
+    long sumUnitsSoldSince(@Param("companyId") Long companyId, @Param("since") LocalDate since);
+}
@@ -1,10 +1,15 @@
 package net.javaguides.spring_app.repository;
 
+import net.javaguides.spring_app.dto.ProductSummary;
 import net.javaguides.spring_app.entity.Product;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,10 +38,75 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
      */
     Optional<Product> findByIdAndCategoryCompanyId(Long id, Long companyId);
 
+    /**
+     * Find several products by ID in one query, keeping only those that belong to the specified company
+     * @param ids the product IDs
+     * @param companyId the company ID
+     * @return the products found (missing or foreign IDs are simply absent)
+     */
+    List<Product> findAllByIdInAndCategoryCompanyId(Collection<Long> ids, Long companyId);
+
     /**
      * Delete all products in a specific category (used for cascade delete)
      * @param categoryId the category ID
      */
     @Transactional
     void deleteByCategoryId(Long categoryId);
+
+    /**
+     * Find IDs of products whose image is still stored inline (base64) instead of as an image reference.
+     * Keyset-paginated by ID so the image migration can process rows in bounded batches.
+     * @param afterId only return IDs greater than this one
+     * @param limit maximum number of IDs to return
+     * @return list of product IDs in ascending order
+     */
+    @Query(value = "SELECT id FROM products WHERE id > :afterId AND image NOT LIKE '/api/images/%' " +
+                   "ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsWithInlineImage(@Param("afterId") Long afterId, @Param("limit") int limit);
+
+    /**
+     * Keyset-paginated product listing in ascending (categoryId, id) order, without image payloads.
+     * Filters: optional category, stock range [minCount, maxCount] and lower-case title LIKE pattern (escape '!').
+     * The page starts after the (afterCategoryId, afterId) position - pass (0, 0) for the first page.
+     * Backed by idx_product_category_keyset and idx_product_title_lower.
+     */
+    @Query("SELECT p.id AS id, p.title AS title, p.price AS price, p.count AS count, " +
+           "p.categoryId AS categoryId, p.image AS image " +
+           "FROM Product p JOIN p.category c " +
+           "WHERE c.companyId = :companyId " +
+           "AND (:categoryId IS NULL OR p.categoryId = :categoryId) " +
+           "AND p.count BETWEEN :minCount AND :maxCount " +
+           "AND LOWER(p.title) LIKE :titlePattern ESCAPE '!' " +
+           "AND (p.categoryId > :afterCategoryId OR (p.categoryId = :afterCategoryId AND p.id > :afterId)) " +
+           "ORDER BY p.categoryId ASC, p.id ASC")
+    List<ProductSummary> findSummaryPageAsc(@Param("companyId") Long companyId,
+                                            @Param("categoryId") Long categoryId,
+                                            @Param("minCount") Integer minCount,
+                                            @Param("maxCount") Integer maxCount,
+                                            @Param("titlePattern") String titlePattern,
+                                            @Param("afterCategoryId") Long afterCategoryId,
+                                            @Param("afterId") Long afterId,
+                                            Limit limit);
+
+    /**
+     * Keyset-paginated product listing in descending (categoryId, id) order, without image payloads.
+     * Same filters as findSummaryPageAsc; pass (Long.MAX_VALUE, Long.MAX_VALUE) for the first page.
+     */
+    @Query("SELECT p.id AS id, p.title AS title, p.price AS price, p.count AS count, " +
+           "p.categoryId AS categoryId, p.image AS image " +
+           "FROM Product p JOIN p.category c " +
+           "WHERE c.companyId = :companyId " +
+           "AND (:categoryId IS NULL OR p.categoryId = :categoryId) " +
+           "AND p.count BETWEEN :minCount AND :maxCount " +
+           "AND LOWER(p.title) LIKE :titlePattern ESCAPE '!' " +
+           "AND (p.categoryId < :afterCategoryId OR (p.categoryId = :afterCategoryId AND p.id < :afterId)) " +
+           "ORDER BY p.categoryId DESC, p.id DESC")
+    List<ProductSummary> findSummaryPageDesc(@Param("companyId") Long companyId,
+                                             @Param("categoryId") Long categoryId,
+                                             @Param("minCount") Integer minCount,
+                                             @Param("maxCount") Integer maxCount,
+                                             @Param("titlePattern") String titlePattern,
+                                             @Param("afterCategoryId") Long afterCategoryId,
+                                             @Param("afterId") Long afterId,
+                                             Limit limit);
 }
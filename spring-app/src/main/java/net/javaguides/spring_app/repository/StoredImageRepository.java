@@ -0,0 +1,29 @@
+package net.javaguides.spring_app.repository;
+
+import net.javaguides.spring_app.entity.StoredImage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface StoredImageRepository extends JpaRepository<StoredImage, String> {
+
+    /**
+     * Metadata of a stored image, without the image bytes
+     */
+    interface ImageMetadata {
+        String getContentType();
+        Long getSizeBytes();
+    }
+
+    /**
+     * Find image metadata by content hash (does not load the bytes)
+     * @param hash the SHA-256 content hash
+     * @return optional metadata if the image exists
+     */
+    @Query("SELECT i.contentType AS contentType, i.sizeBytes AS sizeBytes FROM StoredImage i WHERE i.hash = :hash")
+    Optional<ImageMetadata> findMetadataByHash(@Param("hash") String hash);
+}
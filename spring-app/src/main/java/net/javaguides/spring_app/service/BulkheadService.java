@@ -0,0 +1,253 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bulkheads for expensive operations (invoice rendering, AI analysis).
+ * Each bulkhead runs its operations on its own threads, at most max-concurrent at a time, so a burst of them
+ * cannot take the request threads cheap endpoints need. Waiting operations are queued per company and started
+ * round-robin across companies, so one company's burst does not delay the others. An operation is rejected
+ * right away when its company already has max-queued-per-company waiting (429) or the queue holds max-queued (503).
+ * Configured with bulkheads.{name}.max-concurrent / max-queued / max-queued-per-company / retry-after-seconds.
+ */
+@Service
+public class BulkheadService {
+
+    public static final String INVOICES = "invoices";
+    public static final String ANALYSIS = "analysis";
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        bulkheads.put(INVOICES, createBulkhead(INVOICES, 4, 100, 20, 1));
+        bulkheads.put(ANALYSIS, createBulkhead(ANALYSIS, 2, 20, 2, 10));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkheads.values().forEach(bulkhead -> bulkhead.executor.shutdownNow());
+    }
+
+    /**
+     * Run an operation in a bulkhead, now or once a slot frees up
+     * @param name the bulkhead (INVOICES, ANALYSIS)
+     * @param companyId the company the operation runs for
+     * @param operation the operation
+     * @return completes with the operation's result (or its exception)
+     * @throws RejectedException if the company's queue or the bulkhead's queue is full
+     */
+    public <T> CompletableFuture<T> submit(String name, Long companyId, Supplier<T> operation) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("Unknown bulkhead: " + name);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        bulkhead.submit(companyId, new Task(System.nanoTime(), () -> {
+            try {
+                result.complete(operation.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }));
+        return result;
+    }
+
+    private Bulkhead createBulkhead(String name, int maxConcurrent, int maxQueued, int maxQueuedPerCompany,
+                                    int retryAfterSeconds) {
+        String prefix = "bulkheads." + name + ".";
+        Bulkhead bulkhead = new Bulkhead(name,
+                environment.getProperty(prefix + "max-concurrent", Integer.class, maxConcurrent),
+                environment.getProperty(prefix + "max-queued", Integer.class, maxQueued),
+                environment.getProperty(prefix + "max-queued-per-company", Integer.class, maxQueuedPerCompany),
+                environment.getProperty(prefix + "retry-after-seconds", Integer.class, retryAfterSeconds));
+        Gauge.builder("bulkhead.active", bulkhead, b -> b.active)
+                .description("Operations running in the bulkhead")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+        Gauge.builder("bulkhead.queued", bulkhead, b -> b.queued)
+                .description("Operations waiting for a slot in the bulkhead")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+        bulkhead.waitTimer = Timer.builder("bulkhead.queue.wait")
+                .description("Time from submission until an operation starts")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+        bulkhead.companyRejections = rejectionCounter(name, "company");
+        bulkhead.capacityRejections = rejectionCounter(name, "capacity");
+        return bulkhead;
+    }
+
+    private Counter rejectionCounter(String name, String reason) {
+        return Counter.builder("bulkhead.rejected")
+                .description("Operations rejected because the company's queue (company) or the bulkhead's queue (capacity) was full")
+                .tag("bulkhead", name)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A bounded executor with per-company queues
+     */
+    private static class Bulkhead {
+        private final String name;
+        private final int maxConcurrent;
+        private final int maxQueued;
+        private final int maxQueuedPerCompany;
+        private final int retryAfterSeconds;
+        private final ExecutorService executor;
+
+        // companyId -> waiting tasks; companies are served in insertion order and go to the back once served
+        // (guarded by lock)
+        private final LinkedHashMap<Long, ArrayDeque<Task>> waiting = new LinkedHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile int active;
+        private volatile int queued;
+
+        private Timer waitTimer;
+        private Counter companyRejections;
+        private Counter capacityRejections;
+
+        Bulkhead(String name, int maxConcurrent, int maxQueued, int maxQueuedPerCompany, int retryAfterSeconds) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+            this.maxQueuedPerCompany = maxQueuedPerCompany;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.executor = Executors.newFixedThreadPool(maxConcurrent,
+                    Thread.ofPlatform().name("bulkhead-" + name + "-", 0).daemon(true).factory());
+        }
+
+        void submit(Long companyId, Task task) {
+            lock.lock();
+            try {
+                if (active < maxConcurrent) {
+                    // Counted once the executor took it, so a rejected hand-off does not leak the slot
+                    start(task);
+                    active++;
+                    return;
+                }
+                ArrayDeque<Task> companyTasks = waiting.get(companyId);
+                if (companyTasks != null && companyTasks.size() >= maxQueuedPerCompany) {
+                    companyRejections.increment();
+                    throw new RejectedException(name, true, retryAfterSeconds);
+                }
+                if (queued >= maxQueued) {
+                    capacityRejections.increment();
+                    throw new RejectedException(name, false, retryAfterSeconds);
+                }
+                waiting.computeIfAbsent(companyId, id -> new ArrayDeque<>()).addLast(task);
+                queued++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void start(Task task) {
+            waitTimer.record(System.nanoTime() - task.submittedAt, TimeUnit.NANOSECONDS);
+            executor.execute(() -> {
+                try {
+                    task.operation.run();
+                } finally {
+                    finished();
+                }
+            });
+        }
+
+        /**
+         * Start the next company's oldest task in the freed slot
+         */
+        private void finished() {
+            lock.lock();
+            try {
+                Iterator<Map.Entry<Long, ArrayDeque<Task>>> companies = waiting.entrySet().iterator();
+                if (!companies.hasNext()) {
+                    active--;
+                    return;
+                }
+                Map.Entry<Long, ArrayDeque<Task>> next = companies.next();
+                companies.remove();
+                Task task = next.getValue().removeFirst();
+                if (!next.getValue().isEmpty()) {
+                    waiting.put(next.getKey(), next.getValue());
+                }
+                queued--;
+                try {
+                    start(task);
+                } catch (RuntimeException e) {
+                    // The freed slot was not handed over
+                    active--;
+                    throw e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A submitted operation
+     */
+    private static class Task {
+        private final long submittedAt;
+        private final Runnable operation;
+
+        Task(long submittedAt, Runnable operation) {
+            this.submittedAt = submittedAt;
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * Thrown when a bulkhead cannot take an operation: the company has too many waiting (too many requests)
+     * or the bulkhead's queue is full (service busy)
+     */
+    public static class RejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean companyLimit;
+        private final int retryAfterSeconds;
+
+        RejectedException(String name, boolean companyLimit, int retryAfterSeconds) {
+            super(companyLimit
+                    ? "Too many " + name + " requests in progress, please retry later"
+                    : "The server is busy with " + name + " requests, please retry later");
+            this.companyLimit = companyLimit;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isCompanyLimit() {
+            return companyLimit;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
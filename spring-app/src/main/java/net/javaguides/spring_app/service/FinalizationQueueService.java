@@ -0,0 +1,340 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.javaguides.spring_app.entity.FinalizationJob;
+import net.javaguides.spring_app.entity.FinalizationJob.JobStatus;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.repository.FinalizationJobRepository;
+import net.javaguides.spring_app.repository.OrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous order finalization: requests are queued in finalization_jobs (so the queue survives restarts)
+ * and finalized by virtual-thread workers instead of on the request thread.
+ * A dispatcher claims QUEUED jobs in ID order; a job starts only after the earlier jobs sharing one of its
+ * products have completed, so stock is handed out per product in the order finalizations were requested,
+ * while jobs on unrelated products run in parallel (at most orders.finalize-async.workers at a time).
+ * Note: the ordering holds within one instance. Each instance refreshes the heartbeat of the jobs it claimed;
+ * RUNNING jobs whose heartbeat is older than orders.finalize-async.stale-after-ms (their instance stopped) are
+ * requeued, and a job's outcome is only recorded by the instance that still owns it.
+ */
+@Service
+public class FinalizationQueueService {
+
+    private static final Logger log = LoggerFactory.getLogger(FinalizationQueueService.class);
+
+    @Autowired
+    private FinalizationJobRepository finalizationJobRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private StockRetryService stockRetryService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${orders.finalize-async.workers:4}")
+    private int workers;
+
+    @Value("${orders.finalize-async.max-in-flight:200}")
+    private int maxInFlight;
+
+    @Value("${orders.finalize-async.stale-after-ms:60000}")
+    private long staleAfterMs;
+
+    // Owner of the jobs this instance claims
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ExecutorService workerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("finalize-worker-", 0).factory());
+
+    // productId -> completion of the last dispatched job using the product (guarded by dispatchLock;
+    // a lock rather than synchronized, which would pin the virtual threads that complete jobs)
+    private final Map<Long, CompletableFuture<Void>> productTails = new HashMap<>();
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private Semaphore permits;
+    private volatile boolean stopped;
+
+    private Timer waitTimer;
+    private Timer latencyTimer;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(workers);
+        Gauge.builder("orders.finalize.async.queue.depth", queueDepth, AtomicLong::get)
+                .description("Finalization jobs waiting to be picked up")
+                .register(meterRegistry);
+        Gauge.builder("orders.finalize.async.in.flight", inFlight, AtomicInteger::get)
+                .description("Finalization jobs picked up and not completed yet")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("orders.finalize.async.wait")
+                .description("Time from enqueue until a worker starts the finalization")
+                .register(meterRegistry);
+        latencyTimer = Timer.builder("orders.finalize.async.latency")
+                .description("Time from enqueue until the finalization completes")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        workerExecutor.shutdownNow();
+    }
+
+    /**
+     * Queue an order for finalization (the order must be PENDING)
+     * If the order is already queued or being finalized, its existing job is returned.
+     * @param companyId the company ID
+     * @param orderId the order ID
+     * @return the job
+     */
+    @Transactional
+    public FinalizationJob enqueue(Long companyId, Long orderId) {
+        // Lock the order so concurrent enqueues of the same order create one job
+        Order order = orderRepository.findForUpdateByIdAndCompanyId(orderId, companyId)
+                .orElseThrow(() -> new RuntimeException("Order not found or access denied"));
+        if (order.getStatus() != Order.OrderStatus.PENDING) {
+            throw new RuntimeException("Cannot finalize order - order is already finalized");
+        }
+
+        FinalizationJob job = finalizationJobRepository
+                .findFirstByOrderIdAndStatusIn(orderId, List.of(JobStatus.QUEUED, JobStatus.RUNNING))
+                .orElseGet(() -> finalizationJobRepository.save(new FinalizationJob(companyId, orderId)));
+
+        // Dispatch right after commit instead of waiting for the next poll
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                workerExecutor.execute(FinalizationQueueService.this::dispatch);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Get a finalization job
+     * @param companyId the company ID
+     * @param jobId the job ID
+     * @return the job with its status (and invoice number or error once completed)
+     */
+    public FinalizationJob getJob(Long companyId, Long jobId) {
+        return finalizationJobRepository.findByIdAndCompanyId(jobId, companyId)
+                .orElseThrow(() -> new RuntimeException("Finalization job not found or access denied"));
+    }
+
+    /**
+     * Requeue jobs interrupted by a shutdown, then start dispatching
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        requeueStaleJobs();
+        dispatch();
+    }
+
+    /**
+     * Refresh the heartbeat of the jobs this instance owns
+     */
+    @Scheduled(fixedDelayString = "${orders.finalize-async.heartbeat-interval-ms:10000}")
+    public void heartbeat() {
+        jdbcTemplate.update("UPDATE finalization_jobs SET heartbeat_at = ? WHERE status = 'RUNNING' AND owner_id = ?",
+                Timestamp.valueOf(LocalDateTime.now()), instanceId);
+    }
+
+    /**
+     * Requeue RUNNING jobs whose owner stopped sending heartbeats (their finalization was rolled back with the
+     * owner's connection). Jobs of live instances, including this one, are left alone.
+     * @return number of requeued jobs
+     */
+    @Scheduled(fixedDelayString = "${orders.finalize-async.stale-after-ms:60000}",
+            initialDelayString = "${orders.finalize-async.stale-after-ms:60000}")
+    public int requeueStaleJobs() {
+        int requeued = jdbcTemplate.update("UPDATE finalization_jobs SET status = 'QUEUED', started_at = NULL, " +
+                        "owner_id = NULL, heartbeat_at = NULL WHERE status = 'RUNNING' " +
+                        "AND (heartbeat_at IS NULL OR heartbeat_at < ?) AND owner_id IS DISTINCT FROM ?",
+                Timestamp.valueOf(LocalDateTime.now().minus(Duration.ofMillis(staleAfterMs))), instanceId);
+        if (requeued > 0) {
+            log.info("Requeued {} interrupted finalization jobs", requeued);
+        }
+        return requeued;
+    }
+
+    /**
+     * Claim QUEUED jobs (up to the in-flight limit) and hand them to the workers, chained per product
+     * @return number of jobs dispatched
+     */
+    @Scheduled(fixedDelayString = "${orders.finalize-async.poll-interval-ms:1000}")
+    public int dispatch() {
+        if (stopped) {
+            return 0;
+        }
+        dispatchLock.lock();
+        try {
+            return dispatchQueued();
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private int dispatchQueued() {
+        int capacity = maxInFlight - inFlight.get();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<ClaimedJob> jobs = capacity <= 0 ? List.of() : jdbcTemplate.query(
+                "UPDATE finalization_jobs SET status = 'RUNNING', started_at = ?, owner_id = ?, heartbeat_at = ? " +
+                        "WHERE id IN (SELECT id FROM finalization_jobs WHERE status = 'QUEUED' ORDER BY id LIMIT ? " +
+                        "FOR UPDATE SKIP LOCKED) RETURNING id, company_id, order_id, created_at",
+                (rs, rowNum) -> new ClaimedJob(rs.getLong(1), rs.getLong(2), rs.getLong(3),
+                        rs.getTimestamp(4).toLocalDateTime()),
+                now, instanceId, now, capacity);
+        queueDepth.set(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM finalization_jobs WHERE status = 'QUEUED'", Long.class));
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        jobs.sort(Comparator.comparing(ClaimedJob::getId));
+
+        // Products of every claimed order, in one query
+        Map<Long, Set<Long>> productsByOrder = new HashMap<>();
+        Long[] orderIds = jobs.stream().map(ClaimedJob::getOrderId).toArray(Long[]::new);
+        jdbcTemplate.query("SELECT order_id, product_id FROM order_items WHERE order_id = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", orderIds)),
+                rs -> {
+                    productsByOrder.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(rs.getLong(2));
+                });
+
+        for (ClaimedJob job : jobs) {
+            Set<Long> productIds = productsByOrder.getOrDefault(job.getOrderId(), Set.of());
+            CompletableFuture<?>[] earlier = productIds.stream().map(productTails::get)
+                    .filter(Objects::nonNull).distinct().toArray(CompletableFuture[]::new);
+
+            inFlight.incrementAndGet();
+            CompletableFuture<Void> done = CompletableFuture.allOf(earlier)
+                    .handle((result, error) -> null)
+                    .thenRunAsync(() -> run(job), workerExecutor);
+            productIds.forEach(productId -> productTails.put(productId, done));
+            done.whenComplete((result, error) -> {
+                dispatchLock.lock();
+                try {
+                    productIds.forEach(productId -> productTails.remove(productId, done));
+                } finally {
+                    dispatchLock.unlock();
+                }
+                inFlight.decrementAndGet();
+            });
+        }
+        return jobs.size();
+    }
+
+    /**
+     * Finalize the job's order; the job is marked SUCCEEDED in the same transaction. The outcome is only recorded
+     * while this instance still owns the job: a job requeued in the meantime rolls back its finalization.
+     */
+    private void run(ClaimedJob job) {
+        permits.acquireUninterruptibly();
+        waitTimer.record(Duration.between(job.getCreatedAt(), LocalDateTime.now()));
+        try {
+            stockRetryService.execute("finalize-async", () -> transactionTemplate.execute(status -> {
+                Order order = orderService.finalizeOrder(job.getCompanyId(), job.getOrderId());
+                if (jdbcTemplate.update("UPDATE finalization_jobs SET status = 'SUCCEEDED', invoice_number = ?, " +
+                                "completed_at = ? WHERE id = ? AND status = 'RUNNING' AND owner_id = ?",
+                        order.getInvoiceNumber(), Timestamp.valueOf(LocalDateTime.now()), job.getId(), instanceId) == 0) {
+                    throw new IllegalStateException("Finalization job " + job.getId() + " is no longer owned by this instance");
+                }
+                return order;
+            }));
+        } catch (RuntimeException e) {
+            try {
+                jdbcTemplate.update("UPDATE finalization_jobs SET status = 'FAILED', error = ?, completed_at = ? " +
+                                "WHERE id = ? AND status = 'RUNNING' AND owner_id = ?",
+                        e.getMessage(), Timestamp.valueOf(LocalDateTime.now()), job.getId(), instanceId);
+            } catch (RuntimeException updateError) {
+                // Left RUNNING: requeued once its heartbeat is stale
+                log.error("Failed to record the outcome of finalization job {}", job.getId(), updateError);
+            }
+        } finally {
+            permits.release();
+            latencyTimer.record(Duration.between(job.getCreatedAt(), LocalDateTime.now()));
+        }
+    }
+
+    /**
+     * A job claimed by the dispatcher
+     */
+    private static class ClaimedJob {
+        private final Long id;
+        private final Long companyId;
+        private final Long orderId;
+        private final LocalDateTime createdAt;
+
+        ClaimedJob(Long id, Long companyId, Long orderId, LocalDateTime createdAt) {
+            this.id = id;
+            this.companyId = companyId;
+            this.orderId = orderId;
+            this.createdAt = createdAt;
+        }
+
+        Long getId() {
+            return id;
+        }
+
+        Long getCompanyId() {
+            return companyId;
+        }
+
+        Long getOrderId() {
+            return orderId;
+        }
+
+        LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
@@ -5,15 +5,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.genai.Client;
 import com.google.genai.types.*;
 import net.javaguides.spring_app.dto.InventoryAnalysisResponse;
+import net.javaguides.spring_app.dto.ProductMovement;
 import net.javaguides.spring_app.entity.Product;
-import net.javaguides.spring_app.entity.ProductCountHistory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class GeminiAnalysisService {
@@ -41,14 +40,14 @@ public class GeminiAnalysisService {
     /**
      * Analyze inventory using Gemini 3 Flash AI
      * @param products list of products to analyze
-     * @param history list of count history entries (last 6 months)
+     * @param movements stock movements of each product (last 6 months)
      * @return AI-generated analysis response
      */
     public InventoryAnalysisResponse analyzeInventory(List<Product> products,
-                                                       List<ProductCountHistory> history) {
+                                                       List<ProductMovement> movements) {
         try {
             // Build the prompt with product and history data
-            String prompt = buildAnalysisPrompt(products, history);
+            String prompt = buildAnalysisPrompt(products, movements);
 
             // Call Gemini 3 API
             String apiResponse = callGemini3Api(prompt);
@@ -59,7 +58,7 @@ public class GeminiAnalysisService {
             System.err.println("Gemini API error: " + e.getMessage());
             e.printStackTrace();
             // Return a fallback response with basic stats on error
-            return buildFallbackResponse(products, history);
+            return buildFallbackResponse(products, movements);
         }
     }
 
@@ -67,7 +66,7 @@ public class GeminiAnalysisService {
      * Build the prompt for Gemini AI
      */
     private String buildAnalysisPrompt(List<Product> products,
-                                       List<ProductCountHistory> history) {
+                                       List<ProductMovement> movements) {
         StringBuilder prompt = new StringBuilder();
 
         prompt.append("You are an inventory management AI assistant. Analyze the following inventory data and provide insights.\n\n");
@@ -79,27 +78,12 @@ public class GeminiAnalysisService {
                     p.getId(), p.getTitle(), p.getPrice(), p.getCount()));
         }
 
-        // Add history data
+        // Add history data (totals per product from the daily rollup)
         prompt.append("\n## Stock Movement History (Last 6 Months)\n");
-        Map<Long, List<ProductCountHistory>> historyByProduct = history.stream()
-                .collect(Collectors.groupingBy(ProductCountHistory::getProductId));
-
-        for (Map.Entry<Long, List<ProductCountHistory>> entry : historyByProduct.entrySet()) {
-            Long productId = entry.getKey();
-            List<ProductCountHistory> changes = entry.getValue();
-
-            int totalSold = changes.stream()
-                    .filter(h -> h.getChangeType() == ProductCountHistory.ChangeType.SALE)
-                    .mapToInt(h -> Math.abs(h.getChangeAmount()))
-                    .sum();
-
-            int totalRestocked = changes.stream()
-                    .filter(h -> h.getChangeType() == ProductCountHistory.ChangeType.RESTOCK)
-                    .mapToInt(ProductCountHistory::getChangeAmount)
-                    .sum();
-
+        for (ProductMovement movement : movements) {
             prompt.append(String.format("- Product ID %d: Sold %d units, Restocked %d units, %d transactions\n",
-                    productId, totalSold, totalRestocked, changes.size()));
+                    movement.getProductId(), movement.getUnitsSold(), movement.getUnitsRestocked(),
+                    movement.getTransactionCount()));
         }
 
         // Request structured output
@@ -215,14 +199,13 @@ public class GeminiAnalysisService {
      * Build fallback response when AI analysis fails
      */
     private InventoryAnalysisResponse buildFallbackResponse(List<Product> products,
-                                                             List<ProductCountHistory> history) {
+                                                             List<ProductMovement> movements) {
         InventoryAnalysisResponse response = new InventoryAnalysisResponse();
 
         // Calculate basic stats
         int totalProducts = products.size();
-        int totalSold = history.stream()
-                .filter(h -> h.getChangeType() == ProductCountHistory.ChangeType.SALE)
-                .mapToInt(h -> Math.abs(h.getChangeAmount()))
+        int totalSold = (int) movements.stream()
+                .mapToLong(ProductMovement::getUnitsSold)
                 .sum();
 
         // Summary
@@ -0,0 +1,386 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key support for order requests that must not run twice (client retries, double clicks).
+ * Successful (2xx) responses are kept per company and key in a bounded in-memory cache, in front of the
+ * idempotency_keys table: a replay served from the cache does not touch the database at all.
+ * A key is claimed by inserting its row before the request runs, and concurrent duplicates in this
+ * instance wait for the first request's outcome instead of running. The response is stored in the transaction
+ * that commits the request's changes, so a key without a response means nothing was committed; such keys are
+ * answered with 409 and never deleted automatically (the request may still be running). Error responses are
+ * not stored (the failed request changed nothing), so a retry with the same key runs again.
+ */
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+    private static final int MAX_KEY_LENGTH = 255;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${orders.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${orders.idempotency.cache-size:10000}")
+    private long cacheSize;
+
+    @Value("${orders.idempotency.wait-timeout-ms:30000}")
+    private long waitTimeoutMs;
+
+    @Value("${orders.idempotency.in-progress-timeout-minutes:5}")
+    private long inProgressTimeoutMinutes;
+
+    @Value("${orders.idempotency.cleanup-batch-size:1000}")
+    private int cleanupBatchSize;
+
+    // "companyId:key" -> stored response
+    private Cache<String, StoredResponse> responses;
+
+    // "companyId:key" -> outcome of the request currently running with that key in this instance
+    private final Map<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private Counter replayedCounter;
+
+    @PostConstruct
+    public void init() {
+        responses = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofHours(ttlHours))
+                .build();
+        replayedCounter = meterRegistry.counter("orders.idempotency.replayed");
+    }
+
+    /**
+     * Run a request at most once per company and Idempotency-Key
+     * @param companyId the company ID
+     * @param key the Idempotency-Key header (null runs the request as usual)
+     * @param operation method and path of the request, e.g. "POST /api/orders"
+     * @param payload the request body (null if none); a key reused with another operation or body is rejected
+     * @param action runs the request and returns its response; the part that changes data must run through
+     *               the given Transaction so the response is committed with it
+     * @return the response of the first request with this key
+     */
+    public ResponseEntity<?> execute(Long companyId, String key, String operation, Object payload,
+                                     Function<Transaction, ResponseEntity<?>> action) {
+        if (key == null) {
+            return action.apply(Supplier::get);
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", HEADER + " must be between 1 and " + MAX_KEY_LENGTH + " characters"));
+        }
+
+        String cacheKey = companyId + ":" + key;
+        String fingerprint = fingerprint(operation, payload);
+
+        StoredResponse stored = responses.getIfPresent(cacheKey);
+        if (stored != null) {
+            return replay(stored, fingerprint);
+        }
+
+        // A duplicate of a request still running in this instance waits for its outcome
+        CompletableFuture<StoredResponse> own = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> first = inFlight.putIfAbsent(cacheKey, own);
+        if (first != null) {
+            StoredResponse outcome;
+            try {
+                outcome = first.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return inProgress();
+            } catch (ExecutionException | TimeoutException e) {
+                return inProgress();
+            }
+            if (outcome == null) {
+                // The first request failed, so nothing was stored: run this one
+                return execute(companyId, key, operation, payload, action);
+            }
+            return replay(outcome, fingerprint);
+        }
+
+        StoredResponse outcome = null;
+        try {
+            if (!claimKey(companyId, key, fingerprint)) {
+                // Used before (evicted from the cache or served by another instance), or still running elsewhere
+                outcome = findCompleted(companyId, key);
+                if (outcome == null) {
+                    return inProgress();
+                }
+                responses.put(cacheKey, outcome);
+                return replay(outcome, fingerprint);
+            }
+
+            KeyTransaction transaction = new KeyTransaction(companyId, key, fingerprint);
+            ResponseEntity<?> response = run(transaction, action);
+            outcome = transaction.stored;
+            if (outcome != null) {
+                responses.put(cacheKey, outcome);
+            }
+            return response;
+        } finally {
+            inFlight.remove(cacheKey, own);
+            own.complete(outcome);
+        }
+    }
+
+    /**
+     * Insert the key's row (without a response yet); an expired row with a response that was not cleaned up yet
+     * is taken over
+     * @return false if the key is already taken
+     */
+    private boolean claimKey(Long companyId, String key, String fingerprint) {
+        LocalDateTime now = LocalDateTime.now();
+        return jdbcTemplate.update("INSERT INTO idempotency_keys (company_id, idempotency_key, " +
+                        "request_fingerprint, response_status, response_body, created_at, expires_at) " +
+                        "VALUES (?, ?, ?, NULL, NULL, ?, ?) " +
+                        "ON CONFLICT (company_id, idempotency_key) DO UPDATE SET " +
+                        "request_fingerprint = EXCLUDED.request_fingerprint, response_status = NULL, " +
+                        "response_body = NULL, response_location = NULL, created_at = EXCLUDED.created_at, " +
+                        "expires_at = EXCLUDED.expires_at " +
+                        "WHERE idempotency_keys.expires_at <= EXCLUDED.created_at " +
+                        "AND idempotency_keys.response_status IS NOT NULL",
+                companyId, key, fingerprint, Timestamp.valueOf(now), Timestamp.valueOf(now.plusHours(ttlHours))) > 0;
+    }
+
+    /**
+     * Read the stored response of a key, or null if its request has not completed
+     */
+    private StoredResponse findCompleted(Long companyId, String key) {
+        List<StoredResponse> stored = jdbcTemplate.query("SELECT request_fingerprint, response_status, response_body, " +
+                        "response_location FROM idempotency_keys WHERE company_id = ? AND idempotency_key = ? " +
+                        "AND response_status IS NOT NULL",
+                (rs, rowNum) -> new StoredResponse(rs.getString(1), rs.getInt(2), rs.getString(3), rs.getString(4)),
+                companyId, key);
+        return stored.isEmpty() ? null : stored.get(0);
+    }
+
+    /**
+     * Run the request on a claimed key; release the key if it failed
+     */
+    private ResponseEntity<?> run(KeyTransaction transaction, Function<Transaction, ResponseEntity<?>> action) {
+        ResponseEntity<?> response;
+        try {
+            response = action.apply(transaction);
+        } catch (RuntimeException e) {
+            releaseKey(transaction.companyId, transaction.key);
+            throw e;
+        }
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            releaseKey(transaction.companyId, transaction.key);
+        } else if (transaction.stored == null) {
+            // The action changed nothing through the transaction, so the response can only be stored now
+            transaction.stored = transaction.store(response);
+        }
+        return response;
+    }
+
+    /**
+     * Delete expired keys in bounded batches. Keys without a response are kept (a retry is answered with 409):
+     * their request may still be running, so they are only reported once they are older than
+     * in-progress-timeout-minutes. Since responses are committed with the request's changes, such a key's
+     * request committed nothing and the key can be deleted by hand to let the client retry.
+     * @return number of deleted keys
+     */
+    @Scheduled(fixedDelayString = "${orders.idempotency.cleanup-interval-ms:3600000}")
+    public int deleteExpiredKeys() {
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM idempotency_keys WHERE id IN (SELECT id FROM idempotency_keys " +
+                            "WHERE expires_at <= ? AND response_status IS NOT NULL ORDER BY id LIMIT ?)",
+                    Timestamp.valueOf(LocalDateTime.now()), cleanupBatchSize);
+            total += deleted;
+        } while (deleted == cleanupBatchSize);
+
+        if (total > 0) {
+            log.info("Deleted {} expired idempotency keys", total);
+        }
+        Long unresolved = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys " +
+                        "WHERE response_status IS NULL AND created_at <= ?", Long.class,
+                Timestamp.valueOf(LocalDateTime.now().minusMinutes(inProgressTimeoutMinutes)));
+        if (unresolved != null && unresolved > 0) {
+            log.warn("{} idempotency keys have had no response for more than {} minutes; their requests " +
+                    "committed nothing and retries get 409 until the keys are deleted", unresolved, inProgressTimeoutMinutes);
+        }
+        return total;
+    }
+
+    private ResponseEntity<?> replay(StoredResponse stored, String fingerprint) {
+        if (!stored.getFingerprint().equals(fingerprint)) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(Map.of("error", HEADER + " was already used for a different request"));
+        }
+        replayedCounter.increment();
+        return stored.toResponse();
+    }
+
+    private ResponseEntity<?> inProgress() {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", "A request with this " + HEADER + " is still in progress"));
+    }
+
+    private void releaseKey(Long companyId, String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_keys WHERE company_id = ? AND idempotency_key = ? " +
+                "AND response_status IS NULL", companyId, key);
+    }
+
+    private String fingerprint(String operation, Object payload) {
+        if (payload == null) {
+            return operation;
+        }
+        try {
+            return operation + " " + Hashing.sha256().hashBytes(objectMapper.writeValueAsBytes(payload));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize request body", e);
+        }
+    }
+
+    private String toJson(Object body) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize response", e);
+        }
+    }
+
+    /**
+     * Status, JSON body and Location header of a stored response, with the fingerprint of the request
+     * that produced it
+     */
+    private static class StoredResponse {
+        private final String fingerprint;
+        private final int status;
+        private final String body;
+        private final String location;
+
+        StoredResponse(String fingerprint, int status, String body, String location) {
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.body = body;
+            this.location = location;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        ResponseEntity<?> toResponse() {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(status).header("Idempotent-Replayed", "true");
+            if (location != null) {
+                builder.header(HttpHeaders.LOCATION, location);
+            }
+            if (body == null) {
+                return builder.build();
+            }
+            return builder.contentType(MediaType.APPLICATION_JSON).body(body);
+        }
+    }
+
+    /**
+     * Runs the data-changing part of a request in one transaction
+     */
+    @FunctionalInterface
+    public interface Transaction {
+        /**
+         * Run work in a transaction; with an Idempotency-Key, a successful response is stored in the same
+         * transaction. Each call is a transaction of its own (retries call it again).
+         * @param work changes data and returns the response
+         * @return the response of work
+         */
+        ResponseEntity<?> execute(Supplier<ResponseEntity<?>> work);
+    }
+
+    /**
+     * Transaction of a request with a claimed key: stores a successful response with the request's changes
+     */
+    private class KeyTransaction implements Transaction {
+        private final Long companyId;
+        private final String key;
+        private final String fingerprint;
+        // Set once a transaction with a successful response has committed
+        private StoredResponse stored;
+
+        KeyTransaction(Long companyId, String key, String fingerprint) {
+            this.companyId = companyId;
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public ResponseEntity<?> execute(Supplier<ResponseEntity<?>> work) {
+            StoredResponse[] outcome = new StoredResponse[1];
+            ResponseEntity<?> response = transactionTemplate.execute(status -> {
+                ResponseEntity<?> result = work.get();
+                if (result.getStatusCode().is2xxSuccessful()) {
+                    outcome[0] = store(result);
+                } else {
+                    status.setRollbackOnly();
+                }
+                return result;
+            });
+            if (outcome[0] != null) {
+                stored = outcome[0];
+            }
+            return response;
+        }
+
+        StoredResponse store(ResponseEntity<?> response) {
+            StoredResponse outcome = new StoredResponse(fingerprint, response.getStatusCode().value(),
+                    toJson(response.getBody()), response.getHeaders().getFirst(HttpHeaders.LOCATION));
+            jdbcTemplate.update("UPDATE idempotency_keys SET response_status = ?, response_body = ?, " +
+                            "response_location = ? WHERE company_id = ? AND idempotency_key = ?",
+                    outcome.status, outcome.body, outcome.location, companyId, key);
+            return outcome;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.OrderItem;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.repository.CategoryRepository;
+import net.javaguides.spring_app.repository.OrderItemRepository;
+import net.javaguides.spring_app.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * One-off migration that moves inline base64 images out of the products, categories and order_items rows
+ * into the content-addressed image store. Runs at startup in bounded batches, one transaction per batch,
+ * and is a no-op once every row holds an image reference.
+ * The rewritten rows leave their old versions behind as dead space, which plain (auto)vacuum only makes
+ * reusable; with images.migration.vacuum-full=true the converted tables are rewritten with VACUUM FULL
+ * afterwards to return it to the OS. VACUUM FULL locks each table exclusively while it runs (blocking reads
+ * and writes), so it is off by default - enable it for a maintenance window.
+ */
+@Service
+public class ImageMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageMigrationService.class);
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${images.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${images.migration.batch-size:50}")
+    private int batchSize;
+
+    @Value("${images.migration.vacuum-full:false}")
+    private boolean vacuumFull;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateInlineImages() {
+        if (!enabled) {
+            return;
+        }
+        int products = migrateProductImages();
+        int categories = migrateCategoryImages();
+        int orderItems = migrateOrderItemImages();
+        if (products > 0 || categories > 0 || orderItems > 0) {
+            log.info("Image migration finished: {} products, {} categories, {} order items converted",
+                    products, categories, orderItems);
+        }
+        if (vacuumFull) {
+            if (products > 0) {
+                vacuumFull("products");
+            }
+            if (categories > 0) {
+                vacuumFull("categories");
+            }
+            if (orderItems > 0) {
+                vacuumFull("order_items");
+            }
+        }
+    }
+
+    /**
+     * Rewrite a table to return its dead space to the OS (takes an ACCESS EXCLUSIVE lock while it runs)
+     * @param table the table name
+     */
+    private void vacuumFull(String table) {
+        long start = System.currentTimeMillis();
+        Long before = jdbcTemplate.queryForObject("SELECT pg_total_relation_size(CAST(? AS regclass))", Long.class, table);
+        // Runs outside a transaction (VACUUM cannot run inside one)
+        jdbcTemplate.execute("VACUUM (FULL, ANALYZE) " + table);
+        Long after = jdbcTemplate.queryForObject("SELECT pg_total_relation_size(CAST(? AS regclass))", Long.class, table);
+        log.info("VACUUM FULL {}: {} -> {} bytes in {} ms", table, before, after, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Convert all product rows with inline images
+     * @return number of converted rows
+     */
+    public int migrateProductImages() {
+        int converted = 0;
+        long afterId = 0L;
+        List<Long> ids;
+        while (!(ids = productRepository.findIdsWithInlineImage(afterId, batchSize)).isEmpty()) {
+            List<Long> batch = ids;
+            converted += transactionTemplate.execute(status -> {
+                int count = 0;
+                for (Product product : productRepository.findAllById(batch)) {
+                    String reference = convert("product", product.getId(), product.getImage());
+                    if (reference != null) {
+                        product.setImage(reference);
+                        count++;
+                    }
+                }
+                return count;
+            });
+            afterId = ids.get(ids.size() - 1);
+        }
+        return converted;
+    }
+
+    /**
+     * Convert all category rows with inline images
+     * @return number of converted rows
+     */
+    public int migrateCategoryImages() {
+        int converted = 0;
+        long afterId = 0L;
+        List<Long> ids;
+        while (!(ids = categoryRepository.findIdsWithInlineImage(afterId, batchSize)).isEmpty()) {
+            List<Long> batch = ids;
+            converted += transactionTemplate.execute(status -> {
+                int count = 0;
+                for (Category category : categoryRepository.findAllById(batch)) {
+                    String reference = convert("category", category.getId(), category.getImage());
+                    if (reference != null) {
+                        category.setImage(reference);
+                        count++;
+                    }
+                }
+                return count;
+            });
+            afterId = ids.get(ids.size() - 1);
+        }
+        return converted;
+    }
+
+    /**
+     * Backfill historical order items: replace each inline image copy with a reference.
+     * Identical copies across lines collapse into a single stored image. Copies that cannot be decoded
+     * are dropped, since order lines only use the image for display.
+     * @return number of converted rows
+     */
+    public int migrateOrderItemImages() {
+        int converted = 0;
+        long afterId = 0L;
+        List<Long> ids;
+        while (!(ids = orderItemRepository.findIdsWithInlineImage(afterId, batchSize)).isEmpty()) {
+            List<Long> batch = ids;
+            converted += transactionTemplate.execute(status -> {
+                List<OrderItem> items = orderItemRepository.findAllById(batch);
+                for (OrderItem item : items) {
+                    item.setProductImage(convert("order item", item.getId(), item.getProductImage()));
+                }
+                return items.size();
+            });
+            afterId = ids.get(ids.size() - 1);
+        }
+        return converted;
+    }
+
+    /**
+     * Store an inline image and return its reference, or null if the payload cannot be decoded
+     * (the row is left untouched and skipped).
+     */
+    private String convert(String type, Long id, String image) {
+        try {
+            return imageService.toReference(image);
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping {} {}: {}", type, id, e.getMessage());
+            return null;
+        }
+    }
+}
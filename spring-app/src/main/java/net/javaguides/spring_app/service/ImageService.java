@@ -0,0 +1,208 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import net.javaguides.spring_app.repository.StoredImageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed image store.
+ * Uploaded images (base64 / data URLs) are hashed with SHA-256 and stored once in the images table;
+ * entities only keep the reference URL /api/images/{hash}.
+ */
+@Service
+public class ImageService {
+
+    public static final String REFERENCE_PREFIX = "/api/images/";
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    @Autowired
+    private StoredImageRepository storedImageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Convert an image value coming from a client into an image reference.
+     * Existing references are returned unchanged if they point to a stored image, base64 payloads are stored (once)
+     * and replaced by their reference.
+     * @param image base64 string, data URL or existing image reference
+     * @return the image reference (/api/images/{hash})
+     * @throws IllegalArgumentException if the payload cannot be decoded or the reference is not a stored image
+     */
+    public String toReference(String image) {
+        if (image == null || image.isBlank()) {
+            return image;
+        }
+        if (isReference(image)) {
+            String hash = hashOf(image);
+            if (hash == null || !storedImageRepository.existsById(hash)) {
+                throw new IllegalArgumentException("Unknown image reference");
+            }
+            return image;
+        }
+        return REFERENCE_PREFIX + store(image);
+    }
+
+    /**
+     * Store a base64 encoded image (optionally as a data URL) and return its content hash
+     * @param base64Image the base64 image payload
+     * @return the SHA-256 hash of the decoded bytes
+     */
+    public String store(String base64Image) {
+        String contentType = null;
+        String payload = base64Image.trim();
+
+        // Data URL format: data:image/png;base64,XXXX
+        if (payload.startsWith("data:")) {
+            int comma = payload.indexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("Invalid image data URL");
+            }
+            String header = payload.substring(5, comma);
+            int semicolon = header.indexOf(';');
+            contentType = semicolon >= 0 ? header.substring(0, semicolon) : header;
+            payload = payload.substring(comma + 1);
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Base64.getMimeDecoder().decode(payload);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid image data: not valid base64");
+        }
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Invalid image data: empty image");
+        }
+
+        if (contentType == null || contentType.isBlank()) {
+            contentType = guessContentType(bytes);
+        }
+        if (!contentType.startsWith("image/")) {
+            throw new IllegalArgumentException("Invalid image data: unsupported content type " + contentType);
+        }
+
+        return storeBytes(bytes, contentType);
+    }
+
+    /**
+     * Store raw image bytes and return their content hash
+     * @param bytes the image bytes
+     * @param contentType the image MIME type
+     * @return the SHA-256 hash of the bytes
+     */
+    public String storeBytes(byte[] bytes, String contentType) {
+        String hash = sha256(bytes);
+        // Concurrent uploads of the same content race on the primary key, so insert-if-absent in SQL
+        jdbcTemplate.update("INSERT INTO images (hash, content_type, size_bytes, data, created_at) " +
+                "VALUES (?, ?, ?, ?, ?) ON CONFLICT (hash) DO NOTHING",
+                hash, contentType, (long) bytes.length, bytes, LocalDateTime.now());
+        return hash;
+    }
+
+    /**
+     * Load the bytes of a stored image
+     * @param hash the content hash
+     * @return optional image bytes if found
+     */
+    public Optional<byte[]> load(String hash) {
+        List<byte[]> rows = jdbcTemplate.query("SELECT data FROM images WHERE hash = ?",
+                (rs, rowNum) -> rs.getBytes(1), hash);
+        return rows.stream().findFirst();
+    }
+
+    /**
+     * Get metadata (content type, size) of a stored image without loading its bytes
+     * @param hash the content hash
+     * @return optional metadata if found
+     */
+    public Optional<StoredImageRepository.ImageMetadata> getMetadata(String hash) {
+        if (!isValidHash(hash)) {
+            return Optional.empty();
+        }
+        return storedImageRepository.findMetadataByHash(hash);
+    }
+
+    /**
+     * Stream the bytes of a stored image to an output stream
+     * @param hash the content hash
+     * @param out the output stream to write to
+     */
+    public void streamTo(String hash, OutputStream out) {
+        jdbcTemplate.query("SELECT data FROM images WHERE hash = ?", rs -> {
+            try (InputStream in = rs.getBinaryStream(1)) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, hash);
+    }
+
+    /**
+     * Check whether a value is an image reference rather than an image payload
+     */
+    public static boolean isReference(String image) {
+        return image != null && image.startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Get the URL of one of an image's thumbnails
+     * @param image the image reference (other values are returned unchanged)
+     * @param size the thumbnail size
+     * @return the thumbnail URL (/api/images/{hash}?size=...)
+     */
+    public static String thumbnailUrl(String image, ThumbnailSize size) {
+        return isReference(image) ? image + "?size=" + size.name().toLowerCase() : image;
+    }
+
+    /**
+     * Extract the content hash from an image reference
+     * @return the hash, or null if the value is not a reference
+     */
+    public static String hashOf(String reference) {
+        if (!isReference(reference)) {
+            return null;
+        }
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        return isValidHash(hash) ? hash : null;
+    }
+
+    public static boolean isValidHash(String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+    private static String guessContentType(byte[] bytes) {
+        try {
+            String guessed = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(bytes));
+            return guessed != null ? guessed : "application/octet-stream";
+        } catch (IOException e) {
+            return "application/octet-stream";
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package net.javaguides.spring_app.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import net.javaguides.spring_app.repository.ImageThumbnailRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates fixed-size thumbnails of stored images in the background (pure javax.imageio).
+ * Thumbnails are stored as content-addressed images and linked to their source in image_thumbnails,
+ * so list views can load a few KB per product instead of the full-resolution upload.
+ */
+@Service
+public class ImageThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageThumbnailService.class);
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageThumbnailRepository imageThumbnailRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${images.thumbnails.threads:2}")
+    private int threads;
+
+    @Value("${images.thumbnails.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    // Source hashes queued or being processed, so the same image is not generated twice in parallel
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Source hashes ImageIO cannot decode (negative cache): never queued again, clients use the original
+    private final Cache<String, Boolean> undecodable = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+
+    private Timer generationTimer;
+    private Counter generatedCounter;
+    private Counter failedCounter;
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Gauge.builder("images.thumbnails.queue.depth", executor, e -> e.getQueue().size())
+                .description("Images waiting for thumbnail generation")
+                .register(meterRegistry);
+        Gauge.builder("images.thumbnails.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Images currently being thumbnailed")
+                .register(meterRegistry);
+        generationTimer = Timer.builder("images.thumbnails.generation")
+                .description("Time to generate all thumbnail sizes for one image")
+                .register(meterRegistry);
+        generatedCounter = meterRegistry.counter("images.thumbnails.generated");
+        failedCounter = meterRegistry.counter("images.thumbnails.failed");
+        rejectedCounter = meterRegistry.counter("images.thumbnails.rejected");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue thumbnail generation for an image reference
+     * (no-op for non-references, images that cannot be decoded or if already queued)
+     * @param imageReference the image reference (/api/images/{hash})
+     */
+    public void generateAsync(String imageReference) {
+        String hash = ImageService.hashOf(imageReference);
+        if (hash == null || isUndecodable(hash) || !inFlight.add(hash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateThumbnails(hash);
+                } finally {
+                    inFlight.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full - the image is retried the next time its thumbnail is requested
+            inFlight.remove(hash);
+            rejectedCounter.increment();
+        }
+    }
+
+    /**
+     * Find the hash of a generated thumbnail
+     * @param sourceHash the content hash of the original image
+     * @param size the thumbnail size
+     * @return optional thumbnail hash if it has been generated
+     */
+    public Optional<String> findThumbnailHash(String sourceHash, ThumbnailSize size) {
+        return imageThumbnailRepository.findThumbnailHash(sourceHash, size);
+    }
+
+    /**
+     * Check whether an image is known to have no thumbnails because ImageIO cannot decode it
+     * @param sourceHash the content hash of the original image
+     * @return true if thumbnail generation failed to decode the image
+     */
+    public boolean isUndecodable(String sourceHash) {
+        return undecodable.getIfPresent(sourceHash) != null;
+    }
+
+    /**
+     * Generate all missing thumbnail sizes for a stored image
+     */
+    private void generateThumbnails(String sourceHash) {
+        Set<ThumbnailSize> missing = EnumSet.allOf(ThumbnailSize.class);
+        missing.removeAll(imageThumbnailRepository.findSizesBySourceHash(sourceHash));
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        generationTimer.record(() -> {
+            try {
+                byte[] original = imageService.load(sourceHash).orElse(null);
+                if (original == null) {
+                    return;
+                }
+                BufferedImage source = decode(original);
+                if (source == null) {
+                    // Format not supported by ImageIO (e.g. SVG, WebP) or corrupt - clients keep using the original
+                    undecodable.put(sourceHash, Boolean.TRUE);
+                    failedCounter.increment();
+                    return;
+                }
+
+                for (ThumbnailSize size : missing) {
+                    boolean keepAlpha = source.getColorModel().hasAlpha();
+                    byte[] thumbnail = encode(resize(source, size.getMaxDimension(), keepAlpha), keepAlpha);
+                    String thumbnailHash = imageService.storeBytes(thumbnail, keepAlpha ? "image/png" : "image/jpeg");
+                    jdbcTemplate.update("INSERT INTO image_thumbnails (source_hash, size, thumbnail_hash, created_at) " +
+                            "VALUES (?, ?, ?, ?) ON CONFLICT (source_hash, size) DO NOTHING",
+                            sourceHash, size.name(), thumbnailHash, LocalDateTime.now());
+                    generatedCounter.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                failedCounter.increment();
+                log.warn("Thumbnail generation failed for image {}: {}", sourceHash, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Decode an image
+     * @return the image, or null if ImageIO cannot read it
+     */
+    private static BufferedImage decode(byte[] bytes) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scale an image down to fit within a square box, preserving aspect ratio (never upscales)
+     */
+    private static BufferedImage resize(BufferedImage source, int maxDimension, boolean keepAlpha) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage target = new BufferedImage(width, height,
+                keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encode(BufferedImage image, boolean png) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, png ? "png" : "jpg", out)) {
+            throw new IOException("No ImageIO writer available");
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package net.javaguides.spring_app.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Allocates invoice numbers from a per-company counter row (invoice_counters) instead of scanning
+ * MAX(invoice_number) over all orders. The increment is a single atomic UPDATE ... RETURNING, and the
+ * counter row stays locked until the caller's transaction ends: a rolled back finalization also rolls
+ * back its number, so numbers are unique and gap-free per company.
+ */
+@Service
+public class InvoiceNumberService {
+
+    public static final String INVOICE_PREFIX = "INV-";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Allocate the next invoice number for a company
+     * Format: INV-00001, INV-00002, ... (grows past 5 digits after INV-99999)
+     * @param companyId the company ID
+     * @return the invoice number
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public String nextInvoiceNumber(Long companyId) {
+        return format(allocateBlock(companyId, 1));
+    }
+
+    /**
+     * Allocate a contiguous range of invoice numbers for a company
+     * @param companyId the company ID
+     * @param size number of invoice numbers to allocate
+     * @return the first number of the range (the range is first .. first + size - 1)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public long allocateBlock(Long companyId, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1");
+        }
+
+        List<Long> updated = jdbcTemplate.queryForList(
+                "UPDATE invoice_counters SET last_value = last_value + ?, updated_at = ? " +
+                        "WHERE company_id = ? RETURNING last_value",
+                Long.class, size, LocalDateTime.now(), companyId);
+        if (!updated.isEmpty()) {
+            return updated.get(0) - size + 1;
+        }
+
+        // First allocation for this company: seed from the invoices issued before the counter existed
+        // (numeric max - the string MAX ranks INV-99999 above INV-100000). Concurrent first allocations
+        // race on the primary key, and the loser increments the winner's row instead.
+        Long last = jdbcTemplate.queryForObject(
+                "INSERT INTO invoice_counters (company_id, last_value, updated_at) " +
+                        "SELECT ?, COALESCE(MAX(CAST(SUBSTRING(invoice_number FROM 5) AS BIGINT)), 0) + ?, ? " +
+                        "FROM orders WHERE company_id = ? AND invoice_number ~ '^INV-[0-9]{1,18}$' " +
+                        "ON CONFLICT (company_id) DO UPDATE " +
+                        "SET last_value = invoice_counters.last_value + ?, updated_at = EXCLUDED.updated_at " +
+                        "RETURNING last_value",
+                Long.class, companyId, size, LocalDateTime.now(), companyId, size);
+        return last - size + 1;
+    }
+
+    /**
+     * Format an invoice number
+     * @param number the numeric part
+     * @return INV- followed by the number, zero-padded to at least 5 digits
+     */
+    public static String format(long number) {
+        return String.format(INVOICE_PREFIX + "%05d", number);
+    }
+}
@@ -1,87 +1,157 @@
 package net.javaguides.spring_app.service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.colors.Color;
 import com.itextpdf.kernel.colors.ColorConstants;
 import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.events.Event;
+import com.itextpdf.kernel.events.IEventHandler;
+import com.itextpdf.kernel.events.PdfDocumentEvent;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.layout.Canvas;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Cell;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.element.Table;
 import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.UnitValue;
+import jakarta.annotation.PostConstruct;
 import net.javaguides.spring_app.entity.Order;
 import net.javaguides.spring_app.entity.OrderItem;
 import net.javaguides.spring_app.entity.User;
-import net.javaguides.spring_app.repository.OrderItemRepository;
 import net.javaguides.spring_app.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invoice PDF rendering.
+ * Fonts are loaded once and the company block of each company is prepared once (cached for a few minutes),
+ * so an invoice only lays out its order. The items table is written out and released every few rows,
+ * so orders with thousands of lines are rendered page by page, and the PDF goes straight to the caller's stream.
+ */
 @Service
 public class InvoiceService {
 
     @Autowired
     private UserRepository userRepository;
 
-    @Autowired
-    private OrderItemRepository orderItemRepository;
-
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy");
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("MMM dd, yyyy HH:mm");
 
+    private static final Color HEADER_COLOR = new DeviceRgb(52, 73, 94); // Dark blue-gray
+    private static final Color TOTAL_BACKGROUND_COLOR = new DeviceRgb(236, 240, 241); // Light gray
+
+    // Columns: #, Product, Quantity, Unit Price, Subtotal
+    private static final float[] ITEM_COLUMN_WIDTHS = {0.5f, 3f, 1f, 1.5f, 1.5f};
+    private static final String[] ITEM_HEADERS = {"#", "Product", "Quantity", "Unit Price", "Subtotal"};
+
+    // Item rows laid out, written and released at a time
+    private static final int ITEM_FLUSH_ROWS = 50;
+
+    // Font programs (metrics) are parsed once; a PdfFont belongs to one document, so those are created per invoice
+    private FontProgram regularFont;
+    private FontProgram boldFont;
+    private FontProgram italicFont;
+
+    // companyId -> company block
+    private final Cache<Long, InvoiceTemplate> templates = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    @PostConstruct
+    public void init() throws IOException {
+        regularFont = FontProgramFactory.createFont(StandardFonts.HELVETICA);
+        boldFont = FontProgramFactory.createFont(StandardFonts.HELVETICA_BOLD);
+        italicFont = FontProgramFactory.createFont(StandardFonts.HELVETICA_OBLIQUE);
+    }
+
     /**
-     * Generate PDF invoice for an order
-     * @param order the finalized order
-     * @return byte array of PDF document
+     * Write the PDF invoice of an order to a stream
+     * @param order the finalized order, with its items
+     * @param out the stream to write to (not closed)
      */
-    public byte[] generateInvoicePdf(Order order) {
+    public void writeInvoicePdf(Order order, OutputStream out) {
         if (order.getStatus() != Order.OrderStatus.FINALIZED) {
             throw new RuntimeException("Cannot generate invoice for non-finalized order");
         }
 
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+        try {
+            // Get company information
+            InvoiceTemplate template = getTemplate(order.getCompanyId());
+
             // Initialize PDF writer and document
-            PdfWriter writer = new PdfWriter(baos);
+            PdfWriter writer = new PdfWriter(out);
+            writer.setCloseStream(false);
             PdfDocument pdfDoc = new PdfDocument(writer);
+            Fonts fonts = new Fonts(
+                    PdfFontFactory.createFont(regularFont, PdfEncodings.WINANSI),
+                    PdfFontFactory.createFont(boldFont, PdfEncodings.WINANSI),
+                    PdfFontFactory.createFont(italicFont, PdfEncodings.WINANSI));
+            pdfDoc.addEventHandler(PdfDocumentEvent.END_PAGE, new PageFooter(order.getInvoiceNumber(), fonts));
             Document document = new Document(pdfDoc);
+            document.setFont(fonts.regular);
 
-            // Get company information
-            User company = userRepository.findById(order.getCompanyId())
-                    .orElseThrow(() -> new RuntimeException("Company not found"));
-
-            // Get order items
-            List<OrderItem> items = orderItemRepository.findByOrderId(order.getId());
+            // Order items (loaded with the order, or read from the archive for archived orders)
+            List<OrderItem> items = order.getItems();
 
             // Build PDF content
-            addHeader(document, order);
-            addCompanyInfo(document, company);
-            addClientInfo(document, order);
-            addItemsTable(document, items);
-            addTotals(document, order);
-            addFooter(document, order);
+            addHeader(document, order, fonts);
+            addCompanyInfo(document, template, fonts);
+            addClientInfo(document, order, fonts);
+            addItemsTable(document, items, fonts);
+            addTotals(document, order, fonts);
+            addFooter(document, order, fonts);
 
             // Close document
             document.close();
-
-            return baos.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate PDF invoice: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Forget the prepared company block of a company (its details changed)
+     * @param companyId the company ID
+     */
+    public void evictTemplate(Long companyId) {
+        templates.invalidate(companyId);
+    }
+
+    private InvoiceTemplate getTemplate(Long companyId) throws ExecutionException {
+        return templates.get(companyId, () -> {
+            User company = userRepository.findById(companyId)
+                    .orElseThrow(() -> new RuntimeException("Company not found"));
+            return new InvoiceTemplate(company.getCompanyName(), company.getCompanyEmail());
+        });
+    }
+
     /**
      * Add invoice header with title and invoice number
      */
-    private void addHeader(Document document, Order order) {
+    private void addHeader(Document document, Order order, Fonts fonts) {
         // Invoice title
         Paragraph title = new Paragraph("INVOICE")
                 .setFontSize(24)
-                .setBold()
+                .setFont(fonts.bold)
                 .setTextAlignment(TextAlignment.CENTER)
                 .setMarginBottom(10);
         document.add(title);
@@ -92,13 +162,13 @@ public class InvoiceService {
 
         headerTable.addCell(new Cell()
                 .add(new Paragraph("Invoice Number:")
-                        .setBold())
+                        .setFont(fonts.bold))
                 .add(new Paragraph(order.getInvoiceNumber()))
                 .setBorder(null));
 
         headerTable.addCell(new Cell()
                 .add(new Paragraph("Date:")
-                        .setBold())
+                        .setFont(fonts.bold))
                 .add(new Paragraph(order.getFinalizedAt().format(DATE_FORMATTER)))
                 .setTextAlignment(TextAlignment.RIGHT)
                 .setBorder(null));
@@ -110,18 +180,18 @@ public class InvoiceService {
     /**
      * Add company (from) information
      */
-    private void addCompanyInfo(Document document, User company) {
+    private void addCompanyInfo(Document document, InvoiceTemplate template, Fonts fonts) {
         Paragraph fromLabel = new Paragraph("From:")
-                .setBold()
+                .setFont(fonts.bold)
                 .setFontSize(12);
         document.add(fromLabel);
 
-        Paragraph companyName = new Paragraph(company.getCompanyName())
+        Paragraph companyName = new Paragraph(template.companyName)
                 .setFontSize(14)
-                .setBold();
+                .setFont(fonts.bold);
         document.add(companyName);
 
-        Paragraph companyEmail = new Paragraph(company.getCompanyEmail())
+        Paragraph companyEmail = new Paragraph(template.companyEmail)
                 .setFontSize(10);
         document.add(companyEmail);
 
@@ -131,15 +201,15 @@ public class InvoiceService {
     /**
      * Add client (bill to) information
      */
-    private void addClientInfo(Document document, Order order) {
+    private void addClientInfo(Document document, Order order, Fonts fonts) {
         Paragraph billToLabel = new Paragraph("Bill To:")
-                .setBold()
+                .setFont(fonts.bold)
                 .setFontSize(12);
         document.add(billToLabel);
 
         Paragraph clientName = new Paragraph(order.getClientName())
                 .setFontSize(12)
-                .setBold();
+                .setFont(fonts.bold);
         document.add(clientName);
 
         if (order.getClientCompany() != null && !order.getClientCompany().isEmpty()) {
@@ -171,33 +241,31 @@ public class InvoiceService {
 
     /**
      * Add items table with product details
+     * The table is added before its rows and flushed every few rows: rows already laid out are written to
+     * the page and released, and the header row is repeated on every page.
      */
-    private void addItemsTable(Document document, List<OrderItem> items) {
-        // Create table with 5 columns: #, Product, Quantity, Unit Price, Subtotal
-        float[] columnWidths = {0.5f, 3f, 1f, 1.5f, 1.5f};
-        Table table = new Table(UnitValue.createPercentArray(columnWidths))
+    private void addItemsTable(Document document, List<OrderItem> items, Fonts fonts) {
+        Table table = new Table(UnitValue.createPercentArray(ITEM_COLUMN_WIDTHS), true)
                 .useAllAvailableWidth();
 
         // Header row with background color
-        DeviceRgb headerColor = new DeviceRgb(52, 73, 94); // Dark blue-gray
-        String[] headers = {"#", "Product", "Quantity", "Unit Price", "Subtotal"};
-
-        for (String header : headers) {
+        for (String header : ITEM_HEADERS) {
             Cell cell = new Cell()
                     .add(new Paragraph(header)
                             .setFontColor(ColorConstants.WHITE)
-                            .setBold())
-                    .setBackgroundColor(headerColor)
+                            .setFont(fonts.bold))
+                    .setBackgroundColor(HEADER_COLOR)
                     .setTextAlignment(TextAlignment.CENTER);
             table.addHeaderCell(cell);
         }
+        document.add(table);
 
         // Data rows
         int index = 1;
         for (OrderItem item : items) {
             // Row number
             table.addCell(new Cell()
-                    .add(new Paragraph(String.valueOf(index++)))
+                    .add(new Paragraph(String.valueOf(index)))
                     .setTextAlignment(TextAlignment.CENTER));
 
             // Product title
@@ -218,23 +286,27 @@ public class InvoiceService {
             table.addCell(new Cell()
                     .add(new Paragraph(String.format("$%.2f", item.getSubtotal())))
                     .setTextAlignment(TextAlignment.RIGHT));
+
+            if (index++ % ITEM_FLUSH_ROWS == 0) {
+                table.flush();
+            }
         }
 
-        document.add(table);
+        table.complete();
         document.add(new Paragraph("\n"));
     }
 
     /**
      * Add totals section
      */
-    private void addTotals(Document document, Order order) {
+    private void addTotals(Document document, Order order, Fonts fonts) {
         // Create a table for totals aligned to the right
         Table totalsTable = new Table(UnitValue.createPercentArray(new float[]{3, 1}))
                 .useAllAvailableWidth();
 
         // Total items
         totalsTable.addCell(new Cell()
-                .add(new Paragraph("Total Items:").setBold())
+                .add(new Paragraph("Total Items:").setFont(fonts.bold))
                 .setTextAlignment(TextAlignment.RIGHT)
                 .setBorder(null));
         totalsTable.addCell(new Cell()
@@ -243,18 +315,17 @@ public class InvoiceService {
                 .setBorder(null));
 
         // Grand total
-        DeviceRgb totalBgColor = new DeviceRgb(236, 240, 241); // Light gray
         totalsTable.addCell(new Cell()
-                .add(new Paragraph("Grand Total:").setBold().setFontSize(14))
+                .add(new Paragraph("Grand Total:").setFont(fonts.bold).setFontSize(14))
                 .setTextAlignment(TextAlignment.RIGHT)
-                .setBackgroundColor(totalBgColor)
+                .setBackgroundColor(TOTAL_BACKGROUND_COLOR)
                 .setPadding(10));
         totalsTable.addCell(new Cell()
                 .add(new Paragraph(String.format("$%.2f", order.getTotalAmount()))
-                        .setBold()
+                        .setFont(fonts.bold)
                         .setFontSize(14))
                 .setTextAlignment(TextAlignment.RIGHT)
-                .setBackgroundColor(totalBgColor)
+                .setBackgroundColor(TOTAL_BACKGROUND_COLOR)
                 .setPadding(10));
 
         document.add(totalsTable);
@@ -264,17 +335,17 @@ public class InvoiceService {
     /**
      * Add footer with notes and generation info
      */
-    private void addFooter(Document document, Order order) {
+    private void addFooter(Document document, Order order, Fonts fonts) {
         // Notes section if present
         if (order.getNotes() != null && !order.getNotes().isEmpty()) {
             Paragraph notesLabel = new Paragraph("Notes:")
-                    .setBold()
+                    .setFont(fonts.bold)
                     .setFontSize(10);
             document.add(notesLabel);
 
             Paragraph notes = new Paragraph(order.getNotes())
                     .setFontSize(9)
-                    .setItalic();
+                    .setFont(fonts.italic);
             document.add(notes);
 
             document.add(new Paragraph("\n"));
@@ -284,7 +355,7 @@ public class InvoiceService {
         Paragraph thankYou = new Paragraph("Thank you for your business!")
                 .setTextAlignment(TextAlignment.CENTER)
                 .setFontSize(12)
-                .setBold();
+                .setFont(fonts.bold);
         document.add(thankYou);
 
         // Generation timestamp
@@ -295,4 +366,60 @@ public class InvoiceService {
                 .setFontColor(ColorConstants.GRAY);
         document.add(generated);
     }
+
+    /**
+     * Invoice number and page number at the bottom of every page (drawn as each page is finished)
+     */
+    private static class PageFooter implements IEventHandler {
+        private final String invoiceNumber;
+        private final Fonts fonts;
+
+        PageFooter(String invoiceNumber, Fonts fonts) {
+            this.invoiceNumber = invoiceNumber;
+            this.fonts = fonts;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            PdfDocumentEvent pageEvent = (PdfDocumentEvent) event;
+            PdfDocument pdfDoc = pageEvent.getDocument();
+            PdfPage page = pageEvent.getPage();
+            Rectangle pageSize = page.getPageSize();
+            Canvas canvas = new Canvas(new PdfCanvas(page), pageSize);
+            canvas.setFont(fonts.regular)
+                    .setFontSize(8)
+                    .setFontColor(ColorConstants.GRAY)
+                    .showTextAligned("Invoice " + invoiceNumber + " - Page " + pdfDoc.getPageNumber(page),
+                            pageSize.getWidth() / 2, 20, TextAlignment.CENTER);
+            canvas.close();
+        }
+    }
+
+    /**
+     * Fonts of one invoice document
+     */
+    private static class Fonts {
+        final PdfFont regular;
+        final PdfFont bold;
+        final PdfFont italic;
+
+        Fonts(PdfFont regular, PdfFont bold, PdfFont italic) {
+            this.regular = regular;
+            this.bold = bold;
+            this.italic = italic;
+        }
+    }
+
+    /**
+     * The company block of a company's invoices
+     */
+    private static class InvoiceTemplate {
+        final String companyName;
+        final String companyEmail;
+
+        InvoiceTemplate(String companyName, String companyEmail) {
+            this.companyName = companyName;
+            this.companyEmail = companyEmail;
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package net.javaguides.spring_app.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import net.javaguides.spring_app.entity.Order;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Rendered invoice PDFs. A finalized order never changes, so its invoice is rendered once and stored on disk
+ * (one file per company and invoice number); the most recently used PDFs are also kept in memory,
+ * up to invoices.cache-max-bytes in total.
+ * Note: a stored invoice keeps the company details it was issued with.
+ */
+@Service
+public class InvoiceStoreService {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private InvoiceService invoiceService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${invoices.store-dir:invoices}")
+    private String storeDir;
+
+    @Value("${invoices.cache-max-bytes:33554432}")
+    private long cacheMaxBytes;
+
+    // "companyId/invoiceNumber" -> PDF
+    private Cache<String, InvoicePdf> pdfs;
+
+    private Counter memoryHits;
+    private Counter diskHits;
+    private Counter rendered;
+
+    @PostConstruct
+    public void init() {
+        pdfs = CacheBuilder.newBuilder()
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String key, InvoicePdf pdf) -> pdf.getBytes().length)
+                .build();
+        memoryHits = meterRegistry.counter("invoices.pdf.requests", "source", "memory");
+        diskHits = meterRegistry.counter("invoices.pdf.requests", "source", "disk");
+        rendered = meterRegistry.counter("invoices.pdf.requests", "source", "rendered");
+    }
+
+    /**
+     * Get the invoice PDF of a finalized order, rendering and storing it on first use
+     * @param order the finalized order, with its items
+     * @return the PDF with its ETag and modification time
+     */
+    public InvoicePdf getInvoicePdf(Order order) {
+        if (order.getStatus() != Order.OrderStatus.FINALIZED) {
+            throw new RuntimeException("Cannot generate invoice for non-finalized order");
+        }
+        String key = order.getCompanyId() + "/" + order.getInvoiceNumber();
+        InvoicePdf cached = pdfs.getIfPresent(key);
+        if (cached != null) {
+            memoryHits.increment();
+            return cached;
+        }
+        try {
+            // Concurrent first requests for the same invoice wait for a single load
+            return pdfs.get(key, () -> load(order));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException("Failed to load invoice: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Get the stored invoice PDF file of a finalized order, rendering and storing it if missing
+     * The PDF is not kept in memory (bulk reads, e.g. invoice ZIP archives, would evict the cache).
+     * @param order the finalized order, with its items
+     * @return the stored file
+     */
+    public Path getInvoiceFile(Order order) {
+        if (order.getStatus() != Order.OrderStatus.FINALIZED) {
+            throw new RuntimeException("Cannot generate invoice for non-finalized order");
+        }
+        try {
+            return store(order);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load invoice: " + e.getMessage(), e);
+        }
+    }
+
+    private InvoicePdf load(Order order) throws IOException {
+        Path file = store(order);
+        byte[] bytes = Files.readAllBytes(file);
+        return new InvoicePdf(bytes, "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"",
+                Files.getLastModifiedTime(file).toInstant());
+    }
+
+    /**
+     * Render and store the invoice of an order unless it is already stored
+     */
+    private Path store(Order order) throws IOException {
+        Path file = Path.of(storeDir, String.valueOf(order.getCompanyId()),
+                order.getInvoiceNumber().replaceAll("[^A-Za-z0-9._-]", "_") + ".pdf");
+        if (Files.exists(file)) {
+            diskHits.increment();
+            return file;
+        }
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            // Rendered straight into the file
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary), WRITE_BUFFER_SIZE)) {
+                invoiceService.writeInvoicePdf(order, out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        rendered.increment();
+        return file;
+    }
+
+    /**
+     * A stored invoice PDF
+     */
+    public static class InvoicePdf {
+        private final byte[] bytes;
+        private final String etag;
+        private final Instant lastModified;
+
+        InvoicePdf(byte[] bytes, String etag, Instant lastModified) {
+            this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public Instant getLastModified() {
+            return lastModified;
+        }
+    }
+}
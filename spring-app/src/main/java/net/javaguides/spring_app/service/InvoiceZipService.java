@@ -0,0 +1,200 @@
+package net.javaguides.spring_app.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.repository.OrderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP archives of the invoice PDFs of a date range (month-end accounting).
+ * Orders are read page by page and handed to a small pool of render workers; stored PDFs are reused and
+ * missing ones rendered and stored. The ZIP is written in finalization order, waiting for each invoice in turn,
+ * with at most max-pending invoices ahead of the writer, so memory use does not depend on the size of the range.
+ */
+@Service
+public class InvoiceZipService {
+
+    private static final Logger log = LoggerFactory.getLogger(InvoiceZipService.class);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private InvoiceStoreService invoiceStoreService;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${invoices.zip.workers:4}")
+    private int workers;
+
+    @Value("${invoices.zip.max-pending:16}")
+    private int maxPending;
+
+    @Value("${invoices.zip.page-size:200}")
+    private int pageSize;
+
+    // Shared by all ZIP downloads: rendering is CPU bound, so concurrent downloads queue for the same workers
+    private ExecutorService renderExecutor;
+
+    @PostConstruct
+    public void init() {
+        renderExecutor = Executors.newFixedThreadPool(workers,
+                Thread.ofPlatform().name("invoice-zip-", 0).daemon(true).factory());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdownNow();
+    }
+
+    /**
+     * Write the invoices of a company's orders finalized between two dates (inclusive) to a stream as a ZIP
+     * One entry per order, invoice-{invoiceNumber}.pdf, in finalization order; archived orders included.
+     * @param companyId the company ID
+     * @param from first day of the range
+     * @param to last day of the range
+     * @param out the stream to write to (not closed)
+     * @return number of invoices written
+     */
+    public long writeInvoiceZip(Long companyId, LocalDate from, LocalDate to, OutputStream out) {
+        long start = System.currentTimeMillis();
+        LocalDateTime rangeStart = from.atStartOfDay();
+        LocalDateTime rangeEnd = to.plusDays(1).atStartOfDay();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, WRITE_BUFFER_SIZE));
+        // PDF content is compressed already
+        zip.setLevel(Deflater.BEST_SPEED);
+        ZipWriter writer = new ZipWriter(zip);
+
+        try {
+            // Archived months precede every finalized order still in the database
+            orderArchiveService.forEachArchivedOrder(companyId, rangeStart, rangeEnd, writer::submit);
+
+            // Keyset pages of the live orders, (finalized_at, id) after the last one written
+            LocalDateTime lastFinalizedAt = rangeStart;
+            long lastId = 0;
+            while (true) {
+                List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM orders WHERE company_id = ? " +
+                                "AND status = 'FINALIZED' AND (finalized_at, id) > (?, ?) AND finalized_at < ? " +
+                                "ORDER BY finalized_at, id LIMIT ?",
+                        Long.class, companyId, Timestamp.valueOf(lastFinalizedAt), lastId,
+                        Timestamp.valueOf(rangeEnd), pageSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                List<Order> orders = transactionTemplate.execute(status -> orderRepository.findAllWithItemsByIdIn(ids));
+                for (Order order : orders) {
+                    writer.submit(order);
+                }
+                Order last = orders.get(orders.size() - 1);
+                lastFinalizedAt = last.getFinalizedAt();
+                lastId = last.getId();
+                if (ids.size() < pageSize) {
+                    break;
+                }
+            }
+
+            writer.finish();
+        } catch (IOException e) {
+            // Client went away
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.cancel();
+        }
+        log.info("Wrote {} invoices for company {} ({} to {}) in {} ms", writer.written, companyId, from, to,
+                System.currentTimeMillis() - start);
+        return writer.written;
+    }
+
+    /**
+     * Ordered writer: invoices are prepared by the render workers and written in submission order
+     */
+    private class ZipWriter {
+        private final ZipOutputStream zip;
+        private final Deque<Future<Path>> pending = new ArrayDeque<>();
+        long written;
+
+        ZipWriter(ZipOutputStream zip) {
+            this.zip = zip;
+        }
+
+        void submit(Order order) {
+            if (pending.size() >= maxPending) {
+                writeNext();
+            }
+            pending.addLast(renderExecutor.submit(() -> invoiceStoreService.getInvoiceFile(order)));
+        }
+
+        void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            zip.finish();
+            zip.flush();
+        }
+
+        void cancel() {
+            for (Future<Path> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+
+        private void writeNext() {
+            Path file;
+            try {
+                file = pending.removeFirst().get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to prepare invoice: " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while preparing invoices", e);
+            }
+            try {
+                ZipEntry entry = new ZipEntry("invoice-" + file.getFileName());
+                entry.setLastModifiedTime(Files.getLastModifiedTime(file));
+                zip.putNextEntry(entry);
+                Files.copy(file, zip);
+                zip.closeEntry();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written++;
+        }
+    }
+}
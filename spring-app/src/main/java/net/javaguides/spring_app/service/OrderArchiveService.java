@@ -0,0 +1,456 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderArchive;
+import net.javaguides.spring_app.entity.ProductCountHistory;
+import net.javaguides.spring_app.repository.OrderArchiveRepository;
+import net.javaguides.spring_app.repository.OrderRepository;
+import net.javaguides.spring_app.repository.ProductCountHistoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archival of old data: finalized orders (with their items) and product count history older than
+ * orders.archive.horizon-months are moved, one company and calendar month at a time, to gzip-compressed
+ * NDJSON files (one order / history entry per line, in the API's JSON form) and deleted from the database,
+ * so the live tables and their indexes only hold recent and pending orders.
+ * order_archives is the manifest of the archived months. Archived orders are still found by ID, exported,
+ * counted in the order statistics, and archived history is still part of the product history; the manifest
+ * lists the products of each history file, so a product's history only reads the files that contain it.
+ */
+@Service
+public class OrderArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderArchiveService.class);
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private OrderArchiveRepository orderArchiveRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductCountHistoryRepository productCountHistoryRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${orders.archive.dir:archive}")
+    private String archiveDir;
+
+    @Value("${orders.archive.horizon-months:24}")
+    private int horizonMonths;
+
+    @Value("${orders.archive.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Archive every month that ended more than horizon-months ago
+     * @return number of archived company months
+     */
+    @Scheduled(cron = "${orders.archive.cron:0 0 4 2 * *}")
+    public int archiveOldOrders() {
+        return archiveOlderThan(YearMonth.now().minusMonths(horizonMonths).atDay(1));
+    }
+
+    /**
+     * Archive the finalized orders and product count history of every company from the months before a cutoff
+     * @param cutoff first day of the first month to keep
+     * @return number of archived company months
+     */
+    public int archiveOlderThan(LocalDate cutoff) {
+        Timestamp before = Timestamp.valueOf(cutoff.atStartOfDay());
+        List<CompanyMonth> months = jdbcTemplate.query(
+                "SELECT company_id, date_trunc('month', finalized_at)::date FROM orders " +
+                        "WHERE status = 'FINALIZED' AND finalized_at < ? GROUP BY 1, 2 " +
+                        "UNION " +
+                        "SELECT c.company_id, date_trunc('month', h.changed_at)::date FROM product_count_history h " +
+                        "JOIN products p ON p.id = h.product_id JOIN categories c ON c.id = p.category_id " +
+                        "WHERE h.changed_at < ? GROUP BY 1, 2 " +
+                        "ORDER BY 2, 1",
+                (rs, rowNum) -> new CompanyMonth(rs.getLong(1), rs.getDate(2).toLocalDate()),
+                before, before);
+
+        int archived = 0;
+        for (CompanyMonth month : months) {
+            try {
+                archiveMonth(month.getCompanyId(), month.getMonth());
+                archived++;
+            } catch (RuntimeException e) {
+                // The month stays in the database and is retried by the next run
+                log.error("Failed to archive {} of company {}", YearMonth.from(month.getMonth()),
+                        month.getCompanyId(), e);
+            }
+        }
+        if (!months.isEmpty()) {
+            log.info("Archived {} of {} company months before {}", archived, months.size(), cutoff);
+        }
+        return archived;
+    }
+
+    /**
+     * Archive one month of a company: write its finalized orders and product count history to files, then
+     * record the month in the manifest and delete the archived rows in one transaction
+     * @param companyId the company ID
+     * @param month any day of the month
+     * @return the manifest entry
+     */
+    public OrderArchive archiveMonth(Long companyId, LocalDate month) {
+        LocalDate firstDay = month.withDayOfMonth(1);
+        Timestamp start = Timestamp.valueOf(firstDay.atStartOfDay());
+        Timestamp end = Timestamp.valueOf(firstDay.plusMonths(1).atStartOfDay());
+        if (orderArchiveRepository.existsByCompanyIdAndMonth(companyId, firstDay)) {
+            throw new IllegalStateException("Month " + YearMonth.from(firstDay) + " is already archived");
+        }
+
+        List<Long> orderIds = jdbcTemplate.queryForList("SELECT id FROM orders WHERE company_id = ? " +
+                "AND status = 'FINALIZED' AND finalized_at >= ? AND finalized_at < ? ORDER BY finalized_at, id",
+                Long.class, companyId, start, end);
+        List<Long> historyIds = jdbcTemplate.queryForList("SELECT h.id FROM product_count_history h " +
+                "JOIN products p ON p.id = h.product_id JOIN categories c ON c.id = p.category_id " +
+                "WHERE c.company_id = ? AND h.changed_at >= ? AND h.changed_at < ? ORDER BY h.changed_at, h.id",
+                Long.class, companyId, start, end);
+
+        OrderArchive archive = new OrderArchive(companyId, firstDay);
+        archive.setOrderCount((long) orderIds.size());
+        archive.setHistoryCount((long) historyIds.size());
+        Path directory = Path.of(archiveDir, String.valueOf(companyId));
+        // Unique per attempt, so cleaning up after a failed attempt never removes files of an archived month
+        String suffix = YearMonth.from(firstDay) + "." + System.currentTimeMillis() + ".ndjson.gz";
+        List<Path> written = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            if (!orderIds.isEmpty()) {
+                Path file = directory.resolve("orders-" + suffix);
+                long[] totalItems = {0};
+                double[] totalAmount = {0.0};
+                writeFile(file, orderIds, orderRepository::findAllWithItemsByIdIn, order -> {
+                    totalItems[0] += order.getTotalItems() != null ? order.getTotalItems() : 0;
+                    totalAmount[0] += order.getTotalAmount() != null ? order.getTotalAmount() : 0.0;
+                });
+                written.add(file);
+                archive.setOrdersFile(file.toString());
+                archive.setTotalItems(totalItems[0]);
+                archive.setTotalAmount(totalAmount[0]);
+                archive.setFirstOrderId(orderIds.stream().min(Long::compare).orElseThrow());
+                archive.setLastOrderId(orderIds.stream().max(Long::compare).orElseThrow());
+            }
+            if (!historyIds.isEmpty()) {
+                Path file = directory.resolve("history-" + suffix);
+                Set<Long> productIds = new TreeSet<>();
+                writeFile(file, historyIds, productCountHistoryRepository::findByIdInOrderByChangedAtAscIdAsc,
+                        history -> productIds.add(history.getProductId()));
+                written.add(file);
+                archive.setHistoryFile(file.toString());
+                archive.setHistoryProductIds(productIds.toArray(Long[]::new));
+            }
+            long sizeBytes = 0;
+            for (Path file : written) {
+                sizeBytes += Files.size(file);
+            }
+            archive.setSizeBytes(sizeBytes);
+
+            transactionTemplate.executeWithoutResult(status -> {
+                orderArchiveRepository.save(archive);
+                // Items first (foreign key to orders)
+                deleteByIds("DELETE FROM order_items WHERE order_id = ANY (?)", orderIds);
+                int orders = deleteByIds("DELETE FROM orders WHERE id = ANY (?) AND status = 'FINALIZED'", orderIds);
+                int history = deleteByIds("DELETE FROM product_count_history WHERE id = ANY (?)", historyIds);
+                if (orders != orderIds.size() || history != historyIds.size()) {
+                    throw new IllegalStateException("Rows of " + YearMonth.from(firstDay) + " changed while archiving");
+                }
+            });
+        } catch (IOException e) {
+            deleteQuietly(written);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            deleteQuietly(written);
+            throw e;
+        }
+
+        log.info("Archived {} of company {}: {} orders, {} history entries, {} bytes", YearMonth.from(firstDay),
+                companyId, archive.getOrderCount(), archive.getHistoryCount(), archive.getSizeBytes());
+        return archive;
+    }
+
+    /**
+     * Get the archived months of a company
+     * @param companyId the company ID
+     * @return the manifest entries, oldest first
+     */
+    public List<OrderArchive> getArchives(Long companyId) {
+        return orderArchiveRepository.findByCompanyIdOrderByMonthAsc(companyId);
+    }
+
+    /**
+     * Find an archived order
+     * @param companyId the company ID
+     * @param orderId the order ID
+     * @return the order with its items, or empty if no archived month of the company contains it
+     */
+    public Optional<Order> findArchivedOrder(Long companyId, Long orderId) {
+        for (OrderArchive archive : orderArchiveRepository.findContainingOrder(companyId, orderId)) {
+            Order[] found = new Order[1];
+            readLines(archive.getOrdersFile(), line -> {
+                // Only the matching line is fully parsed
+                if (idOf(line) != orderId) {
+                    return true;
+                }
+                found[0] = objectMapper.readValue(line, Order.class);
+                return false;
+            });
+            if (found[0] != null) {
+                return Optional.of(found[0]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Pass the archived orders of a company finalized in a time range to an action, in finalization order
+     * @param companyId the company ID
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @param action receives each order with its items
+     */
+    public void forEachArchivedOrder(Long companyId, LocalDateTime from, LocalDateTime to, Consumer<Order> action) {
+        LocalDate fromMonth = from.toLocalDate().withDayOfMonth(1);
+        LocalDate toMonth = to.minusNanos(1).toLocalDate().withDayOfMonth(1);
+        for (OrderArchive archive : orderArchiveRepository
+                .findByCompanyIdAndMonthBetweenOrderByMonthAsc(companyId, fromMonth, toMonth)) {
+            if (archive.getOrdersFile() == null) {
+                continue;
+            }
+            readLines(archive.getOrdersFile(), line -> {
+                Order order = objectMapper.readValue(line, Order.class);
+                if (!order.getFinalizedAt().isBefore(from) && order.getFinalizedAt().isBefore(to)) {
+                    action.accept(order);
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Find archived product count history of a company
+     * @param companyId the company ID
+     * @param productId only entries of this product (null for all products)
+     * @param since only entries from this time on (null for all)
+     * @return the entries, newest first
+     */
+    public List<ProductCountHistory> findArchivedHistory(Long companyId, Long productId, LocalDateTime since) {
+        List<OrderArchive> archives;
+        if (productId != null) {
+            // Only the months whose history file contains the product
+            archives = orderArchiveRepository.findWithHistoryOfProduct(companyId, productId);
+        } else if (since != null) {
+            archives = orderArchiveRepository.findByCompanyIdAndMonthGreaterThanEqualOrderByMonthAsc(companyId,
+                    since.toLocalDate().withDayOfMonth(1));
+        } else {
+            archives = orderArchiveRepository.findByCompanyIdOrderByMonthAsc(companyId);
+        }
+        Predicate<ProductCountHistory> filter = history ->
+                (productId == null || productId.equals(history.getProductId()))
+                        && (since == null || !history.getChangedAt().isBefore(since));
+        List<ProductCountHistory> entries = new ArrayList<>();
+        for (OrderArchive archive : archives) {
+            if (archive.getHistoryFile() == null) {
+                continue;
+            }
+            readLines(archive.getHistoryFile(), line -> {
+                ProductCountHistory history = objectMapper.readValue(line, ProductCountHistory.class);
+                if (filter.test(history)) {
+                    entries.add(history);
+                }
+                return true;
+            });
+        }
+        entries.sort(Comparator.comparing(ProductCountHistory::getChangedAt).reversed());
+        return entries;
+    }
+
+    /**
+     * Index the history files archived before the manifest listed their products (read once, at startup)
+     * @return number of indexed files
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public int indexArchivedHistory() {
+        List<OrderArchive> archives = orderArchiveRepository.findByHistoryFileIsNotNullAndHistoryProductIdsIsNull();
+        for (OrderArchive archive : archives) {
+            Set<Long> productIds = new TreeSet<>();
+            forEachArchivedHistory(archive, history -> productIds.add(history.getProductId()));
+            archive.setHistoryProductIds(productIds.toArray(Long[]::new));
+            orderArchiveRepository.save(archive);
+        }
+        if (!archives.isEmpty()) {
+            log.info("Indexed the products of {} archived history files", archives.size());
+        }
+        return archives.size();
+    }
+
+    /**
+     * Read the product count history of an archived month, oldest first
+     * @param archive the archived month
+     * @param action called with each entry
+     */
+    public void forEachArchivedHistory(OrderArchive archive, Consumer<ProductCountHistory> action) {
+        if (archive.getHistoryFile() == null) {
+            return;
+        }
+        readLines(archive.getHistoryFile(), line -> {
+            action.accept(objectMapper.readValue(line, ProductCountHistory.class));
+            return true;
+        });
+    }
+
+    /**
+     * Write entities to a gzip NDJSON file, loading them chunk-size IDs at a time (in ID list order)
+     * The file is written under a temporary name and renamed when complete.
+     */
+    private <T> void writeFile(Path file, List<Long> ids, Function<List<Long>, List<T>> loader,
+                               Consumer<T> visitor) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temporary), FILE_BUFFER_SIZE), StandardCharsets.UTF_8),
+                FILE_BUFFER_SIZE)) {
+            for (int from = 0; from < ids.size(); from += chunkSize) {
+                List<Long> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+                List<T> entities = transactionTemplate.execute(status -> loader.apply(chunk));
+                for (T entity : entities) {
+                    visitor.accept(entity);
+                    writer.write(objectMapper.writeValueAsString(entity));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readLines(String file, LineHandler handler) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(Path.of(file)), FILE_BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!handler.handle(line)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive " + file, e);
+        }
+    }
+
+    /**
+     * Value of the top-level "id" field of a JSON line, without building the object
+     */
+    private long idOf(String line) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(line)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("id".equals(field)) {
+                    return parser.getLongValue();
+                }
+                parser.skipChildren();
+            }
+        }
+        return -1;
+    }
+
+    private int deleteByIds(String sql, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Long[] array = ids.toArray(Long[]::new);
+        return jdbcTemplate.update(sql, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", array)));
+    }
+
+    private static void deleteQuietly(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete archive file {}", file, e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LineHandler {
+        /**
+         * @return false to stop reading
+         */
+        boolean handle(String line) throws IOException;
+    }
+
+    /**
+     * A month of a company with data to archive
+     */
+    private static class CompanyMonth {
+        private final Long companyId;
+        private final LocalDate month;
+
+        CompanyMonth(Long companyId, LocalDate month) {
+            this.companyId = companyId;
+            this.month = month;
+        }
+
+        Long getCompanyId() {
+            return companyId;
+        }
+
+        LocalDate getMonth() {
+            return month;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Streaming export of finalized orders with their line items (accounting exports).
+ * Orders and items are read in one pass through a forward-only JDBC cursor (orders joined with their items,
+ * fetched fetch-size rows at a time) and written to the response as they arrive, so memory use does not
+ * depend on the size of the range: at most one order is held at a time.
+ * Orders of archived months are read from their archive files first.
+ */
+@Service
+public class OrderExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderExportService.class);
+
+    private static final String[] CSV_HEADER = {"order_id", "invoice_number", "finalized_at", "created_at",
+            "client_name", "client_company", "client_email", "client_phone", "client_address", "client_city",
+            "client_postal_code", "total_items", "total_amount", "product_id", "product_title", "quantity",
+            "unit_price", "subtotal"};
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Value("${orders.export.fetch-size:1000}")
+    private int fetchSize;
+
+    public enum ExportFormat {
+        CSV,
+        NDJSON
+    }
+
+    /**
+     * Write a company's orders finalized between two dates (inclusive) to a stream
+     * CSV has one row per line item (order columns repeated); NDJSON has one order per line with an items array.
+     * @param companyId the company ID
+     * @param from first day of the range
+     * @param to last day of the range
+     * @param format the output format
+     * @param out the stream to write to (not closed)
+     * @return number of exported orders
+     */
+    public long exportFinalizedOrders(Long companyId, LocalDate from, LocalDate to, ExportFormat format,
+                                      OutputStream out) {
+        long start = System.currentTimeMillis();
+        LocalDateTime rangeStart = from.atStartOfDay();
+        LocalDateTime rangeEnd = to.plusDays(1).atStartOfDay();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        ExportWriter exportWriter = format == ExportFormat.CSV ? new CsvExportWriter(writer) : new NdjsonExportWriter(writer);
+
+        // Postgres only streams results through a cursor inside a transaction; otherwise the whole result is buffered
+        transactionTemplate.executeWithoutResult(status -> {
+            // One snapshot for the archive manifest and the orders table, so a month archived meanwhile
+            // is neither missed nor exported twice
+            jdbcTemplate.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            // Archived months precede every finalized order still in the database
+            orderArchiveService.forEachArchivedOrder(companyId, rangeStart, rangeEnd, order -> {
+                try {
+                    exportWriter.write(order);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("SELECT o.id, o.invoice_number, o.finalized_at, " +
+                                "o.created_at, o.client_name, o.client_company, o.client_email, o.client_phone, " +
+                                "o.client_address, o.client_city, o.client_postal_code, o.total_items, o.total_amount, " +
+                                "i.product_id, i.product_title, i.quantity, i.unit_price, i.subtotal " +
+                                "FROM orders o LEFT JOIN order_items i ON i.order_id = o.id " +
+                                "WHERE o.company_id = ? AND o.status = 'FINALIZED' " +
+                                "AND o.finalized_at >= ? AND o.finalized_at < ? " +
+                                "ORDER BY o.finalized_at, o.id, i.id",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                ps.setLong(1, companyId);
+                ps.setTimestamp(2, Timestamp.valueOf(rangeStart));
+                ps.setTimestamp(3, Timestamp.valueOf(rangeEnd));
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                try {
+                    exportWriter.row(rs);
+                } catch (IOException e) {
+                    // Client went away: stop reading
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
+
+        try {
+            exportWriter.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Exported {} orders ({} lines) for company {} in {} ms", exportWriter.orders, exportWriter.lines,
+                companyId, System.currentTimeMillis() - start);
+        return exportWriter.orders;
+    }
+
+    /**
+     * Writes orders out; the joined rows (one per line item, grouped by order) are assembled into one order at a time
+     */
+    private abstract static class ExportWriter {
+        final Writer writer;
+        long orders;
+        long lines;
+        private Order current;
+
+        ExportWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        void row(ResultSet rs) throws SQLException, IOException {
+            long orderId = rs.getLong(1);
+            if (current == null || current.getId() != orderId) {
+                if (current != null) {
+                    write(current);
+                }
+                current = new Order();
+                current.setId(orderId);
+                current.setInvoiceNumber(rs.getString(2));
+                current.setFinalizedAt(rs.getTimestamp(3).toLocalDateTime());
+                current.setCreatedAt(rs.getTimestamp(4).toLocalDateTime());
+                current.setClientName(rs.getString(5));
+                current.setClientCompany(rs.getString(6));
+                current.setClientEmail(rs.getString(7));
+                current.setClientPhone(rs.getString(8));
+                current.setClientAddress(rs.getString(9));
+                current.setClientCity(rs.getString(10));
+                current.setClientPostalCode(rs.getString(11));
+                current.setTotalItems(rs.getObject(12, Integer.class));
+                current.setTotalAmount(rs.getObject(13, Double.class));
+            }
+            if (rs.getObject(14) != null) {
+                OrderItem item = new OrderItem(rs.getLong(14), rs.getString(15), null, rs.getInt(16),
+                        rs.getDouble(17));
+                item.setSubtotal(rs.getDouble(18));
+                current.getItems().add(item);
+            }
+        }
+
+        void write(Order order) throws IOException {
+            orders++;
+            lines += order.getItems().size();
+            writeOrder(order);
+        }
+
+        void finish() throws IOException {
+            if (current != null) {
+                write(current);
+                current = null;
+            }
+            writer.flush();
+        }
+
+        abstract void writeOrder(Order order) throws IOException;
+    }
+
+    /**
+     * RFC 4180 CSV: one row per line item (order columns repeated); an order without items gets one row
+     * with empty item columns. Text starting with =, +, -, @, tab or CR is prefixed with ' so spreadsheets
+     * show it instead of evaluating it as a formula.
+     */
+    private static class CsvExportWriter extends ExportWriter {
+
+        CsvExportWriter(Writer writer) {
+            super(writer);
+            try {
+                writer.write(String.join(",", CSV_HEADER));
+                writer.write("\r\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        void writeOrder(Order order) throws IOException {
+            String orderColumns = String.join(",", escape(order.getId()), escape(order.getInvoiceNumber()),
+                    escape(order.getFinalizedAt()), escape(order.getCreatedAt()), escape(order.getClientName()),
+                    escape(order.getClientCompany()), escape(order.getClientEmail()), escape(order.getClientPhone()),
+                    escape(order.getClientAddress()), escape(order.getClientCity()),
+                    escape(order.getClientPostalCode()), escape(order.getTotalItems()), escape(order.getTotalAmount()));
+            if (order.getItems().isEmpty()) {
+                writer.write(orderColumns);
+                writer.write(",,,,,\r\n");
+                return;
+            }
+            for (OrderItem item : order.getItems()) {
+                writer.write(orderColumns);
+                writer.write(',');
+                writer.write(String.join(",", escape(item.getProductId()), escape(item.getProductTitle()),
+                        escape(item.getQuantity()), escape(item.getUnitPrice()), escape(item.getSubtotal())));
+                writer.write("\r\n");
+            }
+        }
+
+        private static String escape(Object value) {
+            String text = value == null ? "" : value.toString();
+            // Client-supplied text that a spreadsheet would evaluate as a formula is written as text
+            if (value instanceof String && !text.isEmpty() && "=+-@\t\r".indexOf(text.charAt(0)) >= 0) {
+                return "\"'" + text.replace("\"", "\"\"") + '"';
+            }
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+                return text;
+            }
+            return '"' + text.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    /**
+     * Newline-delimited JSON: one order object per line, with its items
+     */
+    private class NdjsonExportWriter extends ExportWriter {
+        private final JsonGenerator generator;
+
+        NdjsonExportWriter(Writer writer) {
+            super(writer);
+            try {
+                generator = objectMapper.getFactory().createGenerator(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Flushing the generator after each order only moves it into the buffered writer, not to the client
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        @Override
+        void writeOrder(Order order) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", order.getId());
+            generator.writeStringField("invoiceNumber", order.getInvoiceNumber());
+            generator.writeStringField("finalizedAt", order.getFinalizedAt().toString());
+            generator.writeStringField("createdAt", order.getCreatedAt().toString());
+            generator.writeStringField("clientName", order.getClientName());
+            generator.writeStringField("clientCompany", order.getClientCompany());
+            generator.writeStringField("clientEmail", order.getClientEmail());
+            generator.writeStringField("clientPhone", order.getClientPhone());
+            generator.writeStringField("clientAddress", order.getClientAddress());
+            generator.writeStringField("clientCity", order.getClientCity());
+            generator.writeStringField("clientPostalCode", order.getClientPostalCode());
+            generator.writeObjectField("totalItems", order.getTotalItems());
+            generator.writeObjectField("totalAmount", order.getTotalAmount());
+            generator.writeArrayFieldStart("items");
+            for (OrderItem item : order.getItems()) {
+                generator.writeStartObject();
+                generator.writeNumberField("productId", item.getProductId());
+                generator.writeStringField("productTitle", item.getProductTitle());
+                generator.writeNumberField("quantity", item.getQuantity());
+                generator.writeNumberField("unitPrice", item.getUnitPrice());
+                generator.writeNumberField("subtotal", item.getSubtotal());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.flush();
+            writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import net.javaguides.spring_app.dto.BulkImportResponse;
+import net.javaguides.spring_app.dto.BulkOrderResult;
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderItem;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk order ingestion (marketplace imports).
+ * Orders are read one at a time from a JSON array or NDJSON stream and written in chunks, one transaction per chunk:
+ * one product lookup, one ID allocation query, one reservation pass and one JDBC batch each for orders,
+ * items and reservations. Each order is validated on its own, so a bad order fails alone instead of
+ * rejecting its chunk.
+ */
+@Service
+public class OrderImportService {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private OrderItemService orderItemService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${orders.bulk.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Import orders from a JSON array or NDJSON stream of CreateOrderDTOs (created as PENDING orders)
+     * @param companyId the company ID
+     * @param input the request body
+     * @return one result per order read, and an error if the input is malformed (orders before it are still imported)
+     */
+    public BulkImportResponse importOrders(Long companyId, InputStream input) {
+        BulkImportResponse response = new BulkImportResponse();
+        List<CreateOrderDTO> chunk = new ArrayList<>(chunkSize);
+        int chunkStart = 0;
+
+        try (MappingIterator<CreateOrderDTO> orders = objectMapper.readerFor(CreateOrderDTO.class).readValues(input)) {
+            while (orders.hasNextValue()) {
+                chunk.add(orders.nextValue());
+                if (chunk.size() == chunkSize) {
+                    importChunk(companyId, chunkStart, chunk, response);
+                    chunkStart += chunk.size();
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            response.setError("Invalid order at index " + (chunkStart + chunk.size()) + ": " + e.getMessage());
+        }
+
+        if (!chunk.isEmpty()) {
+            importChunk(companyId, chunkStart, chunk, response);
+        }
+        return response;
+    }
+
+    /**
+     * Import one chunk in its own transaction; if the transaction fails, every order of the chunk is reported as failed
+     */
+    private void importChunk(Long companyId, int firstIndex, List<CreateOrderDTO> chunk, BulkImportResponse response) {
+        BulkOrderResult[] results = new BulkOrderResult[chunk.size()];
+        try {
+            transactionTemplate.executeWithoutResult(status -> writeChunk(companyId, firstIndex, chunk, results));
+        } catch (RuntimeException e) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null || results[i].getOrderId() != null) {
+                    results[i] = BulkOrderResult.failed(firstIndex + i, "Import failed: " + e.getMessage());
+                }
+            }
+        }
+        for (BulkOrderResult result : results) {
+            response.add(result);
+        }
+    }
+
+    private void writeChunk(Long companyId, int firstIndex, List<CreateOrderDTO> chunk, BulkOrderResult[] results) {
+        // Step 1: Validate each order on its own
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            Set<ConstraintViolation<CreateOrderDTO>> violations = validator.validate(chunk.get(i));
+            if (violations.isEmpty()) {
+                valid.add(i);
+            } else {
+                results[i] = BulkOrderResult.failed(firstIndex + i, violations.stream()
+                        .map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", ")));
+            }
+        }
+
+        // Step 2: Load every product of the chunk in one query
+        Set<Long> productIds = new HashSet<>();
+        for (int i : valid) {
+            chunk.get(i).getItems().forEach(item -> productIds.add(item.getProductId()));
+        }
+        Map<Long, Product> productMap = new HashMap<>();
+        if (!productIds.isEmpty()) {
+            productRepository.findAllByIdInAndCategoryCompanyId(productIds, companyId)
+                    .forEach(product -> productMap.put(product.getId(), product));
+        }
+
+        // Step 3: Build orders with their lines and totals
+        Map<Integer, Order> orders = new LinkedHashMap<>();
+        for (int i : valid) {
+            Order order = buildOrder(companyId, chunk.get(i), productMap);
+            if (order == null) {
+                Long missing = chunk.get(i).getItems().stream().map(OrderItemDTO::getProductId)
+                        .filter(id -> !productMap.containsKey(id)).findFirst().orElse(null);
+                results[i] = BulkOrderResult.failed(firstIndex + i, "Product not found or access denied: " + missing);
+            } else {
+                orders.put(i, order);
+            }
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+
+        // Step 4: Allocate order IDs in one round trip
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT nextval(pg_get_serial_sequence('orders', 'id')) FROM generate_series(1, ?)",
+                Long.class, orders.size());
+        int next = 0;
+        Map<Long, Map<Long, Integer>> quantitiesByOrder = new LinkedHashMap<>();
+        for (Order order : orders.values()) {
+            order.setId(ids.get(next++));
+            order.getItems().forEach(item -> item.setOrderId(order.getId()));
+            quantitiesByOrder.put(order.getId(), OrderService.sumQuantities(order.getItems()));
+        }
+
+        // Step 5: Reserve stock, in input order; orders that would oversell fail alone
+        Map<Long, Map<Long, Integer>> rejected = stockReservationService.reserveAll(companyId, quantitiesByOrder);
+        List<Order> accepted = new ArrayList<>();
+        List<OrderItem> items = new ArrayList<>();
+        for (Map.Entry<Integer, Order> entry : orders.entrySet()) {
+            Order order = entry.getValue();
+            Map<Long, Integer> shortages = rejected.get(order.getId());
+            if (shortages != null) {
+                results[entry.getKey()] = BulkOrderResult.failed(firstIndex + entry.getKey(),
+                        OrderService.insufficientStockMessage("Cannot create order", order.getItems(),
+                                quantitiesByOrder.get(order.getId()), shortages));
+            } else {
+                accepted.add(order);
+                items.addAll(order.getItems());
+                results[entry.getKey()] = BulkOrderResult.created(firstIndex + entry.getKey(), order.getId());
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        // Step 6: Insert orders and items with JDBC batches, then update the statistics once
+        insertOrders(accepted);
+        orderItemService.insertItems(items);
+        orderStatsService.applyDelta(companyId, accepted.size(),
+                accepted.stream().mapToLong(Order::getTotalItems).sum(),
+                accepted.stream().mapToDouble(Order::getTotalAmount).sum(), 0, 0, 0.0);
+    }
+
+    /**
+     * Build a PENDING order from its DTO, or return null if one of its products is missing
+     */
+    private static Order buildOrder(Long companyId, CreateOrderDTO dto, Map<Long, Product> productMap) {
+        Order order = new Order(companyId);
+        order.setClientName(dto.getClientName());
+        order.setClientCompany(dto.getClientCompany());
+        order.setClientAddress(dto.getClientAddress());
+        order.setClientCity(dto.getClientCity());
+        order.setClientPostalCode(dto.getClientPostalCode());
+        order.setClientPhone(dto.getClientPhone());
+        order.setClientEmail(dto.getClientEmail());
+        order.setNotes(dto.getNotes());
+        for (OrderItemDTO itemDto : dto.getItems()) {
+            Product product = productMap.get(itemDto.getProductId());
+            if (product == null) {
+                return null;
+            }
+            order.getItems().add(OrderItem.fromProduct(product, itemDto.getQuantity()));
+        }
+        order.calculateTotals();
+        return order;
+    }
+
+    private void insertOrders(List<Order> orders) {
+        jdbcTemplate.batchUpdate("INSERT INTO orders (id, company_id, client_name, client_company, client_address, " +
+                        "client_city, client_postal_code, client_phone, client_email, notes, status, created_at, " +
+                        "total_items, total_amount) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                orders, orders.size(), (ps, order) -> {
+                    ps.setLong(1, order.getId());
+                    ps.setLong(2, order.getCompanyId());
+                    ps.setString(3, order.getClientName());
+                    ps.setString(4, order.getClientCompany());
+                    ps.setString(5, order.getClientAddress());
+                    ps.setString(6, order.getClientCity());
+                    ps.setString(7, order.getClientPostalCode());
+                    ps.setString(8, order.getClientPhone());
+                    ps.setString(9, order.getClientEmail());
+                    ps.setString(10, order.getNotes());
+                    ps.setString(11, order.getStatus().name());
+                    ps.setTimestamp(12, Timestamp.valueOf(order.getCreatedAt()));
+                    ps.setInt(13, order.getTotalItems());
+                    ps.setDouble(14, order.getTotalAmount());
+                });
+    }
+}
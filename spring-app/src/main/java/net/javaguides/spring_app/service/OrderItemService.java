@@ -0,0 +1,130 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.OrderItemChanges;
+import net.javaguides.spring_app.entity.OrderItem;
+import net.javaguides.spring_app.entity.Product;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Set-based writes of order lines.
+ * Updating an order applies only the difference between its current lines and the requested ones,
+ * keyed by product ID: unchanged lines keep their row and ID, and added, changed and removed lines
+ * are written with one JDBC batch each instead of deleting and re-inserting every line.
+ */
+@Service
+public class OrderItemService {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Bring an order's lines in line with the requested quantities.
+     * Lines are re-priced from the current product data (as when they are re-created); a line is only
+     * written if its quantity or product snapshot changed. Must run before the order's items collection
+     * is loaded in the current transaction, since the writes bypass Hibernate.
+     * @param orderId the order ID
+     * @param quantities productId -> requested quantity, in line order
+     * @param productMap productId -> product for every requested product
+     * @return the added, updated and removed products
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public OrderItemChanges applyItemChanges(Long orderId, Map<Long, Integer> quantities,
+                                             Map<Long, Product> productMap) {
+        OrderItemChanges changes = new OrderItemChanges();
+
+        // Current lines (plain rows - the order's managed items must stay unloaded)
+        Map<Long, OrderItem> existing = new HashMap<>();
+        List<Long> deleteIds = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, product_id, product_title, product_image, quantity, unit_price " +
+                "FROM order_items WHERE order_id = ? ORDER BY id", rs -> {
+            OrderItem item = new OrderItem(rs.getLong("product_id"), rs.getString("product_title"),
+                    rs.getString("product_image"), rs.getInt("quantity"), rs.getDouble("unit_price"));
+            item.setId(rs.getLong("id"));
+            // A product listed on several legacy lines keeps the first one
+            if (existing.putIfAbsent(item.getProductId(), item) != null) {
+                deleteIds.add(item.getId());
+            }
+        }, orderId);
+
+        List<OrderItem> inserts = new ArrayList<>();
+        List<OrderItem> updates = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            OrderItem wanted = OrderItem.fromProduct(productMap.get(entry.getKey()), entry.getValue());
+            wanted.setOrderId(orderId);
+            OrderItem current = existing.remove(entry.getKey());
+            if (current == null) {
+                inserts.add(wanted);
+                changes.getAddedProductIds().add(entry.getKey());
+            } else if (sameLine(current, wanted)) {
+                changes.setUnchanged(changes.getUnchanged() + 1);
+            } else {
+                wanted.setId(current.getId());
+                updates.add(wanted);
+                changes.getUpdatedProductIds().add(entry.getKey());
+            }
+        }
+        for (OrderItem removed : existing.values()) {
+            deleteIds.add(removed.getId());
+            changes.getRemovedProductIds().add(removed.getProductId());
+        }
+
+        if (!deleteIds.isEmpty()) {
+            jdbcTemplate.update("DELETE FROM order_items WHERE id = ANY (?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", deleteIds.toArray())));
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE order_items SET product_title = ?, product_image = ?, quantity = ?, " +
+                            "unit_price = ?, subtotal = ? WHERE id = ?",
+                    updates, updates.size(), (ps, item) -> {
+                        ps.setString(1, item.getProductTitle());
+                        ps.setString(2, item.getProductImage());
+                        ps.setInt(3, item.getQuantity());
+                        ps.setDouble(4, item.getUnitPrice());
+                        ps.setDouble(5, item.getSubtotal());
+                        ps.setLong(6, item.getId());
+                    });
+        }
+        insertItems(inserts);
+
+        return changes;
+    }
+
+    /**
+     * Insert order lines with a single JDBC batch
+     * @param items the lines to insert (orderId must be set)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void insertItems(List<OrderItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO order_items (order_id, product_id, product_title, product_image, " +
+                        "quantity, unit_price, subtotal) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                items, items.size(), (ps, item) -> {
+                    ps.setLong(1, item.getOrderId());
+                    ps.setLong(2, item.getProductId());
+                    ps.setString(3, item.getProductTitle());
+                    ps.setString(4, item.getProductImage());
+                    ps.setInt(5, item.getQuantity());
+                    ps.setDouble(6, item.getUnitPrice());
+                    ps.setDouble(7, item.getSubtotal());
+                });
+    }
+
+    private static boolean sameLine(OrderItem current, OrderItem wanted) {
+        return Objects.equals(current.getQuantity(), wanted.getQuantity())
+                && Objects.equals(current.getUnitPrice(), wanted.getUnitPrice())
+                && Objects.equals(current.getProductTitle(), wanted.getProductTitle())
+                && Objects.equals(current.getProductImage(), wanted.getProductImage());
+    }
+}
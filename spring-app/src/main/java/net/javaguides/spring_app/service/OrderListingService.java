@@ -0,0 +1,150 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CursorPage;
+import net.javaguides.spring_app.dto.OrderSummary;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.repository.OrderRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Keyset-paginated order summaries (newest first).
+ * Pages are ordered by (createdAt, id) descending and read through the (company_id, created_at, id) index,
+ * so fetching page N costs the same as page 1 and no line items are loaded.
+ * Search pages are read through the order search indexes (trigram on client names, prefix on identifiers) instead.
+ */
+@Service
+public class OrderListingService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+    public static final int MIN_QUERY_LENGTH = 2;
+
+    // Longest digits-only query looked up as an invoice number (fits in a long)
+    private static final int MAX_INVOICE_DIGITS = 18;
+
+    // Keyset start position when there is no cursor (newer than any order)
+    private static final LocalDateTime MAX_CREATED_AT = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * List one page of order summaries for a company
+     * @param companyId the company ID
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param limit page size (clamped to 1..MAX_LIMIT)
+     * @param status optional status filter (pending, finalized)
+     * @return the page of order summaries with the cursor of the next page
+     * @throws IllegalArgumentException on invalid cursor or status values
+     */
+    public CursorPage<OrderSummary> listOrders(Long companyId, String cursor, Integer limit, String status) {
+        int pageSize = pageSize(limit);
+        Order.OrderStatus orderStatus = parseStatus(status);
+        KeysetPosition after = parseCursor(cursor);
+
+        // Fetch one extra row to know whether there is a next page
+        List<OrderSummary> rows = orderRepository.findSummaryPage(companyId, orderStatus,
+                after.createdAt, after.id, Limit.of(pageSize + 1));
+        return toPage(rows, pageSize);
+    }
+
+    /**
+     * Search a company's orders (case-insensitive)
+     * Client name and client company match anywhere (e.g. "pesc" finds "Popescu"), or at the start of a word for
+     * MIN_QUERY_LENGTH-character queries (e.g. "jo" finds "Ion Jones"); email, phone and invoice number match
+     * by prefix, and a number also finds its invoice (e.g. "42" finds "INV-00042").
+     * @param companyId the company ID
+     * @param query the search text
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param limit page size (clamped to 1..MAX_LIMIT)
+     * @param status optional status filter (pending, finalized)
+     * @return the page of matching order summaries (newest first) with the cursor of the next page
+     * @throws IllegalArgumentException on a too short query or invalid cursor or status values
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<OrderSummary> searchOrders(Long companyId, String query, String cursor, Integer limit,
+                                                 String status) {
+        String term = query == null ? "" : query.trim();
+        if (term.length() < MIN_QUERY_LENGTH) {
+            throw new IllegalArgumentException("Search query must be at least " + MIN_QUERY_LENGTH + " characters");
+        }
+        int pageSize = pageSize(limit);
+        Order.OrderStatus orderStatus = parseStatus(status);
+        KeysetPosition after = parseCursor(cursor);
+
+        String escaped = term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        String lower = escaped.toLowerCase();
+        // Trigrams need 3 characters: shorter terms are matched as word prefixes (the index pads word starts)
+        String namePattern = term.length() < 3 ? "% " + lower + "%" : "%" + lower + "%";
+        String invoiceNumber = term.length() <= MAX_INVOICE_DIGITS && term.chars().allMatch(Character::isDigit)
+                ? InvoiceNumberService.format(Long.parseLong(term)) : null;
+
+        // The indexes can only be used when the patterns are known at planning time: once the driver prepares
+        // the statement server-side, Postgres would switch to a generic plan that scans every order of the company
+        jdbcTemplate.execute("SET LOCAL plan_cache_mode = force_custom_plan");
+        List<OrderSummary> rows = orderRepository.searchSummaryPage(companyId, namePattern, lower + "%",
+                escaped.toUpperCase() + "%", invoiceNumber, orderStatus == null ? null : orderStatus.name(),
+                after.createdAt, after.id, pageSize + 1);
+        return toPage(rows, pageSize);
+    }
+
+    private int pageSize(Integer limit) {
+        return limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    private Order.OrderStatus parseStatus(String status) {
+        if (status == null || status.isEmpty()) {
+            return null;
+        }
+        try {
+            return Order.OrderStatus.valueOf(status.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid status: " + status);
+        }
+    }
+
+    private KeysetPosition parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new KeysetPosition(MAX_CREATED_AT, Long.MAX_VALUE);
+        }
+        String[] position = CursorCodec.decode(cursor, 2);
+        try {
+            return new KeysetPosition(LocalDateTime.parse(position[0]), Long.parseLong(position[1]));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    private CursorPage<OrderSummary> toPage(List<OrderSummary> rows, int pageSize) {
+        if (rows.size() <= pageSize) {
+            return new CursorPage<>(rows, null);
+        }
+        List<OrderSummary> page = rows.subList(0, pageSize);
+        OrderSummary last = page.get(page.size() - 1);
+        return new CursorPage<>(page, CursorCodec.encode(last.getCreatedAt(), last.getId()));
+    }
+
+    /**
+     * (createdAt, id) of the last order of the previous page
+     */
+    private static class KeysetPosition {
+        private final LocalDateTime createdAt;
+        private final long id;
+
+        KeysetPosition(LocalDateTime createdAt, long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+    }
+}
@@ -1,23 +1,33 @@
 package net.javaguides.spring_app.service;
 
 import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.FinalizeBatchResponse;
+import net.javaguides.spring_app.dto.FinalizeBatchResult;
+import net.javaguides.spring_app.dto.OrderItemChanges;
 import net.javaguides.spring_app.dto.OrderItemDTO;
 import net.javaguides.spring_app.entity.Order;
 import net.javaguides.spring_app.entity.OrderItem;
 import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.entity.ProductCountHistory;
 import net.javaguides.spring_app.entity.ProductCountHistory.ChangeType;
 import net.javaguides.spring_app.repository.OrderItemRepository;
 import net.javaguides.spring_app.repository.OrderRepository;
 import net.javaguides.spring_app.repository.ProductRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class OrderService {
@@ -34,6 +44,33 @@ public class OrderService {
     @Autowired
     private ProductCountHistoryService productCountHistoryService;
 
+    @Autowired
+    private QuickStatsService quickStatsService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private InvoiceNumberService invoiceNumberService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private OrderItemService orderItemService;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${orders.finalize-batch.max-size:1000}")
+    private int finalizeBatchMaxSize;
+
     /**
      * Get all orders for a company
      */
@@ -49,10 +86,12 @@ public class OrderService {
     }
 
     /**
-     * Get a single order by ID with items
+     * Get a single order by ID with items (order and items loaded in one query)
+     * Orders of archived months are read from their archive file.
      */
     public Order getOrderById(Long companyId, Long orderId) {
-        return orderRepository.findByIdAndCompanyId(orderId, companyId)
+        return orderRepository.findWithItemsByIdAndCompanyId(orderId, companyId)
+                .or(() -> orderArchiveService.findArchivedOrder(companyId, orderId))
                 .orElseThrow(() -> new RuntimeException("Order not found or access denied"));
     }
 
@@ -89,24 +128,31 @@ public class OrderService {
             orderItems.add(item);
         }
 
-        // Save all items
-        List<OrderItem> savedItems = orderItemRepository.saveAll(orderItems);
-        savedOrder.setItems(savedItems);
+        // Insert all items with one JDBC batch, then load them (with their IDs) in one query
+        orderItemService.insertItems(orderItems);
+        List<OrderItem> savedItems = orderItemRepository.findByOrderId(savedOrder.getId());
+        savedOrder.getItems().addAll(savedItems);
+
+        // Reserve stock while the order is PENDING (fails early if another order already holds the units)
+        reserveStock(companyId, savedOrder.getId(), savedItems, "Cannot create order");
 
         // Calculate and update totals
         savedOrder.calculateTotals();
         orderRepository.save(savedOrder);
+        orderStatsService.orderCreated(savedOrder);
 
         return savedOrder;
     }
 
     /**
      * Update an existing PENDING order
+     * Only added, changed and removed lines are written; the changes are reported in Order.itemChanges
      */
     @Transactional
     public Order updateOrder(Long companyId, Long orderId, CreateOrderDTO dto) {
-        // Get existing order
-        Order order = orderRepository.findByIdAndCompanyId(orderId, companyId)
+        // Get existing order (row locked first, like finalization, so a concurrent finalization either
+        // waits for this transaction or has already made the order non-PENDING)
+        Order order = orderRepository.findForUpdateByIdAndCompanyId(orderId, companyId)
                 .orElseThrow(() -> new RuntimeException("Order not found or access denied"));
 
         // Verify order is PENDING
@@ -117,6 +163,9 @@ public class OrderService {
         // Validate all products exist and belong to company
         Map<Long, Product> productMap = validateAndGetProducts(companyId, dto.getItems());
 
+        Integer oldTotalItems = order.getTotalItems();
+        Double oldTotalAmount = order.getTotalAmount();
+
         // Update order details
         order.setClientName(dto.getClientName());
         order.setClientCompany(dto.getClientCompany());
@@ -127,25 +176,24 @@ public class OrderService {
         order.setClientEmail(dto.getClientEmail());
         order.setNotes(dto.getNotes());
 
-        // Delete existing items
-        orderItemRepository.deleteByOrderId(orderId);
-
-        // Create new items
-        List<OrderItem> orderItems = new ArrayList<>();
+        // Apply only the line changes (keyed by product; repeated products are merged into one line)
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
         for (OrderItemDTO itemDto : dto.getItems()) {
-            Product product = productMap.get(itemDto.getProductId());
-            OrderItem item = OrderItem.fromProduct(product, itemDto.getQuantity());
-            item.setOrderId(order.getId());
-            orderItems.add(item);
+            quantities.merge(itemDto.getProductId(), itemDto.getQuantity(), Integer::sum);
         }
+        OrderItemChanges itemChanges = orderItemService.applyItemChanges(orderId, quantities, productMap);
+        order.setItemChanges(itemChanges);
+
+        // Items are loaded only now, after the line changes were written
+        List<OrderItem> savedItems = order.getItems();
 
-        // Save all items
-        List<OrderItem> savedItems = orderItemRepository.saveAll(orderItems);
-        order.setItems(savedItems);
+        // Replace the order's reservation with the new quantities
+        reserveStock(companyId, orderId, savedItems, "Cannot update order");
 
         // Recalculate totals
         order.calculateTotals();
         orderRepository.save(order);
+        orderStatsService.orderUpdated(order, oldTotalItems, oldTotalAmount);
 
         return order;
     }
@@ -155,8 +203,9 @@ public class OrderService {
      */
     @Transactional
     public void deleteOrder(Long companyId, Long orderId) {
-        // Get existing order
-        Order order = orderRepository.findByIdAndCompanyId(orderId, companyId)
+        // Get existing order (row locked first, like finalization, so a concurrent finalization either
+        // waits for this transaction or has already made the order non-PENDING)
+        Order order = orderRepository.findForUpdateByIdAndCompanyId(orderId, companyId)
                 .orElseThrow(() -> new RuntimeException("Order not found or access denied"));
 
         // Verify order is PENDING
@@ -164,17 +213,19 @@ public class OrderService {
             throw new RuntimeException("Cannot delete order - only PENDING orders can be deleted");
         }
 
-        // Delete order (items will be cascade deleted)
+        // Delete order (items will be cascade deleted) and release its reserved stock
         orderRepository.delete(order);
+        stockReservationService.release(orderId);
+        orderStatsService.orderDeleted(order);
     }
 
     /**
-     * Finalize order - check stock, deduct inventory, generate invoice, change status
+     * Finalize order - deduct inventory (atomically, fails if any product is short), generate invoice, change status
      */
     @Transactional
     public Order finalizeOrder(Long companyId, Long orderId) {
-        // Get existing order with items
-        Order order = orderRepository.findByIdAndCompanyId(orderId, companyId)
+        // Get existing order with items (row locked, so the order cannot be finalized twice concurrently)
+        Order order = orderRepository.findForUpdateByIdAndCompanyId(orderId, companyId)
                 .orElseThrow(() -> new RuntimeException("Order not found or access denied"));
 
         // Verify order is PENDING
@@ -188,78 +239,218 @@ public class OrderService {
             throw new RuntimeException("Cannot finalize order - order has no items");
         }
 
-        // Step 1: Validate stock availability for all items
-        List<String> insufficientStockErrors = new ArrayList<>();
-        Map<Long, Product> productMap = new HashMap<>();
-
+        // Step 1: Validate products still exist (loaded in one query) and sum quantities per product
+        Map<Long, Product> productMap = loadProducts(companyId,
+                items.stream().map(OrderItem::getProductId).collect(Collectors.toSet()));
         for (OrderItem item : items) {
-            Product product = productRepository.findByIdAndCategoryCompanyId(
-                    item.getProductId(), companyId)
-                    .orElseThrow(() -> new RuntimeException(
-                            "Product not found: " + item.getProductTitle()));
-
-            productMap.put(product.getId(), product);
-
-            if (product.getCount() < item.getQuantity()) {
-                insufficientStockErrors.add(String.format(
-                        "Product '%s' has insufficient stock. Required: %d, Available: %d",
-                        product.getTitle(), item.getQuantity(), product.getCount()));
+            if (!productMap.containsKey(item.getProductId())) {
+                throw new RuntimeException("Product not found: " + item.getProductTitle());
             }
         }
+        Map<Long, Integer> quantities = sumQuantities(items);
 
-        // If any product has insufficient stock, reject finalization
-        if (!insufficientStockErrors.isEmpty()) {
-            throw new RuntimeException("Cannot finalize order - insufficient stock:\n" +
-                    String.join("\n", insufficientStockErrors));
+        // Step 2: Release the order's reservation, making sure no other order holds the units it needs
+        Map<Long, Integer> shortages = stockReservationService.claim(orderId, quantities);
+        if (!shortages.isEmpty()) {
+            throw new RuntimeException(insufficientStockMessage("Cannot finalize order", items, quantities, shortages));
         }
 
-        // Step 2: All stock is available - proceed with deduction
-        for (OrderItem item : items) {
-            Product product = productMap.get(item.getProductId());
-            Integer oldCount = product.getCount();
-            Integer newCount = oldCount - item.getQuantity();
-
-            // Update product count
-            product.setCount(newCount);
-            productRepository.save(product);
-
-            // Record history with order reference
-            String notes = String.format("Sale - Order #%d", orderId);
-            productCountHistoryService.recordCountChange(
-                    product.getId(), oldCount, newCount, notes);
+        // Step 3: Deduct stock with conditional atomic updates (count >= quantity checked by the database)
+        StockService.StockDeduction deduction = stockService.deductStock(quantities);
+
+        // If any product has insufficient stock, reject finalization (the transaction rolls back all deductions)
+        if (!deduction.isSuccessful()) {
+            Map<Long, Integer> available = new HashMap<>();
+            for (Long productId : deduction.getFailedProductIds()) {
+                available.put(productId, deduction.getCount(productId));
+            }
+            throw new RuntimeException(insufficientStockMessage("Cannot finalize order", items, quantities, available));
+        }
+
+        // Record history with order reference (one entry per product, single batch insert)
+        String notes = String.format("Sale - Order #%d", orderId);
+        List<ProductCountHistory> history = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            Integer newCount = deduction.getCount(entry.getKey());
+            history.add(ProductCountHistory.create(entry.getKey(), newCount + entry.getValue(), newCount,
+                    ChangeType.SALE, notes));
         }
+        productCountHistoryService.recordCountChanges(history);
+        quickStatsService.stockChanged(companyId);
 
-        // Step 3: Generate invoice number
-        String invoiceNumber = generateInvoiceNumber(companyId);
+        // Step 4: Generate invoice number
+        String invoiceNumber = invoiceNumberService.nextInvoiceNumber(companyId);
         order.setInvoiceNumber(invoiceNumber);
 
-        // Step 4: Update order status
+        // Step 5: Update order status
         order.setStatus(Order.OrderStatus.FINALIZED);
         order.setFinalizedAt(LocalDateTime.now());
 
         // Save and return
-        return orderRepository.save(order);
+        Order savedOrder = orderRepository.save(order);
+        orderStatsService.orderFinalized(savedOrder);
+        return savedOrder;
     }
 
     /**
-     * Generate next invoice number for company
-     * Format: INV-00001, INV-00002, etc.
+     * Finalize several PENDING orders in one transaction (end-of-day batch)
+     * Quantities are summed per product across the batch and deducted with one conditional update per product,
+     * invoice numbers come from one contiguous block (in request order) and all history rows are written
+     * with a single batch insert. Orders that cannot be finalized are rejected individually; when stock
+     * runs short, it goes to the orders listed first.
+     * @param companyId the company ID
+     * @param orderIds the orders to finalize (duplicates are ignored)
+     * @return one result per distinct order ID, in request order
      */
-    private String generateInvoiceNumber(Long companyId) {
-        String maxInvoice = orderRepository.findMaxInvoiceNumber(companyId);
-        int nextNumber = 1;
-
-        if (maxInvoice != null && maxInvoice.startsWith("INV-")) {
-            try {
-                String numberPart = maxInvoice.substring(4);
-                nextNumber = Integer.parseInt(numberPart) + 1;
-            } catch (NumberFormatException e) {
-                // If parsing fails, start from 1
-                nextNumber = 1;
+    @Transactional
+    public FinalizeBatchResponse finalizeOrders(Long companyId, List<Long> orderIds) {
+        List<Long> requested = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        if (requested.size() > finalizeBatchMaxSize) {
+            throw new IllegalArgumentException(
+                    "Cannot finalize more than " + finalizeBatchMaxSize + " orders in one batch");
+        }
+        Map<Long, FinalizeBatchResult> results = new HashMap<>();
+
+        // Step 1: Lock the orders (in ID order) and load the items of all of them in one query
+        Map<Long, Order> orders = new HashMap<>();
+        for (Order order : orderRepository.findAllForUpdateByIdInAndCompanyId(requested, companyId)) {
+            orders.put(order.getId(), order);
+        }
+        Map<Long, List<OrderItem>> itemsByOrder = orders.isEmpty() ? Map.of()
+                : orderItemRepository.findByOrderIdIn(orders.keySet()).stream()
+                        .collect(Collectors.groupingBy(OrderItem::getOrderId));
+        Map<Long, Product> productMap = loadProducts(companyId, itemsByOrder.values().stream()
+                .flatMap(List::stream).map(OrderItem::getProductId).collect(Collectors.toSet()));
+
+        // Step 2: Validate each order on its own
+        Map<Long, Map<Long, Integer>> quantitiesByOrder = new LinkedHashMap<>();
+        for (Long orderId : requested) {
+            Order order = orders.get(orderId);
+            List<OrderItem> items = itemsByOrder.getOrDefault(orderId, List.of());
+            String error = null;
+            if (order == null) {
+                error = "Order not found or access denied";
+            } else if (order.getStatus() != Order.OrderStatus.PENDING) {
+                error = "Cannot finalize order - order is already finalized";
+            } else if (items.isEmpty()) {
+                error = "Cannot finalize order - order has no items";
+            } else {
+                error = items.stream().filter(item -> !productMap.containsKey(item.getProductId())).findFirst()
+                        .map(item -> "Product not found: " + item.getProductTitle()).orElse(null);
+            }
+
+            if (error != null) {
+                results.put(orderId, FinalizeBatchResult.rejected(orderId, error));
+            } else {
+                quantitiesByOrder.put(orderId, sumQuantities(items));
+            }
+        }
+
+        // Step 3: Claim stock for the orders in request order (product rows stay locked until commit)
+        Map<Long, Map<Long, Integer>> shortagesByOrder = quantitiesByOrder.isEmpty() ? Map.of()
+                : stockReservationService.claimAll(quantitiesByOrder);
+        List<Order> accepted = new ArrayList<>();
+        Map<Long, Integer> totals = new HashMap<>();
+        quantitiesByOrder.forEach((orderId, quantities) -> {
+            Map<Long, Integer> shortages = shortagesByOrder.get(orderId);
+            if (shortages != null) {
+                results.put(orderId, FinalizeBatchResult.rejected(orderId, insufficientStockMessage(
+                        "Cannot finalize order", itemsByOrder.get(orderId), quantities, shortages)));
+            } else {
+                accepted.add(orders.get(orderId));
+                quantities.forEach((productId, quantity) -> totals.merge(productId, quantity, Integer::sum));
             }
+        });
+
+        if (!accepted.isEmpty()) {
+            // Step 4: Deduct the summed quantities, one conditional update per product
+            StockService.StockDeduction deduction = stockService.deductStock(totals);
+            if (!deduction.isSuccessful()) {
+                // The claim locked and checked these rows, so this means the counts were changed outside the lock
+                throw new RuntimeException("Stock changed during batch finalization for products "
+                        + deduction.getFailedProductIds());
+            }
+
+            // Step 5: History - one entry per order and product, counts chained in request order, one batch insert
+            Map<Long, Integer> counts = new HashMap<>();
+            totals.forEach((productId, total) -> counts.put(productId, deduction.getCount(productId) + total));
+            List<ProductCountHistory> history = new ArrayList<>();
+            for (Order order : accepted) {
+                String notes = String.format("Sale - Order #%d", order.getId());
+                quantitiesByOrder.get(order.getId()).forEach((productId, quantity) -> {
+                    int oldCount = counts.get(productId);
+                    counts.put(productId, oldCount - quantity);
+                    history.add(ProductCountHistory.create(productId, oldCount, oldCount - quantity,
+                            ChangeType.SALE, notes));
+                });
+            }
+            productCountHistoryService.recordCountChanges(history);
+            quickStatsService.stockChanged(companyId);
+
+            // Step 6: Allocate one block of invoice numbers and update the orders with one JDBC batch
+            long firstInvoice = invoiceNumberService.allocateBlock(companyId, accepted.size());
+            LocalDateTime finalizedAt = LocalDateTime.now();
+            List<Object[]> updates = new ArrayList<>();
+            for (int i = 0; i < accepted.size(); i++) {
+                Long orderId = accepted.get(i).getId();
+                String invoiceNumber = InvoiceNumberService.format(firstInvoice + i);
+                updates.add(new Object[]{invoiceNumber, finalizedAt, orderId});
+                results.put(orderId, FinalizeBatchResult.finalized(orderId, invoiceNumber));
+            }
+            jdbcTemplate.batchUpdate(
+                    "UPDATE orders SET status = 'FINALIZED', invoice_number = ?, finalized_at = ? WHERE id = ?", updates);
+
+            long items = accepted.stream().mapToLong(o -> o.getTotalItems() != null ? o.getTotalItems() : 0).sum();
+            double amount = accepted.stream().mapToDouble(o -> o.getTotalAmount() != null ? o.getTotalAmount() : 0.0).sum();
+            orderStatsService.applyDelta(companyId, -accepted.size(), -items, -amount, accepted.size(), items, amount);
         }
 
-        return String.format("INV-%05d", nextNumber);
+        FinalizeBatchResponse response = new FinalizeBatchResponse();
+        for (Long orderId : requested) {
+            response.add(results.get(orderId));
+        }
+        return response;
+    }
+
+    /**
+     * Reserve the order's quantities, failing with the per-line shortages if any product is short
+     */
+    private void reserveStock(Long companyId, Long orderId, List<OrderItem> items, String action) {
+        Map<Long, Integer> quantities = sumQuantities(items);
+        Map<Long, Integer> shortages = stockReservationService.reserve(companyId, orderId, quantities);
+        if (!shortages.isEmpty()) {
+            throw new RuntimeException(insufficientStockMessage(action, items, quantities, shortages));
+        }
+    }
+
+    /**
+     * Sum order line quantities per product (a product may appear on several lines)
+     */
+    static Map<Long, Integer> sumQuantities(List<OrderItem> items) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        for (OrderItem item : items) {
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    /**
+     * Build the insufficient stock error, one line per order line whose product is short
+     * @param available productId -> units available for every short product
+     */
+    static String insufficientStockMessage(String action, List<OrderItem> items,
+                                                   Map<Long, Integer> quantities, Map<Long, Integer> available) {
+        List<String> insufficientStockErrors = new ArrayList<>();
+        for (OrderItem item : items) {
+            if (available.containsKey(item.getProductId())) {
+                Integer availableCount = available.get(item.getProductId());
+                insufficientStockErrors.add(String.format(
+                        "Product '%s' has insufficient stock. Required: %d, Available: %d",
+                        item.getProductTitle(), quantities.get(item.getProductId()),
+                        availableCount != null ? Math.max(availableCount, 0) : 0));
+            }
+        }
+        return action + " - insufficient stock:\n" + String.join("\n", insufficientStockErrors);
     }
 
     /**
@@ -267,17 +458,28 @@ public class OrderService {
      * Returns map of productId -> Product for easy lookup
      */
     private Map<Long, Product> validateAndGetProducts(Long companyId, List<OrderItemDTO> items) {
-        Map<Long, Product> productMap = new HashMap<>();
+        Map<Long, Product> productMap = loadProducts(companyId,
+                items.stream().map(OrderItemDTO::getProductId).collect(Collectors.toSet()));
 
         for (OrderItemDTO itemDto : items) {
-            Product product = productRepository.findByIdAndCategoryCompanyId(
-                    itemDto.getProductId(), companyId)
-                    .orElseThrow(() -> new RuntimeException(
-                            "Product not found or access denied: " + itemDto.getProductId()));
+            if (!productMap.containsKey(itemDto.getProductId())) {
+                throw new RuntimeException(
+                        "Product not found or access denied: " + itemDto.getProductId());
+            }
+        }
+
+        return productMap;
+    }
 
+    /**
+     * Load the company's products with the given IDs in a single query
+     * Returns map of productId -> Product (IDs not found or not owned by the company are absent)
+     */
+    private Map<Long, Product> loadProducts(Long companyId, Set<Long> productIds) {
+        Map<Long, Product> productMap = new HashMap<>();
+        for (Product product : productRepository.findAllByIdInAndCategoryCompanyId(productIds, companyId)) {
             productMap.put(product.getId(), product);
         }
-
         return productMap;
     }
 }
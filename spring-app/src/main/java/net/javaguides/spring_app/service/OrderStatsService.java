@@ -0,0 +1,187 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderStats;
+import net.javaguides.spring_app.repository.OrderStatsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Per-company order statistics (order_stats), kept up to date by atomic increments in the same
+ * transaction as each order change, so reading them is a single primary-key lookup.
+ * A repair job recomputes every company's row from the orders table with one aggregate query and applies
+ * the differences (at startup, which also backfills companies that have no row yet, and on a schedule).
+ */
+@Service
+public class OrderStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderStatsService.class);
+
+    // Expected totals per company and the current rows, from one snapshot; the differences are added to the
+    // latest row versions (companies whose orders were all deleted are brought back to zero)
+    private static final String REPAIR = "WITH expected AS (" +
+            "SELECT t.company_id, SUM(t.pending_count) AS pending_count, SUM(t.pending_items) AS pending_items, " +
+            "SUM(t.pending_amount) AS pending_amount, SUM(t.finalized_count) AS finalized_count, " +
+            "SUM(t.finalized_items) AS finalized_items, SUM(t.finalized_revenue) AS finalized_revenue FROM (" +
+            "SELECT o.company_id, " +
+            "COUNT(*) FILTER (WHERE o.status = 'PENDING') AS pending_count, " +
+            "COALESCE(SUM(o.total_items) FILTER (WHERE o.status = 'PENDING'), 0) AS pending_items, " +
+            "COALESCE(SUM(o.total_amount) FILTER (WHERE o.status = 'PENDING'), 0) AS pending_amount, " +
+            "COUNT(*) FILTER (WHERE o.status = 'FINALIZED') AS finalized_count, " +
+            "COALESCE(SUM(o.total_items) FILTER (WHERE o.status = 'FINALIZED'), 0) AS finalized_items, " +
+            "COALESCE(SUM(o.total_amount) FILTER (WHERE o.status = 'FINALIZED'), 0) AS finalized_revenue " +
+            "FROM orders o GROUP BY o.company_id " +
+            // Archived (finalized) orders are counted from the archive manifest
+            "UNION ALL " +
+            "SELECT a.company_id, 0, 0, 0, SUM(a.order_count), SUM(a.total_items), SUM(a.total_amount) " +
+            "FROM order_archives a GROUP BY a.company_id" +
+            ") t GROUP BY t.company_id), " +
+            "deltas AS (" +
+            "SELECT COALESCE(e.company_id, s.company_id) AS company_id, " +
+            "COALESCE(e.pending_count, 0) - COALESCE(s.pending_count, 0) AS pending_count, " +
+            "COALESCE(e.pending_items, 0) - COALESCE(s.pending_items, 0) AS pending_items, " +
+            "COALESCE(e.pending_amount, 0) - COALESCE(s.pending_amount, 0) AS pending_amount, " +
+            "COALESCE(e.finalized_count, 0) - COALESCE(s.finalized_count, 0) AS finalized_count, " +
+            "COALESCE(e.finalized_items, 0) - COALESCE(s.finalized_items, 0) AS finalized_items, " +
+            "COALESCE(e.finalized_revenue, 0) - COALESCE(s.finalized_revenue, 0) AS finalized_revenue " +
+            "FROM expected e FULL JOIN order_stats s ON s.company_id = e.company_id " +
+            "WHERE (COALESCE(e.pending_count, 0), COALESCE(e.pending_items, 0), COALESCE(e.pending_amount, 0), " +
+            "COALESCE(e.finalized_count, 0), COALESCE(e.finalized_items, 0), COALESCE(e.finalized_revenue, 0)) " +
+            "IS DISTINCT FROM (COALESCE(s.pending_count, 0), COALESCE(s.pending_items, 0), " +
+            "COALESCE(s.pending_amount, 0), COALESCE(s.finalized_count, 0), COALESCE(s.finalized_items, 0), " +
+            "COALESCE(s.finalized_revenue, 0)) OR s.company_id IS NULL) " +
+            "INSERT INTO order_stats (company_id, pending_count, pending_items, pending_amount, " +
+            "finalized_count, finalized_items, finalized_revenue, updated_at) " +
+            "SELECT company_id, pending_count, pending_items, pending_amount, finalized_count, finalized_items, " +
+            "finalized_revenue, now() FROM deltas " +
+            "ON CONFLICT (company_id) DO UPDATE SET " +
+            "pending_count = order_stats.pending_count + EXCLUDED.pending_count, " +
+            "pending_items = order_stats.pending_items + EXCLUDED.pending_items, " +
+            "pending_amount = order_stats.pending_amount + EXCLUDED.pending_amount, " +
+            "finalized_count = order_stats.finalized_count + EXCLUDED.finalized_count, " +
+            "finalized_items = order_stats.finalized_items + EXCLUDED.finalized_items, " +
+            "finalized_revenue = order_stats.finalized_revenue + EXCLUDED.finalized_revenue, " +
+            "updated_at = EXCLUDED.updated_at";
+
+    @Autowired
+    private OrderStatsRepository orderStatsRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Get the order statistics of a company
+     * @param companyId the company ID
+     * @return the statistics (all zero if the company has no orders yet)
+     */
+    public OrderStats getStats(Long companyId) {
+        return orderStatsRepository.findById(companyId).orElseGet(() -> new OrderStats(companyId));
+    }
+
+    /**
+     * Count a newly created (PENDING) order
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void orderCreated(Order order) {
+        applyDelta(order.getCompanyId(), 1, totalItems(order), totalAmount(order), 0, 0, 0.0);
+    }
+
+    /**
+     * Apply the change of a PENDING order's totals
+     * @param order the order with its new totals
+     * @param oldTotalItems total items before the update
+     * @param oldTotalAmount total amount before the update
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void orderUpdated(Order order, Integer oldTotalItems, Double oldTotalAmount) {
+        applyDelta(order.getCompanyId(), 0,
+                totalItems(order) - (oldTotalItems != null ? oldTotalItems : 0),
+                totalAmount(order) - (oldTotalAmount != null ? oldTotalAmount : 0.0), 0, 0, 0.0);
+    }
+
+    /**
+     * Remove a deleted PENDING order from the statistics
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void orderDeleted(Order order) {
+        applyDelta(order.getCompanyId(), -1, -totalItems(order), -totalAmount(order), 0, 0, 0.0);
+    }
+
+    /**
+     * Move a finalized order from the pending to the finalized totals
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void orderFinalized(Order order) {
+        applyDelta(order.getCompanyId(), -1, -totalItems(order), -totalAmount(order),
+                1, totalItems(order), totalAmount(order));
+    }
+
+    /**
+     * Atomically add deltas to a company's statistics row (created on first use)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void applyDelta(Long companyId, long pendingCount, long pendingItems, double pendingAmount,
+                           long finalizedCount, long finalizedItems, double finalizedRevenue) {
+        jdbcTemplate.update("INSERT INTO order_stats (company_id, pending_count, pending_items, pending_amount, " +
+                        "finalized_count, finalized_items, finalized_revenue, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+                        "ON CONFLICT (company_id) DO UPDATE SET " +
+                        "pending_count = order_stats.pending_count + EXCLUDED.pending_count, " +
+                        "pending_items = order_stats.pending_items + EXCLUDED.pending_items, " +
+                        "pending_amount = order_stats.pending_amount + EXCLUDED.pending_amount, " +
+                        "finalized_count = order_stats.finalized_count + EXCLUDED.finalized_count, " +
+                        "finalized_items = order_stats.finalized_items + EXCLUDED.finalized_items, " +
+                        "finalized_revenue = order_stats.finalized_revenue + EXCLUDED.finalized_revenue, " +
+                        "updated_at = EXCLUDED.updated_at",
+                companyId, pendingCount, pendingItems, pendingAmount,
+                finalizedCount, finalizedItems, finalizedRevenue, Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void repairOnStartup() {
+        repairAll();
+    }
+
+    /**
+     * Recompute the statistics of every company from the orders table (and the archive manifest)
+     * and repair the rows that drifted, in one statement.
+     * The expected totals and the current rows are read from the same snapshot and only the differences are
+     * applied, as increments like applyDelta's, so order transactions keep running meanwhile: changes committed
+     * after the snapshot are added on top of the repaired values and neither lost nor counted twice.
+     * A SHARE ROW EXCLUSIVE lock on order_archives serializes repairs (two repairs of the same drift would apply
+     * it twice) and holds back the archive job; order writes and readers are not blocked.
+     * @return number of companies repaired
+     */
+    @Scheduled(cron = "${orders.stats.repair-cron:0 30 3 * * *}")
+    public int repairAll() {
+        long start = System.currentTimeMillis();
+        Integer companies = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE order_archives IN SHARE ROW EXCLUSIVE MODE");
+            return jdbcTemplate.update(REPAIR);
+        });
+        log.info("Repaired order statistics of {} companies in {} ms", companies, System.currentTimeMillis() - start);
+        return companies != null ? companies : 0;
+    }
+
+    private static long totalItems(Order order) {
+        return order.getTotalItems() != null ? order.getTotalItems() : 0;
+    }
+
+    private static double totalAmount(Order order) {
+        return order.getTotalAmount() != null ? order.getTotalAmount() : 0.0;
+    }
+}
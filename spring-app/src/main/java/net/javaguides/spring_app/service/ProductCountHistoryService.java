@@ -4,10 +4,13 @@ import net.javaguides.spring_app.entity.ProductCountHistory;
 import net.javaguides.spring_app.entity.ProductCountHistory.ChangeType;
 import net.javaguides.spring_app.repository.ProductCountHistoryRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -16,6 +19,15 @@ public class ProductCountHistoryService {
     @Autowired
     private ProductCountHistoryRepository productCountHistoryRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private ProductDailyStatsService productDailyStatsService;
+
     /**
      * Record a count change for a product
      * Automatically determines if it's a SALE (decrease) or RESTOCK (increase)
@@ -43,7 +55,31 @@ public class ProductCountHistoryService {
 
         ProductCountHistory history = ProductCountHistory.create(
                 productId, oldCount, newCount, changeType, notes);
-        return productCountHistoryRepository.save(history);
+        ProductCountHistory saved = productCountHistoryRepository.save(history);
+        productDailyStatsService.historyRecorded(List.of(saved));
+        return saved;
+    }
+
+    /**
+     * Record several history entries with a single JDBC batch insert
+     * (used for order finalization, where one entry per product would otherwise mean one INSERT each)
+     * @param entries the history entries to insert
+     */
+    @Transactional
+    public void recordCountChanges(List<ProductCountHistory> entries) {
+        jdbcTemplate.batchUpdate("INSERT INTO product_count_history " +
+                        "(product_id, old_count, new_count, change_amount, change_type, changed_at, notes) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                entries, entries.size(), (ps, history) -> {
+                    ps.setLong(1, history.getProductId());
+                    ps.setInt(2, history.getOldCount());
+                    ps.setInt(3, history.getNewCount());
+                    ps.setInt(4, history.getChangeAmount());
+                    ps.setString(5, history.getChangeType().name());
+                    ps.setTimestamp(6, Timestamp.valueOf(history.getChangedAt()));
+                    ps.setString(7, history.getNotes());
+                });
+        productDailyStatsService.historyRecorded(entries);
     }
 
     /**
@@ -56,27 +92,37 @@ public class ProductCountHistoryService {
     public ProductCountHistory recordInitialCount(Long productId, Integer initialCount) {
         ProductCountHistory history = ProductCountHistory.create(
                 productId, 0, initialCount, ChangeType.INITIAL, "Product created");
-        return productCountHistoryRepository.save(history);
+        ProductCountHistory saved = productCountHistoryRepository.save(history);
+        productDailyStatsService.historyRecorded(List.of(saved));
+        return saved;
     }
 
     /**
-     * Get all history entries for a specific product
+     * Get all history entries for a specific product, including archived months
+     * @param companyId the company ID (owner of the product)
      * @param productId the product ID
      * @return list of history entries, ordered by timestamp descending
      */
-    public List<ProductCountHistory> getProductHistory(Long productId) {
-        return productCountHistoryRepository.findByProductIdOrderByChangedAtDesc(productId);
+    public List<ProductCountHistory> getProductHistory(Long companyId, Long productId) {
+        List<ProductCountHistory> history = new ArrayList<>(
+                productCountHistoryRepository.findByProductIdOrderByChangedAtDesc(productId));
+        // Archived entries are older than every entry still in the table
+        history.addAll(orderArchiveService.findArchivedHistory(companyId, productId, null));
+        return history;
     }
 
     /**
-     * Get all history entries for a company for the last N months
+     * Get all history entries for a company for the last N months, including archived months
      * @param companyId the company ID
      * @param months number of months to look back
      * @return list of history entries
      */
     public List<ProductCountHistory> getCompanyHistoryLastMonths(Long companyId, int months) {
         LocalDateTime startDate = LocalDateTime.now().minusMonths(months);
-        return productCountHistoryRepository.findByCompanyIdAndDateRange(companyId, startDate);
+        List<ProductCountHistory> history = new ArrayList<>(
+                productCountHistoryRepository.findByCompanyIdAndDateRange(companyId, startDate));
+        history.addAll(orderArchiveService.findArchivedHistory(companyId, null, startDate));
+        return history;
     }
 
     /**
@@ -0,0 +1,333 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.ProductMovement;
+import net.javaguides.spring_app.entity.OrderArchive;
+import net.javaguides.spring_app.entity.ProductCountHistory;
+import net.javaguides.spring_app.repository.OrderArchiveRepository;
+import net.javaguides.spring_app.repository.ProductDailyStatsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Daily rollup of product count history (product_daily_stats): one row per product and day, updated by an atomic
+ * upsert in the same transaction as each history entry, so analytics read one row per product and day instead
+ * of every history entry.
+ * A rebuild job recomputes a range of days from the history table (and the archive files of archived months),
+ * one month per transaction and without blocking history writes: at startup when the rollup is empty (backfill)
+ * and nightly for the last rebuild-days.
+ */
+@Service
+public class ProductDailyStatsService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductDailyStatsService.class);
+
+    // Adds a day's totals to the product's row (created on first use); the closing count is the latest entry's
+    private static final String UPSERT = "INSERT INTO product_daily_stats (company_id, product_id, day, units_sold, " +
+            "units_restocked, adjustments, transaction_count, closing_count, closing_at) " +
+            "SELECT c.company_id, p.id, CAST(? AS date), ?, ?, ?, ?, ?, CAST(? AS timestamp) " +
+            "FROM products p JOIN categories c ON c.id = p.category_id WHERE p.id = ? " +
+            "ON CONFLICT (product_id, day) DO UPDATE SET " +
+            "units_sold = product_daily_stats.units_sold + EXCLUDED.units_sold, " +
+            "units_restocked = product_daily_stats.units_restocked + EXCLUDED.units_restocked, " +
+            "adjustments = product_daily_stats.adjustments + EXCLUDED.adjustments, " +
+            "transaction_count = product_daily_stats.transaction_count + EXCLUDED.transaction_count, " +
+            "closing_count = CASE WHEN EXCLUDED.closing_at >= product_daily_stats.closing_at " +
+            "THEN EXCLUDED.closing_count ELSE product_daily_stats.closing_count END, " +
+            "closing_at = GREATEST(product_daily_stats.closing_at, EXCLUDED.closing_at)";
+
+    // Archived day totals of the month being rebuilt (products deleted since are skipped, as in UPSERT)
+    private static final String CREATE_ARCHIVED_STAGING = "CREATE TEMP TABLE archived_daily_stats (" +
+            "company_id BIGINT, product_id BIGINT, day DATE, units_sold BIGINT, units_restocked BIGINT, " +
+            "adjustments BIGINT, transaction_count BIGINT, closing_count INTEGER, closing_at TIMESTAMP) ON COMMIT DROP";
+
+    private static final String STAGE_ARCHIVED = "INSERT INTO archived_daily_stats " +
+            "SELECT c.company_id, p.id, CAST(? AS date), ?, ?, ?, ?, ?, CAST(? AS timestamp) " +
+            "FROM products p JOIN categories c ON c.id = p.category_id WHERE p.id = ?";
+
+    // Repairs a range of days: the expected rows (history plus staged archive totals) and the current rows
+    // come from one snapshot, and each difference is applied as an increment on the latest row version.
+    // The closing count is only replaced if no newer entry has been added since the snapshot.
+    // Parameters: history from (inclusive), history to (exclusive), first day, last day
+    private static final String REPAIR = "WITH expected AS (" +
+            "SELECT company_id, product_id, day, SUM(units_sold) AS units_sold, " +
+            "SUM(units_restocked) AS units_restocked, SUM(adjustments) AS adjustments, " +
+            "SUM(transaction_count) AS transaction_count, " +
+            "(ARRAY_AGG(closing_count ORDER BY closing_at DESC))[1] AS closing_count, MAX(closing_at) AS closing_at " +
+            "FROM (SELECT c.company_id, h.product_id, h.changed_at::date AS day, " +
+            "COALESCE(SUM(-h.change_amount) FILTER (WHERE h.change_type = 'SALE'), 0) AS units_sold, " +
+            "COALESCE(SUM(h.change_amount) FILTER (WHERE h.change_type = 'RESTOCK'), 0) AS units_restocked, " +
+            "COALESCE(SUM(h.change_amount) FILTER (WHERE h.change_type IN ('INITIAL', 'ADJUSTMENT')), 0) AS adjustments, " +
+            "COUNT(*) AS transaction_count, " +
+            "(ARRAY_AGG(h.new_count ORDER BY h.changed_at DESC, h.id DESC))[1] AS closing_count, " +
+            "MAX(h.changed_at) AS closing_at " +
+            "FROM product_count_history h JOIN products p ON p.id = h.product_id " +
+            "JOIN categories c ON c.id = p.category_id " +
+            "WHERE h.changed_at >= ? AND h.changed_at < ? " +
+            "GROUP BY c.company_id, h.product_id, h.changed_at::date " +
+            "UNION ALL SELECT * FROM archived_daily_stats) totals " +
+            "GROUP BY company_id, product_id, day), " +
+            "deltas AS (" +
+            "SELECT s.id, COALESCE(e.company_id, s.company_id) AS company_id, " +
+            "COALESCE(e.product_id, s.product_id) AS product_id, COALESCE(e.day, s.day) AS day, " +
+            "COALESCE(e.units_sold, 0) - COALESCE(s.units_sold, 0) AS units_sold, " +
+            "COALESCE(e.units_restocked, 0) - COALESCE(s.units_restocked, 0) AS units_restocked, " +
+            "COALESCE(e.adjustments, 0) - COALESCE(s.adjustments, 0) AS adjustments, " +
+            "COALESCE(e.transaction_count, 0) - COALESCE(s.transaction_count, 0) AS transaction_count, " +
+            "COALESCE(e.closing_count, s.closing_count) AS closing_count, " +
+            "COALESCE(e.closing_at, s.closing_at) AS closing_at, s.closing_at AS seen_closing_at " +
+            "FROM expected e FULL JOIN (SELECT * FROM product_daily_stats WHERE day BETWEEN ? AND ?) s " +
+            "ON s.product_id = e.product_id AND s.day = e.day " +
+            "WHERE (e.units_sold, e.units_restocked, e.adjustments, e.transaction_count, e.closing_count, e.closing_at) " +
+            "IS DISTINCT FROM (s.units_sold, s.units_restocked, s.adjustments, s.transaction_count, s.closing_count, s.closing_at)), " +
+            "updated AS (" +
+            "UPDATE product_daily_stats r SET " +
+            "units_sold = r.units_sold + d.units_sold, " +
+            "units_restocked = r.units_restocked + d.units_restocked, " +
+            "adjustments = r.adjustments + d.adjustments, " +
+            "transaction_count = r.transaction_count + d.transaction_count, " +
+            "closing_count = CASE WHEN r.closing_at = d.seen_closing_at THEN d.closing_count ELSE r.closing_count END, " +
+            "closing_at = CASE WHEN r.closing_at = d.seen_closing_at THEN d.closing_at ELSE r.closing_at END " +
+            "FROM deltas d WHERE r.id = d.id RETURNING 1), " +
+            "inserted AS (" +
+            "INSERT INTO product_daily_stats (company_id, product_id, day, units_sold, units_restocked, adjustments, " +
+            "transaction_count, closing_count, closing_at) " +
+            "SELECT company_id, product_id, day, units_sold, units_restocked, adjustments, transaction_count, " +
+            "closing_count, closing_at FROM deltas WHERE id IS NULL " +
+            "ON CONFLICT (product_id, day) DO UPDATE SET " +
+            "units_sold = product_daily_stats.units_sold + EXCLUDED.units_sold, " +
+            "units_restocked = product_daily_stats.units_restocked + EXCLUDED.units_restocked, " +
+            "adjustments = product_daily_stats.adjustments + EXCLUDED.adjustments, " +
+            "transaction_count = product_daily_stats.transaction_count + EXCLUDED.transaction_count, " +
+            "closing_count = CASE WHEN EXCLUDED.closing_at >= product_daily_stats.closing_at " +
+            "THEN EXCLUDED.closing_count ELSE product_daily_stats.closing_count END, " +
+            "closing_at = GREATEST(product_daily_stats.closing_at, EXCLUDED.closing_at) RETURNING 1) " +
+            "SELECT (SELECT COUNT(*) FROM updated) + (SELECT COUNT(*) FROM inserted)";
+
+    @Autowired
+    private ProductDailyStatsRepository productDailyStatsRepository;
+
+    @Autowired
+    private OrderArchiveRepository orderArchiveRepository;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${products.daily-stats.rebuild-days:7}")
+    private int rebuildDays;
+
+    /**
+     * Get each product's stock movements of a company from a day on
+     * @param companyId the company ID
+     * @param since the first day
+     * @return one movement per product with history in the period
+     */
+    public List<ProductMovement> getMovementsSince(Long companyId, LocalDate since) {
+        return productDailyStatsRepository.findMovementsSince(companyId, since);
+    }
+
+    /**
+     * Get the units sold by a company's products from a day on
+     * @param companyId the company ID
+     * @param since the first day
+     * @return total units sold
+     */
+    public long getUnitsSoldSince(Long companyId, LocalDate since) {
+        return productDailyStatsRepository.sumUnitsSoldSince(companyId, since);
+    }
+
+    /**
+     * Add newly recorded history entries to the rollup (in the transaction that records them)
+     * @param entries the recorded entries
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void historyRecorded(List<ProductCountHistory> entries) {
+        List<DayTotals> totals = new ArrayList<>(entries.size());
+        for (ProductCountHistory history : entries) {
+            DayTotals dayTotals = new DayTotals(history.getProductId(), history.getChangedAt().toLocalDate());
+            dayTotals.add(history);
+            totals.add(dayTotals);
+        }
+        upsert(totals);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        Boolean empty = jdbcTemplate.queryForObject(
+                "SELECT NOT EXISTS (SELECT 1 FROM product_daily_stats)", Boolean.class);
+        if (!Boolean.TRUE.equals(empty)) {
+            return;
+        }
+        Date first = jdbcTemplate.queryForObject("SELECT LEAST((SELECT MIN(changed_at)::date FROM product_count_history), " +
+                "(SELECT MIN(month) FROM order_archives))", Date.class);
+        if (first != null) {
+            rebuild(first.toLocalDate(), LocalDate.now());
+        }
+    }
+
+    /**
+     * Rebuild the last rebuild-days days (repairs any drift of the incremental updates)
+     * @return number of rows written
+     */
+    @Scheduled(cron = "${products.daily-stats.rebuild-cron:0 45 3 * * *}")
+    public int rebuildRecent() {
+        LocalDate today = LocalDate.now();
+        return rebuild(today.minusDays(rebuildDays), today);
+    }
+
+    /**
+     * Recompute the rollup of a range of days from the history, one calendar month per transaction.
+     * The expected rows and the current rollup rows are read in one statement (one snapshot), and only the
+     * differences are applied, as increments like the incremental upserts, so history transactions keep
+     * writing meanwhile: entries committed after the snapshot are added on top and neither lost nor counted
+     * twice. A SHARE ROW EXCLUSIVE lock on order_archives serializes rebuilds and holds back the archive job
+     * (which moves history into the archive files) until the month is done; readers are not blocked.
+     * @param from first day
+     * @param to last day (inclusive)
+     * @return number of rows written
+     */
+    public int rebuild(LocalDate from, LocalDate to) {
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        for (YearMonth month = YearMonth.from(from); !month.isAfter(YearMonth.from(to)); month = month.plusMonths(1)) {
+            LocalDate first = month.atDay(1).isBefore(from) ? from : month.atDay(1);
+            LocalDate last = month.atEndOfMonth().isAfter(to) ? to : month.atEndOfMonth();
+            LocalDate archiveMonth = month.atDay(1);
+            Integer written = transactionTemplate.execute(status -> {
+                jdbcTemplate.execute("LOCK TABLE order_archives IN SHARE ROW EXCLUSIVE MODE");
+
+                // Archived history of the month, staged for the repair statement
+                Map<DayKey, DayTotals> archived = new HashMap<>();
+                for (OrderArchive archive : orderArchiveRepository.findByMonth(archiveMonth)) {
+                    orderArchiveService.forEachArchivedHistory(archive, history -> {
+                        LocalDate day = history.getChangedAt().toLocalDate();
+                        if (!day.isBefore(first) && !day.isAfter(last)) {
+                            archived.computeIfAbsent(new DayKey(history.getProductId(), day),
+                                    key -> new DayTotals(key.productId, key.day)).add(history);
+                        }
+                    });
+                }
+                jdbcTemplate.execute(CREATE_ARCHIVED_STAGING);
+                List<DayTotals> archivedTotals = new ArrayList<>(archived.values());
+                jdbcTemplate.batchUpdate(STAGE_ARCHIVED, archivedTotals, archivedTotals.size(), this::setDayTotals);
+
+                Long count = jdbcTemplate.queryForObject(REPAIR, Long.class,
+                        Timestamp.valueOf(first.atStartOfDay()), Timestamp.valueOf(last.plusDays(1).atStartOfDay()),
+                        Date.valueOf(first), Date.valueOf(last));
+                // Rows whose entries are all gone (repaired down to zero)
+                jdbcTemplate.update("DELETE FROM product_daily_stats WHERE day BETWEEN ? AND ? AND transaction_count = 0",
+                        Date.valueOf(first), Date.valueOf(last));
+                return count != null ? count.intValue() : 0;
+            });
+            rows += written != null ? written : 0;
+        }
+        log.info("Rebuilt product daily stats from {} to {} ({} rows repaired) in {} ms", from, to, rows,
+                System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    private void upsert(List<DayTotals> totals) {
+        jdbcTemplate.batchUpdate(UPSERT, totals, totals.size(), this::setDayTotals);
+    }
+
+    private void setDayTotals(PreparedStatement ps, DayTotals dayTotals) throws SQLException {
+        ps.setDate(1, Date.valueOf(dayTotals.day));
+        ps.setLong(2, dayTotals.unitsSold);
+        ps.setLong(3, dayTotals.unitsRestocked);
+        ps.setLong(4, dayTotals.adjustments);
+        ps.setLong(5, dayTotals.transactionCount);
+        ps.setInt(6, dayTotals.closingCount);
+        ps.setTimestamp(7, Timestamp.valueOf(dayTotals.closingAt));
+        ps.setLong(8, dayTotals.productId);
+    }
+
+    /**
+     * A product and day
+     */
+    private static class DayKey {
+        private final Long productId;
+        private final LocalDate day;
+
+        DayKey(Long productId, LocalDate day) {
+            this.productId = productId;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DayKey)) {
+                return false;
+            }
+            DayKey other = (DayKey) o;
+            return productId.equals(other.productId) && day.equals(other.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productId, day);
+        }
+    }
+
+    /**
+     * Totals of a product's history entries of one day
+     */
+    private static class DayTotals {
+        private final Long productId;
+        private final LocalDate day;
+        private long unitsSold;
+        private long unitsRestocked;
+        private long adjustments;
+        private long transactionCount;
+        private int closingCount;
+        private LocalDateTime closingAt;
+
+        DayTotals(Long productId, LocalDate day) {
+            this.productId = productId;
+            this.day = day;
+        }
+
+        void add(ProductCountHistory history) {
+            switch (history.getChangeType()) {
+                case SALE -> unitsSold -= history.getChangeAmount();
+                case RESTOCK -> unitsRestocked += history.getChangeAmount();
+                default -> adjustments += history.getChangeAmount();
+            }
+            transactionCount++;
+            if (closingAt == null || !history.getChangedAt().isBefore(closingAt)) {
+                closingCount = history.getNewCount();
+                closingAt = history.getChangedAt();
+            }
+        }
+    }
+}
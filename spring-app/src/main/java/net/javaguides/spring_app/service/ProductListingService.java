@@ -0,0 +1,113 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CursorPage;
+import net.javaguides.spring_app.dto.ProductSummary;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Keyset-paginated, image-free product listing.
+ * Pages are ordered by (categoryId, id), so fetching page N costs the same as page 1
+ * regardless of catalog size.
+ */
+@Service
+public class ProductListingService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * List one page of products for a company
+     * @param companyId the company ID
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param limit page size (clamped to 1..MAX_LIMIT)
+     * @param categoryId optional category filter
+     * @param stock optional stock filter: "low" (1..LOW_STOCK_THRESHOLD) or "out" (0)
+     * @param titlePrefix optional case-insensitive title prefix
+     * @param sort "category" (default, ascending) or "-category" (descending)
+     * @return the page of product summaries with the cursor of the next page
+     * @throws IllegalArgumentException on invalid cursor, stock or sort values
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<ProductSummary> listProducts(Long companyId, String cursor, Integer limit,
+                                                   Long categoryId, String stock, String titlePrefix,
+                                                   String sort) {
+        int pageSize = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+        boolean descending = parseSort(sort);
+
+        // Stock range filter
+        int minCount = 0;
+        int maxCount = Integer.MAX_VALUE;
+        if (stock != null && !stock.isEmpty()) {
+            switch (stock.toLowerCase()) {
+                case "low" -> {
+                    minCount = 1;
+                    maxCount = Product.LOW_STOCK_THRESHOLD;
+                }
+                case "out" -> maxCount = 0;
+                default -> throw new IllegalArgumentException("Invalid stock filter: " + stock);
+            }
+        }
+
+        String titlePattern = titlePrefix == null || titlePrefix.isEmpty()
+                ? "%"
+                : escapeLike(titlePrefix.toLowerCase()) + "%";
+
+        // Keyset position: start before the first row when there is no cursor
+        long afterCategoryId = descending ? Long.MAX_VALUE : 0L;
+        long afterId = descending ? Long.MAX_VALUE : 0L;
+        if (cursor != null && !cursor.isEmpty()) {
+            long[] position = CursorCodec.decodeLongs(cursor, 2);
+            afterCategoryId = position[0];
+            afterId = position[1];
+        }
+
+        // Fetch one extra row to know whether there is a next page
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        // The title prefix index and the optional category filter can only be used when their values are known at
+        // planning time: a generic plan for the prepared statement walks the company's whole keyset range instead
+        jdbcTemplate.execute("SET LOCAL plan_cache_mode = force_custom_plan");
+        List<ProductSummary> rows = descending
+                ? productRepository.findSummaryPageDesc(companyId, categoryId, minCount, maxCount,
+                        titlePattern, afterCategoryId, afterId, fetchLimit)
+                : productRepository.findSummaryPageAsc(companyId, categoryId, minCount, maxCount,
+                        titlePattern, afterCategoryId, afterId, fetchLimit);
+
+        if (rows.size() <= pageSize) {
+            return new CursorPage<>(rows, null);
+        }
+        List<ProductSummary> page = rows.subList(0, pageSize);
+        ProductSummary last = page.get(page.size() - 1);
+        return new CursorPage<>(page, CursorCodec.encode(last.getCategoryId(), last.getId()));
+    }
+
+    private static boolean parseSort(String sort) {
+        if (sort == null || sort.isEmpty() || sort.equals("category")) {
+            return false;
+        }
+        if (sort.equals("-category")) {
+            return true;
+        }
+        throw new IllegalArgumentException("Invalid sort: " + sort);
+    }
+
+    /**
+     * Escape LIKE wildcards so a title prefix is matched literally (escape character '!')
+     */
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
@@ -0,0 +1,120 @@
+package net.javaguides.spring_app.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import net.javaguides.spring_app.entity.Product;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quick inventory stats of a company (GET /api/analysis/quick-stats), computed with aggregate queries only:
+ * product counts from index-only scans (the low-stock and out-of-stock counts on partial indexes, see
+ * quick_stats_indexes.sql) and units sold from the daily rollup (ProductDailyStatsService).
+ * Results are cached per company for ttl-seconds; writes that change stock call stockChanged to evict them.
+ */
+@Service
+public class QuickStatsService {
+
+    // Thresholds are inlined (not bound) so the planner can match the partial indexes' predicates
+    private static final String COUNTS = "SELECT " +
+            "(SELECT COUNT(*) FROM products p WHERE p.category_id IN (SELECT id FROM categories WHERE company_id = ?)), " +
+            "(SELECT COUNT(*) FROM products p WHERE p.category_id IN (SELECT id FROM categories WHERE company_id = ?) " +
+            "AND p.count <= " + Product.LOW_STOCK_THRESHOLD + "), " +
+            "(SELECT COUNT(*) FROM products p WHERE p.category_id IN (SELECT id FROM categories WHERE company_id = ?) " +
+            "AND p.count = 0)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductDailyStatsService productDailyStatsService;
+
+    @Value("${analysis.quick-stats.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    // companyId -> stats
+    private Cache<Long, Map<String, Object>> stats;
+
+    // companyId -> eviction count, so stats computed while the company's stock changed are not cached
+    // (per company: evictions of other companies do not discard them)
+    private final ConcurrentHashMap<Long, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        stats = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    /**
+     * Get a company's quick stats (cached for ttl-seconds)
+     * @param companyId the company ID
+     * @return totalProducts, lowStock, outOfStock and totalSoldLastMonth
+     */
+    public Map<String, Object> getQuickStats(Long companyId) {
+        Map<String, Object> cached = stats.getIfPresent(companyId);
+        if (cached != null) {
+            return cached;
+        }
+        AtomicLong generation = generationOf(companyId);
+        long startGeneration = generation.get();
+        Map<String, Object> computed = compute(companyId);
+        stats.put(companyId, computed);
+        // An eviction raced with the queries: drop what may already be stale
+        if (generation.get() != startGeneration) {
+            stats.invalidate(companyId);
+        }
+        return computed;
+    }
+
+    /**
+     * Evict a company's quick stats after its stock changed (once the current transaction commits, if any)
+     * @param companyId the company ID
+     */
+    public void stockChanged(Long companyId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(companyId);
+                }
+            });
+        } else {
+            evict(companyId);
+        }
+    }
+
+    private void evict(Long companyId) {
+        generationOf(companyId).incrementAndGet();
+        stats.invalidate(companyId);
+    }
+
+    private AtomicLong generationOf(Long companyId) {
+        return generations.computeIfAbsent(companyId, id -> new AtomicLong());
+    }
+
+    private Map<String, Object> compute(Long companyId) {
+        long[] counts = jdbcTemplate.queryForObject(COUNTS,
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)},
+                companyId, companyId, companyId);
+        long totalSoldLastMonth =
+                productDailyStatsService.getUnitsSoldSince(companyId, LocalDate.now().minusMonths(1));
+        return Map.of(
+                "totalProducts", counts[0],
+                "lowStock", counts[1] - counts[2],
+                "outOfStock", counts[2],
+                "totalSoldLastMonth", totalSoldLastMonth);
+    }
+}
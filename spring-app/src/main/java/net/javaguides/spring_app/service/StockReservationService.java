@@ -0,0 +1,267 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stock reservations for PENDING orders.
+ * Each order holds one stock_reservations row per product; available-to-promise (ATP) is
+ * count - sum of unexpired reservations. Reservation changes for a product are serialized with a
+ * transaction-scoped advisory lock on the product ID instead of a row lock on products, so carts
+ * competing for a hot product never block stock updates, product edits or reads of the products row.
+ * Expired reservations stop counting immediately; the scheduler only deletes them in batches.
+ */
+@Service
+public class StockReservationService {
+
+    private static final Logger log = LoggerFactory.getLogger(StockReservationService.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${orders.reservations.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Value("${orders.reservations.expiry-batch-size:1000}")
+    private int expiryBatchSize;
+
+    private Counter expiredCounter;
+
+    @PostConstruct
+    public void init() {
+        expiredCounter = meterRegistry.counter("orders.reservations.expired");
+    }
+
+    /**
+     * Reserve stock for an order, replacing any reservation it already holds.
+     * Nothing is reserved if any product is short.
+     * @param companyId the company ID
+     * @param orderId the order ID
+     * @param quantities productId -> quantity to reserve
+     * @return productId -> available-to-promise for every product that is short (empty on success)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Integer> reserve(Long companyId, Long orderId, Map<Long, Integer> quantities) {
+        Map<Long, Integer> shortages = claim(orderId, quantities);
+        if (!shortages.isEmpty()) {
+            return shortages;
+        }
+
+        List<Map.Entry<Long, Integer>> lines = new ArrayList<>(quantities.entrySet());
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Timestamp expiresAt = Timestamp.valueOf(LocalDateTime.now().plusMinutes(ttlMinutes));
+        jdbcTemplate.batchUpdate("INSERT INTO stock_reservations " +
+                        "(order_id, product_id, company_id, quantity, created_at, expires_at) VALUES (?, ?, ?, ?, ?, ?)",
+                lines, lines.size(), (ps, line) -> {
+                    ps.setLong(1, orderId);
+                    ps.setLong(2, line.getKey());
+                    ps.setLong(3, companyId);
+                    ps.setInt(4, line.getValue());
+                    ps.setTimestamp(5, now);
+                    ps.setTimestamp(6, expiresAt);
+                });
+        return shortages;
+    }
+
+    /**
+     * Reserve stock for several new orders at once (bulk import): products are locked and their
+     * available-to-promise read once, then orders are served in the given order until a product runs short.
+     * @param companyId the company ID
+     * @param quantitiesByOrder orderId -> (productId -> quantity), in priority order
+     * @return orderId -> (productId -> available-to-promise) for every order that could not be reserved
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Map<Long, Integer>> reserveAll(Long companyId, Map<Long, Map<Long, Integer>> quantitiesByOrder) {
+        Set<Long> productIds = new HashSet<>();
+        quantitiesByOrder.values().forEach(quantities -> productIds.addAll(quantities.keySet()));
+        lockProducts(productIds);
+        Map<Long, Integer> available = getAvailableToPromise(productIds);
+
+        Map<Long, Map<Long, Integer>> rejected = new HashMap<>();
+        List<Object[]> rows = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        Timestamp expiresAt = Timestamp.valueOf(LocalDateTime.now().plusMinutes(ttlMinutes));
+        quantitiesByOrder.forEach((orderId, quantities) -> {
+            Map<Long, Integer> shortages = new HashMap<>();
+            quantities.forEach((productId, quantity) -> {
+                int left = available.getOrDefault(productId, 0);
+                if (left < quantity) {
+                    shortages.put(productId, left);
+                }
+            });
+            if (!shortages.isEmpty()) {
+                rejected.put(orderId, shortages);
+                return;
+            }
+            quantities.forEach((productId, quantity) -> {
+                available.merge(productId, -quantity, Integer::sum);
+                rows.add(new Object[]{orderId, productId, companyId, quantity, now, expiresAt});
+            });
+        });
+
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO stock_reservations " +
+                    "(order_id, product_id, company_id, quantity, created_at, expires_at) VALUES (?, ?, ?, ?, ?, ?)", rows);
+        }
+        return rejected;
+    }
+
+    /**
+     * Release an order's reservation and check that the quantities are still available to it
+     * (used at finalization, where the reserved units are turned into a stock deduction).
+     * An order whose reservation expired can still claim units nobody else has reserved.
+     * @param orderId the order ID
+     * @param quantities productId -> quantity the order needs
+     * @return productId -> available-to-promise for every product that is short (empty on success)
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Integer> claim(Long orderId, Map<Long, Integer> quantities) {
+        lockProducts(quantities.keySet());
+        release(orderId);
+
+        Map<Long, Integer> shortages = new HashMap<>();
+        getAvailableToPromise(quantities.keySet()).forEach((productId, available) -> {
+            if (available < quantities.get(productId)) {
+                shortages.put(productId, available);
+            }
+        });
+        return shortages;
+    }
+
+    /**
+     * Claim stock for several orders at once (batch finalization): products are locked - advisory locks, then
+     * their products rows in ID order, so the deduction that follows cannot fail - and available-to-promise
+     * is read once, not counting the orders' own reservations. Orders are then served in the given order;
+     * accepted orders have their reservations released, rejected orders keep theirs.
+     * @param quantitiesByOrder orderId -> (productId -> quantity), in priority order
+     * @return orderId -> (productId -> units left for it) for every order that could not be claimed
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Map<Long, Integer>> claimAll(Map<Long, Map<Long, Integer>> quantitiesByOrder) {
+        Set<Long> productIds = new HashSet<>();
+        quantitiesByOrder.values().forEach(quantities -> productIds.addAll(quantities.keySet()));
+        lockProducts(productIds);
+
+        Map<Long, Integer> available = new HashMap<>();
+        Long[] orderIds = quantitiesByOrder.keySet().toArray(Long[]::new);
+        jdbcTemplate.query("SELECT p.id, p.count - COALESCE((SELECT SUM(r.quantity) FROM stock_reservations r " +
+                        "WHERE r.product_id = p.id AND r.expires_at > ? AND r.order_id <> ALL (?)), 0) " +
+                        "FROM products p WHERE p.id = ANY (?) ORDER BY p.id FOR UPDATE OF p",
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("bigint", orderIds));
+                    ps.setArray(3, ps.getConnection().createArrayOf("bigint", productIds.toArray()));
+                },
+                rs -> {
+                    available.put(rs.getLong(1), rs.getInt(2));
+                });
+
+        Map<Long, Map<Long, Integer>> rejected = new HashMap<>();
+        List<Long> claimed = new ArrayList<>();
+        quantitiesByOrder.forEach((orderId, quantities) -> {
+            Map<Long, Integer> shortages = new HashMap<>();
+            quantities.forEach((productId, quantity) -> {
+                int left = available.getOrDefault(productId, 0);
+                if (left < quantity) {
+                    shortages.put(productId, left);
+                }
+            });
+            if (!shortages.isEmpty()) {
+                rejected.put(orderId, shortages);
+                return;
+            }
+            quantities.forEach((productId, quantity) -> available.merge(productId, -quantity, Integer::sum));
+            claimed.add(orderId);
+        });
+
+        if (!claimed.isEmpty()) {
+            jdbcTemplate.update("DELETE FROM stock_reservations WHERE order_id = ANY (?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", claimed.toArray())));
+        }
+        return rejected;
+    }
+
+    /**
+     * Release all stock held by an order
+     * @param orderId the order ID
+     */
+    @Transactional
+    public void release(Long orderId) {
+        jdbcTemplate.update("DELETE FROM stock_reservations WHERE order_id = ?", orderId);
+    }
+
+    /**
+     * Compute available-to-promise (count - unexpired reservations) for products
+     * @param productIds the product IDs
+     * @return productId -> available-to-promise
+     */
+    public Map<Long, Integer> getAvailableToPromise(Set<Long> productIds) {
+        Map<Long, Integer> available = new HashMap<>();
+        jdbcTemplate.query("SELECT p.id, p.count - COALESCE((SELECT SUM(r.quantity) FROM stock_reservations r " +
+                        "WHERE r.product_id = p.id AND r.expires_at > ?), 0) " +
+                        "FROM products p WHERE p.id = ANY (?)",
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("bigint", productIds.toArray()));
+                },
+                rs -> {
+                    available.put(rs.getLong(1), rs.getInt(2));
+                });
+        return available;
+    }
+
+    /**
+     * Delete expired reservations in bounded batches (they already stopped counting against ATP)
+     * @return number of deleted reservations
+     */
+    @Scheduled(fixedDelayString = "${orders.reservations.expiry-interval-ms:60000}")
+    public int expireReservations() {
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM stock_reservations WHERE id IN " +
+                            "(SELECT id FROM stock_reservations WHERE expires_at <= ? ORDER BY id LIMIT ?)",
+                    Timestamp.valueOf(LocalDateTime.now()), expiryBatchSize);
+            total += deleted;
+        } while (deleted == expiryBatchSize);
+
+        if (total > 0) {
+            expiredCounter.increment(total);
+            log.info("Expired {} stock reservations", total);
+        }
+        return total;
+    }
+
+    /**
+     * Take transaction-scoped advisory locks on the products, in ascending ID order (no deadlocks)
+     */
+    private void lockProducts(Set<Long> productIds) {
+        Long[] sortedIds = productIds.stream().sorted().toArray(Long[]::new);
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(id) FROM unnest(?) AS id",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", sortedIds)),
+                rs -> {
+                });
+    }
+}
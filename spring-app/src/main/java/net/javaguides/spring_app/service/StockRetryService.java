@@ -0,0 +1,115 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.javaguides.spring_app.entity.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Retry policy for stock-mutating operations, and contention metrics.
+ * Operations that lose a race on products (version conflict, deadlock, lock or serialization failure) are
+ * run again in a new transaction with exponential backoff and jitter. Every retry and every conflict that
+ * reaches the client is counted (products.stock.retries / products.stock.conflicts, tagged by operation),
+ * and conflicts on a known product are also counted per product to find hot SKUs.
+ */
+@Service
+public class StockRetryService {
+
+    private static final Logger log = LoggerFactory.getLogger(StockRetryService.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${products.stock-retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${products.stock-retry.initial-backoff-ms:50}")
+    private long initialBackoffMs;
+
+    @Value("${products.stock-retry.max-backoff-ms:1000}")
+    private long maxBackoffMs;
+
+    // productId -> conflicts (retried or returned as 409) since startup
+    private final Map<Long, LongAdder> conflictsByProduct = new ConcurrentHashMap<>();
+
+    /**
+     * Run an operation in its own transaction(s), retrying it on concurrency failures
+     * The action must start its own transaction (call it from outside any transaction) so each attempt starts clean.
+     * @param operation operation name for the metrics, e.g. "finalize"
+     * @param action the operation
+     * @return the result of the first attempt that succeeds
+     * @throws ConcurrencyFailureException if the last attempt fails with one
+     */
+    public <T> T execute(String operation, Supplier<T> action) {
+        long backoffMs = initialBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (ConcurrencyFailureException e) {
+                recordConflict(operation, e);
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                meterRegistry.counter("products.stock.retries", "operation", operation).increment();
+                log.debug("Retrying {} after concurrency failure (attempt {}): {}", operation, attempt, e.getMessage());
+                sleep(ThreadLocalRandom.current().nextLong(backoffMs / 2, backoffMs + 1));
+                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+            }
+        }
+    }
+
+    /**
+     * Count a conflict that is returned to the client instead of retried (e.g. a stale product version)
+     * @param operation operation name for the metrics
+     * @param productId the contended product
+     */
+    public void recordConflict(String operation, Long productId) {
+        meterRegistry.counter("products.stock.conflicts", "operation", operation).increment();
+        conflictsByProduct.computeIfAbsent(productId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Conflict counts per product since startup
+     * @return productId -> conflicts, most contended first
+     */
+    public Map<Long, Long> getConflictsByProduct() {
+        Map<Long, Long> conflicts = new LinkedHashMap<>();
+        conflictsByProduct.entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum()))
+                .sorted(Map.Entry.<Long, Long>comparingByValue(Comparator.reverseOrder()))
+                .forEach(entry -> conflicts.put(entry.getKey(), entry.getValue()));
+        return conflicts;
+    }
+
+    private void recordConflict(String operation, ConcurrencyFailureException e) {
+        if (e instanceof ObjectOptimisticLockingFailureException optimistic
+                && Product.class.getName().equals(optimistic.getPersistentClassName())
+                && optimistic.getIdentifier() instanceof Long productId) {
+            recordConflict(operation, productId);
+        } else {
+            meterRegistry.counter("products.stock.conflicts", "operation", operation).increment();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+}
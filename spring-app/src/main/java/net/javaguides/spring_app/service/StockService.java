@@ -0,0 +1,118 @@
+package net.javaguides.spring_app.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Set-based stock changes that are safe under concurrent finalizations.
+ * Stock is deducted with conditional atomic updates (count = count - qty WHERE count >= qty) instead of
+ * read / check / save, so two transactions can never both pass the check on the same units.
+ * Note: the updates bypass Hibernate - Product entities already loaded in the caller's transaction keep their old count.
+ * They do increment the product version, so a concurrent product edit based on the old count fails instead of
+ * overwriting the deduction.
+ */
+@Service
+public class StockService {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Deduct stock for several products in one JDBC batch.
+     * Rows are updated in ascending product ID order, so concurrent callers lock products in the same order
+     * and cannot deadlock. Products without enough stock are left untouched and reported as failed;
+     * the caller must roll back its transaction if it needs all-or-nothing semantics.
+     * @param quantities productId -> quantity to deduct
+     * @return the products that could not be deducted and the current count of every product
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public StockDeduction deductStock(Map<Long, Integer> quantities) {
+        List<Map.Entry<Long, Integer>> lines = new ArrayList<>(new TreeMap<>(quantities).entrySet());
+
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE products SET count = count - ?, version = version + 1 WHERE id = ? AND count >= ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Map.Entry<Long, Integer> line = lines.get(i);
+                        ps.setInt(1, line.getValue());
+                        ps.setLong(2, line.getKey());
+                        ps.setInt(3, line.getValue());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return lines.size();
+                    }
+                });
+
+        Set<Long> failedProductIds = new LinkedHashSet<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                failedProductIds.add(lines.get(i).getKey());
+            }
+        }
+
+        return new StockDeduction(failedProductIds, getCounts(quantities.keySet()));
+    }
+
+    /**
+     * Read the current counts of products straight from the database (one query)
+     * @param productIds the product IDs
+     * @return productId -> count
+     */
+    public Map<Long, Integer> getCounts(Set<Long> productIds) {
+        Map<Long, Integer> counts = new HashMap<>();
+        jdbcTemplate.query("SELECT id, count FROM products WHERE id = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", productIds.toArray())),
+                rs -> {
+                    counts.put(rs.getLong(1), rs.getInt(2));
+                });
+        return counts;
+    }
+
+    /**
+     * Outcome of a stock deduction
+     */
+    public static class StockDeduction {
+        private final Set<Long> failedProductIds;
+        private final Map<Long, Integer> counts;
+
+        public StockDeduction(Set<Long> failedProductIds, Map<Long, Integer> counts) {
+            this.failedProductIds = failedProductIds;
+            this.counts = counts;
+        }
+
+        public boolean isSuccessful() {
+            return failedProductIds.isEmpty();
+        }
+
+        /**
+         * Products whose conditional update matched no row (insufficient stock), in product ID order
+         */
+        public Set<Long> getFailedProductIds() {
+            return failedProductIds;
+        }
+
+        /**
+         * Count after the deduction (or the available count for failed products)
+         */
+        public Integer getCount(Long productId) {
+            return counts.get(productId);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+-- Database Migration: Indexes for order search (GET /api/orders/search)
+-- Applied automatically at startup by DatabaseMigrationRunner
+-- The indexed expressions must match the search query in OrderRepository.searchSummaryPage exactly
+
+-- pg_trgm: LIKE '%term%' through a GIN index; btree_gin: company_id in the same GIN index
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+-- Substring search on client name and client company. The leading space lets short terms match
+-- the start of any word: LIKE '% jo%'
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_search_names ON orders
+    USING gin (company_id, (lower(' ' || client_name || ' ' || coalesce(client_company, ''))) gin_trgm_ops);
+
+-- Prefix search on identifiers. Emails, phones and invoice numbers share very frequent trigrams
+-- ("mai", "07x", "INV"), which make trigram scans slow; btree prefix scans are not affected
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_search_email ON orders (company_id, lower(client_email) text_pattern_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_search_phone ON orders (company_id, client_phone text_pattern_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_search_invoice ON orders (company_id, invoice_number text_pattern_ops);
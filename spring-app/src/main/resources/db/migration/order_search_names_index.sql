@@ -0,0 +1,12 @@
+-- Database Migration: Trigram index on order names without company_id
+-- Applied automatically at startup by DatabaseMigrationRunner
+-- (replaces idx_order_search_names from order_search_indexes.sql)
+
+-- With company_id as the first GIN column every search intersected the company's posting list (one entry per
+-- order of the company) with the trigram lists: 6-15 ms at 1M orders even for terms no name contains.
+-- The trigram-only index returns the few rows of rare terms (checked against company_id afterwards), and
+-- common terms are served by the (company_id, created_at, id) keyset scan instead.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_search_names_trgm ON orders
+    USING gin ((lower(' ' || client_name || ' ' || coalesce(client_company, ''))) gin_trgm_ops);
+
+DROP INDEX CONCURRENTLY IF EXISTS idx_order_search_names;
@@ -0,0 +1,12 @@
+-- Database Migration: Remove a product's daily rollup rows with the product
+-- Applied automatically at startup by DatabaseMigrationRunner
+-- (ddl-auto=update cannot declare ON DELETE CASCADE for the product_id column)
+
+-- Rows left behind by products deleted before this migration
+DELETE FROM product_daily_stats d WHERE NOT EXISTS (SELECT 1 FROM products p WHERE p.id = d.product_id);
+
+-- Deleting a product (or its category's products) deletes its daily rows in the same transaction;
+-- uk_product_daily_stats_product_day (product_id, day) serves the cascade's lookups
+ALTER TABLE product_daily_stats DROP CONSTRAINT IF EXISTS fk_product_daily_stats_product;
+ALTER TABLE product_daily_stats ADD CONSTRAINT fk_product_daily_stats_product
+    FOREIGN KEY (product_id) REFERENCES products (id) ON DELETE CASCADE;
@@ -0,0 +1,9 @@
+-- Database Migration: Indexes for the keyset-paginated product listing (GET /api/products/page)
+-- Applied automatically at startup by DatabaseMigrationRunner
+-- (the (category_id, id) keyset index is declared on the Product entity)
+
+-- Case-insensitive title prefix filter: LOWER(title) LIKE 'abc%'
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_title_lower ON products (lower(title) text_pattern_ops);
+
+-- Low-stock / out-of-stock filters only touch the few products near zero
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_low_stock ON products (category_id, id) WHERE count <= 10;
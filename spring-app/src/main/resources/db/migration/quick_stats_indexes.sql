@@ -0,0 +1,6 @@
+-- Database Migration: Indexes for GET /api/analysis/quick-stats
+-- Applied automatically at startup by DatabaseMigrationRunner
+-- (low stock is counted on idx_product_low_stock from product_listing_indexes.sql)
+
+-- Out-of-stock count: index-only scan over the company's products at zero
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_out_of_stock ON products (category_id) WHERE count = 0;
@@ -0,0 +1,97 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bulkheads: operations beyond max-concurrent wait in per-company queues served round-robin,
+ * and are rejected once their company's queue or the whole queue is full.
+ */
+@SpringBootTest(properties = {"bulkheads.invoices.max-concurrent=1", "bulkheads.invoices.max-queued=4",
+        "bulkheads.invoices.max-queued-per-company=2"})
+class BulkheadServiceTest {
+
+    @Autowired
+    private BulkheadService bulkheadService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void waitingOperationsAreServedRoundRobinAndRejectedWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        double companyRejections = rejections("company");
+        double capacityRejections = rejections("capacity");
+
+        // Holds the only slot
+        CompletableFuture<String> running = bulkheadService.submit(BulkheadService.INVOICES, 1L, () -> {
+            await(release);
+            order.add("A0");
+            return "A0";
+        });
+        List<CompletableFuture<String>> waiting = List.of(
+                submit(1L, "A1", order),
+                submit(1L, "A2", order),
+                submit(2L, "B1", order),
+                submit(3L, "C1", order));
+
+        // Company 1 already has two waiting; then the queue (four) is full for everyone
+        BulkheadService.RejectedException companyFull = assertThrows(BulkheadService.RejectedException.class,
+                () -> submit(1L, "A3", order));
+        assertTrue(companyFull.isCompanyLimit());
+        BulkheadService.RejectedException queueFull = assertThrows(BulkheadService.RejectedException.class,
+                () -> submit(4L, "D1", order));
+        assertFalse(queueFull.isCompanyLimit());
+        assertEquals(1, queueFull.getRetryAfterSeconds());
+
+        release.countDown();
+        assertEquals("A0", running.get(10, TimeUnit.SECONDS));
+        for (CompletableFuture<String> future : waiting) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        // Company 1's second operation waits for the other companies' first ones
+        assertEquals(List.of("A0", "A1", "B1", "C1", "A2"), order);
+        assertEquals(companyRejections + 1, rejections("company"));
+        assertEquals(capacityRejections + 1, rejections("capacity"));
+
+        // A failing operation completes its future exceptionally and frees its slot
+        CompletableFuture<String> failed = bulkheadService.submit(BulkheadService.INVOICES, 1L, () -> {
+            throw new RuntimeException("render failed");
+        });
+        assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertEquals("ok", bulkheadService.submit(BulkheadService.INVOICES, 1L, () -> "ok").get(10, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<String> submit(Long companyId, String name, List<String> order) {
+        return bulkheadService.submit(BulkheadService.INVOICES, companyId, () -> {
+            order.add(name);
+            return name;
+        });
+    }
+
+    private double rejections(String reason) {
+        return meterRegistry.counter("bulkhead.rejected", "bulkhead", "invoices", "reason", reason).count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.FinalizationJob;
+import net.javaguides.spring_app.entity.FinalizationJob.JobStatus;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Queued finalizations run on the workers and hand out a scarce product in the order they were requested;
+ * only jobs whose instance stopped sending heartbeats are requeued.
+ */
+@SpringBootTest
+class FinalizationQueueServiceTest extends DatabaseTestSupport {
+
+    private static final int ORDERS = 8;
+    private static final int SCARCE_STOCK = 3;
+
+    @Autowired
+    private FinalizationQueueService finalizationQueueService;
+
+    @Autowired
+    private OrderService orderService;
+
+    private Long companyId;
+    private Product scarce;
+    private List<Product> others;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Queue Co");
+        Category category = createCategory(companyId);
+        scarce = createProduct(category.getId(), "Scarce", 1.0, ORDERS);
+        others = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            others.add(createProduct(category.getId(), "Other " + i, 1.0, 10));
+        }
+    }
+
+    @Test
+    void queuedFinalizationsServeScarceStockInRequestOrder() throws Exception {
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            orderIds.add(orderService.createOrder(companyId, new CreateOrderDTO("Client " + i, null, "Street 1",
+                    "City", "12345", "0700000000", null, null, List.of(
+                            new OrderItemDTO(others.get(i).getId(), 1), new OrderItemDTO(scarce.getId(), 1)))).getId());
+        }
+        // Stock drops after the orders were placed: only the first SCARCE_STOCK finalizations can succeed
+        jdbcTemplate.update("DELETE FROM stock_reservations WHERE company_id = ?", companyId);
+        jdbcTemplate.update("UPDATE products SET count = ? WHERE id = ?", SCARCE_STOCK, scarce.getId());
+
+        List<FinalizationJob> jobs = new ArrayList<>();
+        for (Long orderId : orderIds) {
+            jobs.add(finalizationQueueService.enqueue(companyId, orderId));
+        }
+
+        List<FinalizationJob> completed = new ArrayList<>();
+        for (FinalizationJob job : jobs) {
+            completed.add(awaitCompletion(job.getId()));
+        }
+
+        for (int i = 0; i < ORDERS; i++) {
+            FinalizationJob job = completed.get(i);
+            if (i < SCARCE_STOCK) {
+                assertEquals(JobStatus.SUCCEEDED, job.getStatus(), job.getError());
+                assertNotNull(job.getInvoiceNumber());
+            } else {
+                assertEquals(JobStatus.FAILED, job.getStatus());
+                assertTrue(job.getError().contains("insufficient stock"), job.getError());
+            }
+        }
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT count FROM products WHERE id = ?",
+                Integer.class, scarce.getId()));
+    }
+
+    @Test
+    void onlyJobsWithAStaleHeartbeatAreRequeued() {
+        Long live = insertRunningJob("now()");
+        Long stale = insertRunningJob("now() - INTERVAL '10 minutes'");
+
+        finalizationQueueService.requeueStaleJobs();
+
+        assertEquals("other-instance", jdbcTemplate.queryForObject("SELECT owner_id FROM finalization_jobs WHERE id = ?",
+                String.class, live));
+        assertEquals("RUNNING", jdbcTemplate.queryForObject("SELECT status FROM finalization_jobs WHERE id = ?",
+                String.class, live));
+        // Requeued (and possibly picked up by this instance already)
+        assertNotEquals("other-instance", jdbcTemplate.queryForObject("SELECT owner_id FROM finalization_jobs " +
+                "WHERE id = ?", String.class, stale));
+    }
+
+    private Long insertRunningJob(String heartbeatAt) {
+        return jdbcTemplate.queryForObject("INSERT INTO finalization_jobs (company_id, order_id, status, created_at, " +
+                "started_at, owner_id, heartbeat_at) VALUES (?, -1, 'RUNNING', now(), now(), 'other-instance', " +
+                heartbeatAt + ") RETURNING id", Long.class, companyId);
+    }
+
+    private FinalizationJob awaitCompletion(Long jobId) throws InterruptedException {
+        for (int attempt = 0; attempt < 300; attempt++) {
+            FinalizationJob job = finalizationQueueService.getJob(companyId, jobId);
+            if (job.getStatus() == JobStatus.SUCCEEDED || job.getStatus() == JobStatus.FAILED) {
+                return job;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Finalization job " + jobId + " did not complete");
+    }
+}
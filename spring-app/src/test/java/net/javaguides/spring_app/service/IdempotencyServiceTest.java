@@ -0,0 +1,143 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Idempotency-Key handling: concurrent duplicates run once, replays return the stored response and its Location,
+ * a key reused for another request is rejected, failed requests can be retried with the same key and keys
+ * that never got a response are kept.
+ */
+@SpringBootTest
+class IdempotencyServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    private Long companyId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Idempotency Co");
+    }
+
+    @Test
+    void concurrentDuplicatesRunOnceAndReplayTheFirstResponse() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<ResponseEntity<?>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(executor.submit(() -> idempotencyService.execute(companyId, "create-1", "POST /api/orders",
+                    Map.of("clientName", "Client"), transaction -> transaction.execute(() -> {
+                        sleep(200);
+                        return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("id", runs.incrementAndGet()));
+                    }))));
+        }
+        int replayed = 0;
+        for (Future<ResponseEntity<?>> response : responses) {
+            assertEquals(HttpStatus.CREATED, response.get().getStatusCode());
+            if (response.get().getHeaders().containsKey("Idempotent-Replayed")) {
+                assertEquals("{\"id\":1}", response.get().getBody());
+                replayed++;
+            } else {
+                // The first request gets its own response
+                assertEquals(Map.of("id", 1), response.get().getBody());
+            }
+        }
+        executor.shutdown();
+        assertEquals(1, runs.get());
+        assertEquals(7, replayed);
+
+        // Same key, different body
+        ResponseEntity<?> reused = idempotencyService.execute(companyId, "create-1", "POST /api/orders",
+                Map.of("clientName", "Other"),
+                transaction -> transaction.execute(() -> ResponseEntity.ok(Map.of("id", runs.incrementAndGet()))));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatusCode());
+        assertEquals(1, runs.get());
+
+        assertEquals(201, jdbcTemplate.queryForObject("SELECT response_status FROM idempotency_keys " +
+                "WHERE company_id = ? AND idempotency_key = 'create-1'", Integer.class, companyId));
+    }
+
+    @Test
+    void failedRequestIsNotStored() {
+        ResponseEntity<?> failed = idempotencyService.execute(companyId, "finalize-1", "POST /api/orders/1/finalize",
+                null, transaction -> ResponseEntity.badRequest().body(Map.of("error", "insufficient stock")));
+        assertEquals(HttpStatus.BAD_REQUEST, failed.getStatusCode());
+
+        ResponseEntity<?> retried = idempotencyService.execute(companyId, "finalize-1", "POST /api/orders/1/finalize",
+                null, transaction -> transaction.execute(() -> ResponseEntity.ok(Map.of("status", "FINALIZED"))));
+        assertEquals(HttpStatus.OK, retried.getStatusCode());
+        assertNull(retried.getHeaders().getFirst("Idempotent-Replayed"));
+    }
+
+    @Test
+    void failedTransactionRollsBackWithTheKeyReleased() {
+        Long categoryId = createCategory(companyId).getId();
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute(companyId, "create-2",
+                "POST /api/orders", null, transaction -> transaction.execute(() -> {
+                    createProduct(categoryId, "Rolled Back", 1.0, 1);
+                    throw new IllegalStateException("failed after writing");
+                })));
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products WHERE category_id = ?",
+                Integer.class, categoryId));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys WHERE company_id = ?",
+                Integer.class, companyId));
+    }
+
+    @Test
+    void locationHeaderIsReplayed() {
+        ResponseEntity<?> first = idempotencyService.execute(companyId, "finalize-2",
+                "POST /api/orders/2/finalize?async=true", null, transaction -> transaction.execute(() ->
+                        ResponseEntity.status(HttpStatus.ACCEPTED).header(HttpHeaders.LOCATION, "/api/orders/finalize-jobs/7")
+                                .body(Map.of("id", 7))));
+        assertEquals("/api/orders/finalize-jobs/7", first.getHeaders().getFirst(HttpHeaders.LOCATION));
+
+        assertEquals("/api/orders/finalize-jobs/7", jdbcTemplate.queryForObject("SELECT response_location " +
+                "FROM idempotency_keys WHERE company_id = ? AND idempotency_key = 'finalize-2'", String.class, companyId));
+        ResponseEntity<?> replayed = idempotencyService.execute(companyId, "finalize-2",
+                "POST /api/orders/2/finalize?async=true", null, transaction -> ResponseEntity.internalServerError().build());
+        assertEquals(HttpStatus.ACCEPTED, replayed.getStatusCode());
+        assertEquals("/api/orders/finalize-jobs/7", replayed.getHeaders().getFirst(HttpHeaders.LOCATION));
+    }
+
+    @Test
+    void unresolvedKeysAreKeptAndAnsweredWithConflict() {
+        jdbcTemplate.update("INSERT INTO idempotency_keys (company_id, idempotency_key, request_fingerprint, " +
+                "created_at, expires_at) VALUES (?, 'create-3', 'POST /api/orders', " +
+                "now() - INTERVAL '2 days', now() - INTERVAL '1 day')", companyId);
+
+        idempotencyService.deleteExpiredKeys();
+
+        ResponseEntity<?> retried = idempotencyService.execute(companyId, "create-3", "POST /api/orders", null,
+                transaction -> transaction.execute(() -> ResponseEntity.status(HttpStatus.CREATED).build()));
+        assertEquals(HttpStatus.CONFLICT, retried.getStatusCode());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Image references from clients: base64 payloads are stored and replaced by their reference,
+ * and existing references are only accepted if they point to a stored image.
+ */
+@SpringBootTest
+class ImageServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private ImageService imageService;
+
+    @Test
+    void storedReferencesAreAcceptedOthersRejected() throws Exception {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, UUID.randomUUID().hashCode() & 0xFFFFFF);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        String reference = imageService.toReference(
+                "data:image/png;base64," + Base64.getEncoder().encodeToString(png.toByteArray()));
+        String hash = trackImage(ImageService.hashOf(reference));
+
+        assertEquals(reference, imageService.toReference(reference));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.toReference(ImageService.REFERENCE_PREFIX + "0".repeat(64)));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.toReference(ImageService.REFERENCE_PREFIX + hash.toUpperCase()));
+        assertThrows(IllegalArgumentException.class,
+                () -> imageService.toReference(ImageService.REFERENCE_PREFIX + "../users/1"));
+    }
+}
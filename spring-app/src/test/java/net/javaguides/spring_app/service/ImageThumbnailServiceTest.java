@@ -0,0 +1,79 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.javaguides.spring_app.entity.ImageThumbnail.ThumbnailSize;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Thumbnails: generated in the background for every size, and images ImageIO cannot decode
+ * are remembered so they are not queued again.
+ */
+@SpringBootTest
+class ImageThumbnailServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private ImageThumbnailService imageThumbnailService;
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void thumbnailsAreGeneratedForEverySize() throws Exception {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, UUID.randomUUID().hashCode() & 0xFFFFFF);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        String hash = store(png.toByteArray(), "image/png");
+
+        imageThumbnailService.generateAsync(ImageService.REFERENCE_PREFIX + hash);
+
+        awaitTrue(() -> imageThumbnailService.findThumbnailHash(hash, ThumbnailSize.SMALL).isPresent()
+                && imageThumbnailService.findThumbnailHash(hash, ThumbnailSize.MEDIUM).isPresent());
+        assertEquals(ImageService.REFERENCE_PREFIX + hash + "?size=small",
+                ImageService.thumbnailUrl(ImageService.REFERENCE_PREFIX + hash, ThumbnailSize.SMALL));
+    }
+
+    @Test
+    void undecodableImageIsNotQueuedAgain() throws Exception {
+        byte[] svg = ("<svg xmlns=\"http://www.w3.org/2000/svg\"><!-- " + UUID.randomUUID() + " --></svg>")
+                .getBytes(StandardCharsets.UTF_8);
+        String hash = store(svg, "image/svg+xml");
+
+        imageThumbnailService.generateAsync(ImageService.REFERENCE_PREFIX + hash);
+        awaitTrue(() -> imageThumbnailService.isUndecodable(hash));
+        double failed = meterRegistry.counter("images.thumbnails.failed").count();
+
+        imageThumbnailService.generateAsync(ImageService.REFERENCE_PREFIX + hash);
+        Thread.sleep(300);
+        assertEquals(failed, meterRegistry.counter("images.thumbnails.failed").count());
+        assertTrue(imageThumbnailService.findThumbnailHash(hash, ThumbnailSize.SMALL).isEmpty());
+    }
+
+    private String store(byte[] bytes, String contentType) {
+        return trackImage(imageService.storeBytes(bytes, contentType));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(50);
+        }
+    }
+}
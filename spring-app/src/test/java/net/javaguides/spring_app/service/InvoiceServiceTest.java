@@ -0,0 +1,69 @@
+package net.javaguides.spring_app.service;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderItem;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Invoice rendering: an order with thousands of lines spans many pages, each with the table header and a page footer.
+ */
+@SpringBootTest
+class InvoiceServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private InvoiceService invoiceService;
+
+    private Long companyId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Invoice Co");
+    }
+
+    @Test
+    void largeOrderIsRenderedOverManyPages() throws Exception {
+        Order order = new Order(companyId);
+        order.setClientName("Client");
+        order.setClientAddress("Street 1");
+        order.setClientCity("City");
+        order.setClientPostalCode("12345");
+        order.setClientPhone("0700000000");
+        order.setStatus(Order.OrderStatus.FINALIZED);
+        order.setFinalizedAt(LocalDateTime.of(2025, 1, 31, 12, 0));
+        order.setInvoiceNumber("INV-00042");
+        for (int i = 1; i <= 3000; i++) {
+            OrderItem item = new OrderItem((long) i, "Product " + i, null, 1, 2.5);
+            item.setSubtotal(2.5);
+            order.getItems().add(item);
+        }
+        order.setTotalItems(3000);
+        order.setTotalAmount(7500.0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        invoiceService.writeInvoicePdf(order, out);
+
+        try (PdfDocument pdf = new PdfDocument(new PdfReader(new ByteArrayInputStream(out.toByteArray())))) {
+            int pages = pdf.getNumberOfPages();
+            assertTrue(pages > 50);
+            String middle = PdfTextExtractor.getTextFromPage(pdf.getPage(pages / 2));
+            assertTrue(middle.contains("Unit Price"));
+            assertTrue(middle.contains("Invoice INV-00042 - Page " + pages / 2));
+            String last = PdfTextExtractor.getTextFromPage(pdf.getPage(pages));
+            assertTrue(last.contains("Product 3000"));
+            assertTrue(last.contains("$7500.00"));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.javaguides.spring_app.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Invoice store: a finalized order's PDF is rendered once, stored on disk and then served from memory.
+ */
+@SpringBootTest(properties = "invoices.store-dir=target/invoice-store-test")
+class InvoiceStoreServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private InvoiceStoreService invoiceStoreService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Long companyId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Invoice Co");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileSystemUtils.deleteRecursively(Path.of("target/invoice-store-test", String.valueOf(companyId)));
+    }
+
+    @Test
+    void invoiceIsRenderedOnceThenServedFromTheStore() {
+        Category category = createCategory(companyId);
+        Long productId = createProduct(category.getId(), "Mug", 2.5, 10).getId();
+        Long orderId = jdbcTemplate.queryForObject("INSERT INTO orders (company_id, client_name, client_address, " +
+                "client_city, client_postal_code, client_phone, status, created_at, finalized_at, invoice_number, " +
+                "total_items, total_amount) VALUES (?, 'Client', 'Street 1', 'City', '12345', '0700000000', " +
+                "'FINALIZED', now(), now(), 'INV-00001', 2, 5.0) RETURNING id", Long.class, companyId);
+        jdbcTemplate.update("INSERT INTO order_items (order_id, product_id, product_title, quantity, unit_price, subtotal) " +
+                "VALUES (?, ?, 'Mug', 2, 2.5, 5.0)", orderId, productId);
+        Order order = orderService.getOrderById(companyId, orderId);
+        double rendered = meterRegistry.counter("invoices.pdf.requests", "source", "rendered").count();
+        double memory = meterRegistry.counter("invoices.pdf.requests", "source", "memory").count();
+
+        InvoiceStoreService.InvoicePdf first = invoiceStoreService.getInvoicePdf(order);
+        InvoiceStoreService.InvoicePdf second = invoiceStoreService.getInvoicePdf(order);
+
+        assertSame(first, second);
+        assertEquals(rendered + 1, meterRegistry.counter("invoices.pdf.requests", "source", "rendered").count());
+        assertEquals(memory + 1, meterRegistry.counter("invoices.pdf.requests", "source", "memory").count());
+        assertTrue(first.getEtag().startsWith("\""));
+        Path stored = Path.of("target/invoice-store-test", String.valueOf(companyId), "INV-00001.pdf");
+        assertTrue(Files.exists(stored));
+        assertArrayEquals(first.getBytes(), readFile(stored));
+
+        order.setStatus(Order.OrderStatus.PENDING);
+        assertThrows(RuntimeException.class, () -> invoiceStoreService.getInvoicePdf(order));
+    }
+
+    private static byte[] readFile(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Invoice ZIP archives: every invoice of the range, in finalization order, across order pages
+ * (finalization times shared across a page boundary included).
+ */
+@SpringBootTest(properties = {"invoices.store-dir=target/invoice-zip-test", "invoices.zip.page-size=4",
+        "invoices.zip.max-pending=3"})
+class InvoiceZipServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private InvoiceZipService invoiceZipService;
+
+    private Long companyId;
+    private Long productId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Zip Co");
+        Category category = createCategory(companyId);
+        productId = createProduct(category.getId(), "Mug", 2.5, 10).getId();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileSystemUtils.deleteRecursively(Path.of("target/invoice-zip-test", String.valueOf(companyId)));
+    }
+
+    @Test
+    void zipContainsTheRangesInvoicesInFinalizationOrder() throws Exception {
+        // Six orders finalized at the same time straddle the first page boundary
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            String finalizedAt = i <= 6 ? "2024-03-05 12:00:00" : "2024-03-" + (10 + i) + " 09:00:00";
+            String invoiceNumber = String.format("INV-%05d", i);
+            insertOrder(finalizedAt, invoiceNumber);
+            expected.add("invoice-" + invoiceNumber + ".pdf");
+        }
+        insertOrder("2024-04-01 00:00:00", "INV-00011");
+        insertOrder("2024-02-29 23:59:59", "INV-00012");
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        assertEquals(10, invoiceZipService.writeInvoiceZip(companyId, LocalDate.of(2024, 3, 1),
+                LocalDate.of(2024, 3, 31), zip));
+
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.add(entry.getName());
+                assertTrue(new String(in.readAllBytes(), 0, 5).startsWith("%PDF-"));
+            }
+        }
+        assertEquals(expected, entries);
+    }
+
+    private void insertOrder(String finalizedAt, String invoiceNumber) {
+        Long orderId = jdbcTemplate.queryForObject("INSERT INTO orders (company_id, client_name, client_address, " +
+                        "client_city, client_postal_code, client_phone, status, created_at, finalized_at, " +
+                        "invoice_number, total_items, total_amount) VALUES (?, 'Client', 'Street 1', 'City', '12345', " +
+                        "'0700000000', 'FINALIZED', TIMESTAMP '2024-02-01', CAST(? AS timestamp), ?, 1, 2.5) RETURNING id",
+                Long.class, companyId, finalizedAt, invoiceNumber);
+        jdbcTemplate.update("INSERT INTO order_items (order_id, product_id, product_title, quantity, unit_price, subtotal) " +
+                "VALUES (?, ?, 'Mug', 1, 2.5, 2.5)", orderId, productId);
+    }
+}
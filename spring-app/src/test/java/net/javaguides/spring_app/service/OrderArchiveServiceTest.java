@@ -0,0 +1,149 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderArchive;
+import net.javaguides.spring_app.entity.ProductCountHistory;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Order archival: a month's finalized orders and product count history move to files and out of the
+ * database, and are still returned by ID, exported, counted in the statistics and listed in the product history
+ * (reading only the history files that contain the product).
+ */
+@SpringBootTest(properties = "orders.archive.dir=target/order-archive-test")
+class OrderArchiveServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderExportService orderExportService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private ProductCountHistoryService productCountHistoryService;
+
+    private Long companyId;
+    private Long productId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Archive Co");
+        Category category = createCategory(companyId);
+        productId = createProduct(category.getId(), "Mug", 2.5, 10).getId();
+    }
+
+    @Test
+    void archivedMonthIsServedFromItsFiles() {
+        Long archived = insertOrder("Old Client", "FINALIZED", "2023-05-10 10:00:00", "INV-00001", 7.5);
+        insertItem(archived, 2);
+        insertItem(archived, 1);
+        insertOrder("Old Client Two", "FINALIZED", "2023-05-31 23:00:00", "INV-00002", 0.0);
+        Long pending = insertOrder("Still Pending", "PENDING", null, null, 2.5);
+        Long recent = insertOrder("Recent Client", "FINALIZED", "2023-06-01 00:00:00", "INV-00003", 2.5);
+        insertHistory("2023-05-10 10:00:00", -3);
+        insertHistory("2023-06-02 10:00:00", 5);
+
+        OrderArchive archive = orderArchiveService.archiveMonth(companyId, LocalDate.of(2023, 5, 20));
+        assertEquals(LocalDate.of(2023, 5, 1), archive.getMonth());
+        assertEquals(2, archive.getOrderCount());
+        assertEquals(1, archive.getHistoryCount());
+        assertEquals(7.5, archive.getTotalAmount());
+        assertTrue(Files.exists(Path.of(archive.getOrdersFile())));
+        assertThrows(IllegalStateException.class,
+                () -> orderArchiveService.archiveMonth(companyId, LocalDate.of(2023, 5, 1)));
+
+        // Only the month's finalized orders left the database
+        assertEquals(List.of(pending, recent), jdbcTemplate.queryForList(
+                "SELECT id FROM orders WHERE company_id = ? ORDER BY id", Long.class, companyId));
+
+        Order order = orderService.getOrderById(companyId, archived);
+        assertEquals("Old Client", order.getClientName());
+        assertEquals(Order.OrderStatus.FINALIZED, order.getStatus());
+        assertEquals("INV-00001", order.getInvoiceNumber());
+        assertEquals(2, order.getItems().size());
+        assertEquals(5.0, order.getItems().get(0).getSubtotal());
+        assertThrows(RuntimeException.class, () -> orderService.getOrderById(companyId + 1, archived));
+
+        // Exports read the archived month before the live orders
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        assertEquals(3, orderExportService.exportFinalizedOrders(companyId, LocalDate.of(2023, 5, 1),
+                LocalDate.of(2023, 6, 30), OrderExportService.ExportFormat.CSV, csv));
+        String[] rows = csv.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(5, rows.length);
+        assertTrue(rows[1].startsWith(archived + ",INV-00001,"));
+        assertTrue(rows[3].contains(",INV-00002,"));
+        assertTrue(rows[4].startsWith(recent + ",INV-00003,"));
+
+        orderStatsService.repairAll();
+        assertEquals(3, orderStatsService.getStats(companyId).getFinalizedCount());
+        assertEquals(1, orderStatsService.getStats(companyId).getPendingCount());
+        assertEquals(10.0, orderStatsService.getStats(companyId).getFinalizedRevenue());
+
+        List<ProductCountHistory> history = productCountHistoryService.getProductHistory(companyId, productId);
+        assertEquals(2, history.size());
+        assertEquals(5, history.get(0).getChangeAmount());
+        assertEquals(-3, history.get(1).getChangeAmount());
+    }
+
+    @Test
+    void productHistoryOnlyReadsTheFilesContainingTheProduct() throws Exception {
+        Long otherProductId = createProduct(createCategory(companyId).getId(), "Plate", 1.0, 5).getId();
+        insertHistory("2023-05-10 10:00:00", -3);
+
+        OrderArchive archive = orderArchiveService.archiveMonth(companyId, LocalDate.of(2023, 5, 1));
+        assertArrayEquals(new Long[] {productId}, archive.getHistoryProductIds());
+
+        // Months archived before the index existed are indexed at startup
+        jdbcTemplate.update("UPDATE order_archives SET history_product_ids = NULL WHERE id = ?", archive.getId());
+        assertEquals(1, orderArchiveService.indexArchivedHistory());
+        assertEquals(1, productCountHistoryService.getProductHistory(companyId, productId).size());
+
+        // The other product's history does not open the file
+        Files.delete(Path.of(archive.getHistoryFile()));
+        assertTrue(productCountHistoryService.getProductHistory(companyId, otherProductId).stream()
+                .allMatch(history -> history.getProductId().equals(otherProductId)));
+    }
+
+    private Long insertOrder(String clientName, String status, String finalizedAt, String invoiceNumber,
+                             double totalAmount) {
+        return jdbcTemplate.queryForObject("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                        "client_postal_code, client_phone, status, created_at, finalized_at, invoice_number, " +
+                        "total_items, total_amount) VALUES (?, ?, 'Street 1', 'City', '12345', '0700000000', ?, " +
+                        "TIMESTAMP '2023-05-01', CAST(? AS timestamp), ?, 3, ?) RETURNING id",
+                Long.class, companyId, clientName, status, finalizedAt, invoiceNumber, totalAmount);
+    }
+
+    private void insertItem(Long orderId, int quantity) {
+        jdbcTemplate.update("INSERT INTO order_items (order_id, product_id, product_title, quantity, unit_price, subtotal) " +
+                "VALUES (?, ?, 'Mug', ?, 2.5, ?)", orderId, productId, quantity, 2.5 * quantity);
+    }
+
+    private void insertHistory(String changedAt, int changeAmount) {
+        jdbcTemplate.update("INSERT INTO product_count_history (product_id, old_count, new_count, change_amount, " +
+                        "change_type, changed_at) VALUES (?, 10, ?, ?, ?, CAST(? AS timestamp))",
+                productId, 10 + changeAmount, changeAmount, changeAmount < 0 ? "SALE" : "RESTOCK", changedAt);
+    }
+}
@@ -0,0 +1,139 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.FinalizeBatchResponse;
+import net.javaguides.spring_app.dto.FinalizeBatchResult;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch finalization: per-order rejection, contiguous invoice numbers and stock/history/stats consistency,
+ * and its run time compared with finalizing the same number of orders one by one (printed, not asserted).
+ * The comparison is opt-in (creates hundreds of orders in the test database): mvn test -Dbenchmarks=true
+ */
+@SpringBootTest
+class OrderBatchFinalizeTest extends DatabaseTestSupport {
+
+    private static final int ORDERS = 60;
+    private static final int BENCHMARK_ORDERS = 300;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    private Long companyId;
+    private List<Product> products;
+    private Product scarce;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Batch Co");
+        Category category = createCategory(companyId);
+
+        products = createProducts(category.getId(), 20, 1.0, 2 * BENCHMARK_ORDERS * 3);
+        scarce = createProduct(category.getId(), "Scarce", 1.0, 2 * BENCHMARK_ORDERS);
+    }
+
+    @Test
+    void batchFinalizesSatisfiableOrdersAndRejectsTheRest() {
+        List<Long> batch = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            batch.add(orderService.createOrder(companyId, order(i)).getId());
+        }
+
+        // Stock drops below what the batch needs after the orders were placed: the scarce product
+        // (on every 20th order) can serve only 2 of them
+        jdbcTemplate.update("DELETE FROM stock_reservations WHERE company_id = ?", companyId);
+        jdbcTemplate.update("UPDATE products SET count = 2 WHERE id = ?", scarce.getId());
+        Order finalizedBefore = orderService.finalizeOrder(companyId, batch.get(1));
+        List<Long> request = new ArrayList<>(batch);
+        request.add(-1L);
+
+        FinalizeBatchResponse response = orderService.finalizeOrders(companyId, request);
+
+        // Orders 0 and 20 get the two scarce units, the later scarce orders are rejected; order 1 was finalized before
+        int scarceOrders = ORDERS / 20;
+        int batchFinalized = ORDERS - 1 - (scarceOrders - 2);
+        assertEquals(ORDERS + 1, response.getResults().size());
+        assertEquals(batchFinalized, response.getFinalized());
+        assertEquals("FINALIZED", response.getResults().get(0).getStatus());
+        assertTrue(response.getResults().get(1).getError().contains("already finalized"));
+        assertEquals("FINALIZED", response.getResults().get(20).getStatus());
+        assertTrue(response.getResults().get(40).getError().contains("Required: 1, Available: 0"),
+                response.getResults().get(40).getError());
+        assertEquals("FINALIZED", response.getResults().get(41).getStatus());
+        assertTrue(response.getResults().get(ORDERS).getError().contains("not found"));
+
+        // Invoice numbers follow the single finalization and are contiguous in request order
+        long expectedInvoice = Long.parseLong(finalizedBefore.getInvoiceNumber().substring(4)) + 1;
+        for (FinalizeBatchResult result : response.getResults()) {
+            if ("FINALIZED".equals(result.getStatus())) {
+                assertEquals(InvoiceNumberService.format(expectedInvoice++), result.getInvoiceNumber());
+            }
+        }
+
+        int finalized = batchFinalized + 1;
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT count FROM products WHERE id = ?", Integer.class, scarce.getId()));
+        assertEquals(finalized, orderStatsService.getStats(companyId).getFinalizedCount());
+        assertEquals(finalized * 3 + 2, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM product_count_history h JOIN products p ON p.id = h.product_id " +
+                        "JOIN categories c ON c.id = p.category_id WHERE c.company_id = ? AND h.change_type = 'SALE'",
+                Integer.class, companyId));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void comparesBatchWithOneByOneFinalization() {
+        List<Long> batch = new ArrayList<>();
+        List<Long> single = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_ORDERS; i++) {
+            batch.add(orderService.createOrder(companyId, order(i)).getId());
+            single.add(orderService.createOrder(companyId, order(i)).getId());
+        }
+
+        long batchStart = System.nanoTime();
+        FinalizeBatchResponse response = orderService.finalizeOrders(companyId, batch);
+        long batchMillis = (System.nanoTime() - batchStart) / 1_000_000;
+
+        long singleStart = System.nanoTime();
+        for (Long orderId : single) {
+            orderService.finalizeOrder(companyId, orderId);
+        }
+        long singleMillis = (System.nanoTime() - singleStart) / 1_000_000;
+        System.out.printf("Finalizing %d orders (3-4 lines each): one by one %d ms, batch %d ms%n",
+                BENCHMARK_ORDERS, singleMillis, batchMillis);
+
+        assertEquals(BENCHMARK_ORDERS, response.getFinalized());
+        assertEquals(2 * BENCHMARK_ORDERS, orderStatsService.getStats(companyId).getFinalizedCount());
+    }
+
+    // Lines on products n, n+1, n+2 (mod 20), plus the scarce product on every 20th order, one unit each
+    private CreateOrderDTO order(int n) {
+        List<OrderItemDTO> items = new ArrayList<>();
+        for (int line = 0; line < 3; line++) {
+            items.add(new OrderItemDTO(products.get((n + line) % products.size()).getId(), 1));
+        }
+        if (n % 20 == 0) {
+            items.add(new OrderItemDTO(scarce.getId(), 1));
+        }
+        return new CreateOrderDTO("Client " + n, null, "Street 1", "City", "12345", "0700000000",
+                null, null, items);
+    }
+}
@@ -0,0 +1,149 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Order export: finalized orders in the date range only, one CSV row per line item (CSV-escaped),
+ * one NDJSON line per order, and a large export (printed throughput, not asserted).
+ * The large export is opt-in (bulk-loads 100k orders into the test database): mvn test -Dbenchmarks=true
+ */
+@SpringBootTest
+class OrderExportServiceTest extends DatabaseTestSupport {
+
+    private static final int LARGE_ORDERS = 100_000;
+
+    @Autowired
+    private OrderExportService orderExportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Long companyId;
+    private Long productId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Export Co");
+        Category category = createCategory(companyId);
+        productId = createProduct(category.getId(), "Mug", 2.5, 10).getId();
+    }
+
+    @Test
+    void exportsFinalizedOrdersOfTheRangeWithTheirItems() throws Exception {
+        Long withItems = insertOrder("Popescu, \"Ion\"", "FINALIZED", "2025-03-10 12:00:00", "INV-00001");
+        insertItem(withItems, 2);
+        insertItem(withItems, 1);
+        insertOrder("=HYPERLINK(\"http://x\")", "FINALIZED", "2025-03-31 23:59:00", "INV-00002");
+        insertOrder("Out Of Range", "FINALIZED", "2025-04-01 00:00:00", "INV-00003");
+        insertOrder("Pending", "PENDING", null, null);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        assertEquals(2, orderExportService.exportFinalizedOrders(companyId, LocalDate.of(2025, 3, 1),
+                LocalDate.of(2025, 3, 31), OrderExportService.ExportFormat.CSV, csv));
+        String[] rows = csv.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals(4, rows.length);
+        assertTrue(rows[0].startsWith("order_id,invoice_number,"));
+        assertTrue(rows[1].startsWith(withItems + ",INV-00001,2025-03-10T12:00,"));
+        assertTrue(rows[1].contains(",\"Popescu, \"\"Ion\"\"\","));
+        assertTrue(rows[1].endsWith("," + productId + ",Mug,2,2.5,5.0"));
+        assertTrue(rows[2].endsWith("," + productId + ",Mug,1,2.5,2.5"));
+        assertTrue(rows[3].contains(",INV-00002,") && rows[3].endsWith(",,,,,"));
+        // Formulas are written as text
+        assertTrue(rows[3].contains(",\"'=HYPERLINK(\"\"http://x\"\")\","), rows[3]);
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        orderExportService.exportFinalizedOrders(companyId, LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31),
+                OrderExportService.ExportFormat.NDJSON, ndjson);
+        String[] lines = ndjson.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertEquals("Popescu, \"Ion\"", first.get("clientName").asText());
+        assertEquals(2, first.get("items").size());
+        assertEquals(5.0, first.get("items").get(0).get("subtotal").asDouble());
+        assertEquals(0, objectMapper.readTree(lines[1]).get("items").size());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void largeExportStreamsEveryLine() {
+        jdbcTemplate.update("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                "client_postal_code, client_phone, status, created_at, finalized_at, invoice_number, " +
+                "total_items, total_amount) " +
+                "SELECT ?, 'Client ' || i, 'Street 1', 'City', '12345', '0700000000', 'FINALIZED', " +
+                "TIMESTAMP '2025-01-01' + i * INTERVAL '1 minute', TIMESTAMP '2025-01-01' + i * INTERVAL '1 minute', " +
+                "'INV-' || lpad(i::text, 6, '0'), 3, 7.5 FROM generate_series(1, ?) AS i", companyId, LARGE_ORDERS);
+        // Fresh statistics, otherwise the foreign key checks below may scan the whole orders table per item
+        jdbcTemplate.execute("ANALYZE orders");
+        jdbcTemplate.update("INSERT INTO order_items (order_id, product_id, product_title, quantity, unit_price, subtotal) " +
+                "SELECT o.id, ?, 'Mug', 1, 2.5, 2.5 FROM orders o, generate_series(1, 3) WHERE o.company_id = ?",
+                productId, companyId);
+        // Likewise for the export query, which would otherwise plan against an empty order_items table
+        jdbcTemplate.execute("ANALYZE order_items");
+
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        long exported = orderExportService.exportFinalizedOrders(companyId, LocalDate.of(2025, 1, 1),
+                LocalDate.of(2025, 12, 31), OrderExportService.ExportFormat.CSV, out);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(LARGE_ORDERS, exported);
+        assertEquals(1 + LARGE_ORDERS * 3L, out.lines);
+        System.out.printf("Order export: %d orders (%d lines, %.1f MB) in %.2f s%n",
+                exported, out.lines, out.bytes / 1e6, seconds);
+    }
+
+    private Long insertOrder(String clientName, String status, String finalizedAt, String invoiceNumber) {
+        return jdbcTemplate.queryForObject("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                        "client_postal_code, client_phone, status, created_at, finalized_at, invoice_number, " +
+                        "total_items, total_amount) VALUES (?, ?, 'Street 1', 'City', '12345', '0700000000', ?, " +
+                        "TIMESTAMP '2025-03-01', CAST(? AS timestamp), ?, 0, 0) RETURNING id",
+                Long.class, companyId, clientName, status, finalizedAt, invoiceNumber);
+    }
+
+    private void insertItem(Long orderId, int quantity) {
+        jdbcTemplate.update("INSERT INTO order_items (order_id, product_id, product_title, quantity, unit_price, subtotal) " +
+                "VALUES (?, ?, 'Mug', ?, 2.5, ?)", orderId, productId, quantity, 2.5 * quantity);
+    }
+
+    /**
+     * Discards the export, counting bytes and lines
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long bytes;
+        long lines;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
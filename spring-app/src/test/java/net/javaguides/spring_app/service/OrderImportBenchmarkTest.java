@@ -0,0 +1,125 @@
+package net.javaguides.spring_app.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javaguides.spring_app.dto.BulkImportResponse;
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bulk import: per-order results, and throughput (orders/sec) compared with creating orders one by one
+ * (printed, not asserted).
+ * Opt-in (bulk-loads thousands of orders into the test database): mvn test -Dbenchmarks=true
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class OrderImportBenchmarkTest extends DatabaseTestSupport {
+
+    private static final int BULK_ORDERS = 5000;
+    private static final int SINGLE_ORDERS = 200;
+    private static final int LINES_PER_ORDER = 3;
+
+    @Autowired
+    private OrderImportService orderImportService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Long companyId;
+    private List<Product> products;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Import Co");
+        Category category = createCategory(companyId);
+
+        products = createProducts(category.getId(), 50, 2.0, 1_000_000);
+    }
+
+    @Test
+    void bulkImportReportsEachOrderAndOutperformsSingleInserts() throws Exception {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < BULK_ORDERS; i++) {
+            ndjson.append(objectMapper.writeValueAsString(order(i))).append('\n');
+        }
+        // Two bad orders: unknown product and missing client name
+        ndjson.append(objectMapper.writeValueAsString(new CreateOrderDTO("Client", null, "Street 1", "City",
+                "12345", "0700000000", null, null, List.of(new OrderItemDTO(-1L, 1))))).append('\n');
+        ndjson.append(objectMapper.writeValueAsString(new CreateOrderDTO("", null, "Street 1", "City",
+                "12345", "0700000000", null, null, List.of(new OrderItemDTO(products.get(0).getId(), 1))))).append('\n');
+
+        long bulkStart = System.nanoTime();
+        BulkImportResponse response = orderImportService.importOrders(companyId,
+                new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+        double bulkSeconds = (System.nanoTime() - bulkStart) / 1e9;
+
+        long singleStart = System.nanoTime();
+        for (int i = 0; i < SINGLE_ORDERS; i++) {
+            orderService.createOrder(companyId, order(i));
+        }
+        double singleSeconds = (System.nanoTime() - singleStart) / 1e9;
+        System.out.printf("Order import (%d lines per order): bulk %.0f orders/sec, one by one %.0f orders/sec%n",
+                LINES_PER_ORDER, BULK_ORDERS / bulkSeconds, SINGLE_ORDERS / singleSeconds);
+
+        assertNull(response.getError());
+        assertEquals(BULK_ORDERS, response.getCreated());
+        assertEquals(2, response.getFailed());
+        assertEquals(BULK_ORDERS + 2, response.getResults().size());
+        assertEquals(BULK_ORDERS, response.getResults().get(BULK_ORDERS).getIndex());
+        assertTrue(response.getResults().get(BULK_ORDERS).getError().contains("Product not found"));
+        assertTrue(response.getResults().get(BULK_ORDERS + 1).getError().contains("Client name is required"));
+
+        assertEquals(BULK_ORDERS + SINGLE_ORDERS, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM orders WHERE company_id = ?", Integer.class, companyId));
+        assertEquals((BULK_ORDERS + SINGLE_ORDERS) * LINES_PER_ORDER, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_items WHERE order_id IN (SELECT id FROM orders WHERE company_id = ?)",
+                Integer.class, companyId));
+        assertEquals(BULK_ORDERS + SINGLE_ORDERS, orderStatsService.getStats(companyId).getPendingCount());
+    }
+
+    @Test
+    void jsonArrayWithMalformedTailImportsOrdersBeforeTheError() throws Exception {
+        String json = "[" + objectMapper.writeValueAsString(order(0)) + ","
+                + objectMapper.writeValueAsString(order(1)) + ", {\"clientName\": ";
+
+        BulkImportResponse response = orderImportService.importOrders(companyId,
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertNotNull(response.getError());
+        assertEquals(2, response.getCreated());
+        assertEquals(2, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM orders WHERE company_id = ?", Integer.class, companyId));
+    }
+
+    private CreateOrderDTO order(int n) {
+        List<OrderItemDTO> items = new ArrayList<>();
+        for (int line = 0; line < LINES_PER_ORDER; line++) {
+            items.add(new OrderItemDTO(products.get((n + line) % products.size()).getId(), 1 + line));
+        }
+        return new CreateOrderDTO("Client " + n, null, "Street 1", "City", "12345", "0700000000",
+                null, null, items);
+    }
+}
@@ -0,0 +1,149 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemChanges;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderItem;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.repository.OrderItemRepository;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * updateOrder writes only the changed lines of an order, and compares its run time on a 1k-line order with
+ * the previous delete-and-reinsert implementation (printed, not asserted).
+ * The comparison is opt-in (creates thousands of order lines in the test database): mvn test -Dbenchmarks=true
+ */
+@SpringBootTest
+class OrderItemDiffTest extends DatabaseTestSupport {
+
+    private static final int LINES = 50;
+    private static final int CHANGED = 5;
+    private static final int BENCHMARK_LINES = 1000;
+    private static final int BENCHMARK_CHANGED = 10;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+    private Long categoryId;
+    private List<Product> products;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Diff Co");
+        Category category = createCategory(companyId);
+        categoryId = category.getId();
+    }
+
+    @Test
+    void updateWritesOnlyChangedLines() {
+        products = createProducts(categoryId, LINES + CHANGED, 1.0, 1000);
+        Order order = orderService.createOrder(companyId, originalOrder(LINES));
+        List<Long> idsBefore = lineIds(order.getId());
+
+        Order updated = orderService.updateOrder(companyId, order.getId(), editedOrder(LINES, CHANGED));
+
+        OrderItemChanges changes = updated.getItemChanges();
+        assertEquals(CHANGED, changes.getAddedProductIds().size());
+        assertEquals(CHANGED, changes.getUpdatedProductIds().size());
+        assertEquals(CHANGED, changes.getRemovedProductIds().size());
+        assertEquals(LINES - 2 * CHANGED, changes.getUnchanged());
+
+        // Kept lines keep their rows: only the removed lines' IDs are gone
+        List<Long> idsAfter = lineIds(order.getId());
+        assertEquals(LINES, idsAfter.size());
+        assertEquals(idsBefore.subList(0, LINES - CHANGED), idsAfter.subList(0, LINES - CHANGED));
+
+        Order reloaded = orderService.getOrderById(companyId, order.getId());
+        assertEquals(LINES + CHANGED, reloaded.getTotalItems());
+        assertEquals(LINES + CHANGED, updated.getTotalItems());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void comparesDiffWithDeleteAndReinsert() {
+        products = createProducts(categoryId, BENCHMARK_LINES + BENCHMARK_CHANGED, 1.0, 1000);
+        Order diffOrder = orderService.createOrder(companyId, originalOrder(BENCHMARK_LINES));
+        Order legacyOrder = orderService.createOrder(companyId, originalOrder(BENCHMARK_LINES));
+
+        long diffStart = System.nanoTime();
+        orderService.updateOrder(companyId, diffOrder.getId(), editedOrder(BENCHMARK_LINES, BENCHMARK_CHANGED));
+        long diffMillis = (System.nanoTime() - diffStart) / 1_000_000;
+
+        long legacyStart = System.nanoTime();
+        deleteAndReinsert(legacyOrder.getId(), editedOrder(BENCHMARK_LINES, BENCHMARK_CHANGED));
+        long legacyMillis = (System.nanoTime() - legacyStart) / 1_000_000;
+        System.out.printf("updateOrder on a %d-line order (%d changed, %d removed, %d added): " +
+                        "delete+reinsert %d ms, diff %d ms%n", BENCHMARK_LINES, BENCHMARK_CHANGED, BENCHMARK_CHANGED,
+                BENCHMARK_CHANGED, legacyMillis, diffMillis);
+
+        assertEquals(BENCHMARK_LINES, lineIds(diffOrder.getId()).size());
+        assertEquals(BENCHMARK_LINES, lineIds(legacyOrder.getId()).size());
+    }
+
+    /**
+     * The previous updateOrder line handling: delete every line and insert them all again
+     */
+    private void deleteAndReinsert(Long orderId, CreateOrderDTO dto) {
+        transactionTemplate.executeWithoutResult(status -> {
+            orderItemRepository.deleteByOrderId(orderId);
+            List<OrderItem> items = new ArrayList<>();
+            for (OrderItemDTO itemDto : dto.getItems()) {
+                Product product = products.stream()
+                        .filter(p -> p.getId().equals(itemDto.getProductId())).findFirst().orElseThrow();
+                OrderItem item = OrderItem.fromProduct(product, itemDto.getQuantity());
+                item.setOrderId(orderId);
+                items.add(item);
+            }
+            orderItemRepository.saveAll(items);
+        });
+    }
+
+    private List<Long> lineIds(Long orderId) {
+        return jdbcTemplate.queryForList("SELECT id FROM order_items WHERE order_id = ? ORDER BY id", Long.class, orderId);
+    }
+
+    private CreateOrderDTO originalOrder(int lines) {
+        List<OrderItemDTO> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            items.add(new OrderItemDTO(products.get(i).getId(), 1));
+        }
+        return orderOf(items);
+    }
+
+    // First `changed` lines get quantity 2, last `changed` lines are replaced by as many new products
+    private CreateOrderDTO editedOrder(int lines, int changed) {
+        List<OrderItemDTO> items = new ArrayList<>();
+        for (int i = 0; i < lines - changed; i++) {
+            items.add(new OrderItemDTO(products.get(i).getId(), i < changed ? 2 : 1));
+        }
+        for (int i = lines; i < lines + changed; i++) {
+            items.add(new OrderItemDTO(products.get(i).getId(), 1));
+        }
+        return orderOf(items);
+    }
+
+    private static CreateOrderDTO orderOf(List<OrderItemDTO> items) {
+        return new CreateOrderDTO("Client", null, "Street 1", "City", "12345", "0700000000",
+                null, null, items);
+    }
+}
@@ -0,0 +1,144 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CursorPage;
+import net.javaguides.spring_app.dto.OrderSummary;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Order search: matching, tenant isolation and pagination, and latency against a generated dataset of
+ * search.benchmark.orders orders (default 1,000,000) in one company: the median of every query must stay
+ * under search.benchmark.budget-ms (default 20; p95 is printed).
+ * Opt-in (takes minutes and generates the dataset in the test database): mvn test -Dbenchmarks=true
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class OrderSearchBenchmarkTest extends DatabaseTestSupport {
+
+    private static final int ORDERS = Integer.getInteger("search.benchmark.orders", 1_000_000);
+    private static final int BUDGET_MS = Integer.getInteger("search.benchmark.budget-ms", 20);
+    private static final int RUNS = 50;
+
+    @Autowired
+    private OrderListingService orderListingService;
+
+    private Long companyId;
+    private Long otherCompanyId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Search Co");
+        otherCompanyId = createCompany("Other Co");
+
+        // Names from small pools (common terms), unique emails, phones and invoice numbers (rare terms);
+        // every other order is finalized
+        long start = System.nanoTime();
+        jdbcTemplate.update("INSERT INTO orders (company_id, client_name, client_company, client_address, client_city, " +
+                "client_postal_code, client_phone, client_email, status, created_at, finalized_at, invoice_number, " +
+                "total_items, total_amount) " +
+                "SELECT ?, (ARRAY['Ion','Maria','Andrei','Elena','Mihai','Ana','George','Ioana'])[1 + i % 8] || ' ' || " +
+                "(ARRAY['Popescu','Ionescu','Dumitru','Stan','Stoica','Gheorghe','Rusu','Munteanu','Matei','Constantin'])[1 + i % 10], " +
+                "CASE WHEN i % 3 = 0 THEN initcap(left(md5((i % 5000)::text), 10)) || ' SRL' END, 'Street 1', 'City', '12345', " +
+                "'07' || lpad(((i::bigint * 7919) % 100000000)::text, 8, '0'), 'client' || i || '@mail' || (i % 100) || '.com', " +
+                "CASE WHEN i % 2 = 0 THEN 'FINALIZED' ELSE 'PENDING' END, " +
+                "TIMESTAMP '2025-01-01' + i * INTERVAL '10 seconds', " +
+                "CASE WHEN i % 2 = 0 THEN TIMESTAMP '2025-01-01' + i * INTERVAL '10 seconds' END, " +
+                "CASE WHEN i % 2 = 0 THEN 'INV-' || lpad(i::text, greatest(5, length(i::text)), '0') END, 1, 10.0 " +
+                "FROM generate_series(1, ?) AS i", companyId, ORDERS);
+        jdbcTemplate.update("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                        "client_postal_code, client_phone, status, created_at) " +
+                        "SELECT ?, 'Ion Popescu Needle', 'Street 1', 'City', '12345', '0700000000', 'PENDING', now() " +
+                        "FROM generate_series(1, 100)", otherCompanyId);
+        jdbcTemplate.update("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                "client_postal_code, client_phone, client_email, status, created_at) " +
+                "VALUES (?, 'Vasile Needleman', 'Street 1', 'City', '12345', '0799999999', 'needle@50%off.ro', " +
+                "'PENDING', TIMESTAMP '2024-06-01')", companyId);
+        // Vacuumed now so autovacuum does not compete with the measurements for the new rows
+        jdbcTemplate.execute("VACUUM ANALYZE orders");
+        System.out.printf("Order search dataset: %d orders generated in %.1f s%n",
+                ORDERS + 1, (System.nanoTime() - start) / 1e9);
+    }
+
+    @Test
+    void searchFindsMatchesOfOneCompanyAndStaysFastOnLargeDataset() {
+        // Rare substring, only in this company
+        CursorPage<OrderSummary> needle = orderListingService.searchOrders(companyId, "NEEDLE", null, null, null);
+        assertEquals(1, needle.getItems().size());
+        assertEquals("Vasile Needleman", needle.getItems().get(0).getClientName());
+        assertEquals(Order.OrderStatus.PENDING, needle.getItems().get(0).getStatus());
+        assertNotNull(needle.getItems().get(0).getCreatedAt());
+
+        // Email prefix; LIKE wildcards in the query are matched literally
+        assertEquals(1, orderListingService.searchOrders(companyId, "needle@50%", null, null, null).getItems().size());
+        assertEquals(0, orderListingService.searchOrders(companyId, "needle@5_%", null, null, null).getItems().size());
+
+        // Invoice number by prefix, or by number, with the status filter
+        CursorPage<OrderSummary> invoice = orderListingService.searchOrders(companyId, "inv-00042",
+                null, null, "finalized");
+        assertEquals(1, invoice.getItems().size());
+        assertEquals("INV-00042", invoice.getItems().get(0).getInvoiceNumber());
+        assertTrue(orderListingService.searchOrders(companyId, "00042", null, 200, null).getItems().stream()
+                .anyMatch(order -> "INV-00042".equals(order.getInvoiceNumber())));
+
+        // Company names match anywhere
+        String company = jdbcTemplate.queryForObject("SELECT initcap(left(md5('4242'), 10)) || ' SRL'", String.class);
+        CursorPage<OrderSummary> byCompany = orderListingService.searchOrders(companyId, company.substring(2, 8),
+                null, 200, null);
+        assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM orders WHERE company_id = ? AND client_company = ?",
+                Integer.class, companyId, company), byCompany.getItems().size());
+        byCompany.getItems().forEach(order -> assertEquals(company, order.getClientCompany()));
+
+        // Common term: pages follow each other without overlap, newest first
+        CursorPage<OrderSummary> first = orderListingService.searchOrders(companyId, "popescu", null, 50, null);
+        CursorPage<OrderSummary> second = orderListingService.searchOrders(companyId, "popescu",
+                first.getNextCursor(), 50, null);
+        assertTrue(first.isHasMore());
+        assertEquals(50, second.getItems().size());
+        Set<Long> seen = new HashSet<>();
+        first.getItems().forEach(order -> seen.add(order.getId()));
+        second.getItems().forEach(order -> assertTrue(seen.add(order.getId())));
+        assertTrue(first.getItems().get(49).getCreatedAt().isAfter(second.getItems().get(0).getCreatedAt()));
+
+        // Two characters match word prefixes only
+        orderListingService.searchOrders(companyId, "st", null, 200, null).getItems()
+                .forEach(order -> assertTrue(order.getClientName().contains(" St")));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> orderListingService.searchOrders(companyId, " a ", null, null, null));
+
+        Map<String, Double> medians = new LinkedHashMap<>();
+        for (String query : List.of("needle", "popescu", "maria stan", "ma", company.substring(2, 8).toLowerCase(),
+                "client777777@", "0712345", "inv-0999998", "999998", "zzzz")) {
+            long[] nanos = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                orderListingService.searchOrders(companyId, query, null, 50, null);
+                nanos[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            double median = nanos[RUNS / 2] / 1e6;
+            System.out.printf("Order search %-18s median %6.2f ms, p95 %6.2f ms (%d orders)%n", "\"" + query + "\"",
+                    median, nanos[RUNS * 95 / 100] / 1e6, ORDERS + 1);
+            medians.put(query, median);
+        }
+        medians.forEach((query, median) -> assertTrue(median < BUDGET_MS,
+                "Search for \"" + query + "\" took " + median + " ms (median), budget " + BUDGET_MS + " ms"));
+    }
+}
@@ -0,0 +1,177 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Regression test: the number of SQL statements sent by create/update/finalize
+ * must not grow with the number of order lines.
+ * Statements are counted at the DataSource (every execute call of the calling thread, whether from Hibernate,
+ * Spring Data or JdbcTemplate); a JDBC batch is one statement. Each service call runs in its own transaction,
+ * as it does behind the controllers.
+ */
+@SpringBootTest
+class OrderServiceQueryCountTest extends DatabaseTestSupport {
+
+    private static final int[] ORDER_SIZES = {1, 10, 500};
+
+    @Autowired
+    private OrderService orderService;
+
+    private Long companyId;
+    private List<Product> products;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Query Count Co");
+        Category category = createCategory(companyId);
+
+        products = createProducts(category.getId(), 500, 1.0, 1000);
+    }
+
+    @Test
+    void createUpdateAndFinalizeUseConstantNumberOfStatements() {
+        List<Long> createCounts = new ArrayList<>();
+        List<Long> updateCounts = new ArrayList<>();
+        List<Long> finalizeCounts = new ArrayList<>();
+
+        // Warm-up: the company's first finalization also creates its one-time rows (e.g. the invoice counter)
+        Long warmUp = orderService.createOrder(companyId, orderWithLines(1)).getId();
+        orderService.finalizeOrder(companyId, warmUp);
+
+        for (int lines : ORDER_SIZES) {
+            StatementCounter.start();
+            Order order = orderService.createOrder(companyId, orderWithLines(lines));
+            createCounts.add(StatementCounter.stop());
+
+            StatementCounter.start();
+            orderService.updateOrder(companyId, order.getId(), orderWithLines(lines));
+            updateCounts.add(StatementCounter.stop());
+
+            StatementCounter.start();
+            orderService.finalizeOrder(companyId, order.getId());
+            finalizeCounts.add(StatementCounter.stop());
+        }
+
+        assertConstant("createOrder", createCounts);
+        assertConstant("updateOrder", updateCounts);
+        assertConstant("finalizeOrder", finalizeCounts);
+    }
+
+    private CreateOrderDTO orderWithLines(int lines) {
+        List<OrderItemDTO> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            items.add(new OrderItemDTO(products.get(i).getId(), 1));
+        }
+        return new CreateOrderDTO("Client", null, "Street 1", "City", "12345", "0700000000",
+                null, null, items);
+    }
+
+    private static void assertConstant(String operation, List<Long> counts) {
+        for (Long count : counts) {
+            assertEquals(counts.get(0), count,
+                    operation + " statement count grew with order size (1, 10, 500 lines): " + counts);
+        }
+    }
+
+    /**
+     * Counts the statements executed on the calling thread between start and stop
+     */
+    static class StatementCounter {
+        private static final ThreadLocal<long[]> COUNT = new ThreadLocal<>();
+
+        static void start() {
+            COUNT.set(new long[1]);
+        }
+
+        static long stop() {
+            long count = COUNT.get()[0];
+            COUNT.remove();
+            return count;
+        }
+
+        static DataSource wrap(DataSource dataSource) {
+            return proxy(DataSource.class, dataSource, (target, method, args) ->
+                    method.getName().equals("getConnection")
+                            ? proxy(Connection.class, (Connection) method.invoke(target, args), StatementCounter::connection)
+                            : method.invoke(target, args));
+        }
+
+        private static Object connection(Object target, Method method, Object[] args) throws Exception {
+            Object result = method.invoke(target, args);
+            if (result instanceof CallableStatement callable) {
+                return proxy(CallableStatement.class, callable, StatementCounter::statement);
+            }
+            if (result instanceof PreparedStatement prepared) {
+                return proxy(PreparedStatement.class, prepared, StatementCounter::statement);
+            }
+            if (result instanceof Statement statement) {
+                return proxy(Statement.class, statement, StatementCounter::statement);
+            }
+            return result;
+        }
+
+        private static Object statement(Object target, Method method, Object[] args) throws Exception {
+            long[] count = COUNT.get();
+            if (count != null && method.getName().startsWith("execute")) {
+                count[0]++;
+            }
+            return method.invoke(target, args);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+            InvocationHandler invocationHandler = (proxy, method, args) -> {
+                try {
+                    return handler.invoke(target, method, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler);
+        }
+
+        private interface Handler<T> {
+            Object invoke(T target, Method method, Object[] args) throws Exception;
+        }
+    }
+
+    @TestConfiguration
+    static class CountingDataSourceConfig {
+        @Bean
+        static BeanPostProcessor countingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? StatementCounter.wrap(dataSource) : bean;
+                }
+            };
+        }
+    }
+}
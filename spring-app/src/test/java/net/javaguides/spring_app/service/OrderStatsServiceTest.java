@@ -0,0 +1,82 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.OrderStats;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The statistics repair fixes drift without losing order changes committed while it runs.
+ */
+@SpringBootTest
+class OrderStatsServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Stats Co");
+    }
+
+    @Test
+    void repairKeepsChangesCommittedWhileItRuns() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            insertPendingOrder();
+        }
+        // Drifted row
+        jdbcTemplate.update("INSERT INTO order_stats (company_id, pending_count, pending_items, pending_amount, " +
+                "finalized_count, finalized_items, finalized_revenue, updated_at) " +
+                "VALUES (?, 10, 0, 0, 0, 0, 0, now())", companyId);
+
+        // An order created in a transaction that commits only after the repair has read its snapshot
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> writer = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+            insertPendingOrder();
+            orderStatsService.applyDelta(companyId, 1, 2, 5.0, 0, 0, 0.0);
+            written.countDown();
+            try {
+                commit.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        written.await(10, TimeUnit.SECONDS);
+        Future<Integer> repair = executor.submit(() -> orderStatsService.repairAll());
+        Thread.sleep(300);
+        commit.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        repair.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        OrderStats stats = orderStatsService.getStats(companyId);
+        assertEquals(4, stats.getPendingCount());
+        assertEquals(8, stats.getPendingItems());
+        assertEquals(20.0, stats.getPendingAmount(), 0.001);
+        assertEquals(0, stats.getFinalizedCount());
+    }
+
+    private void insertPendingOrder() {
+        jdbcTemplate.update("INSERT INTO orders (company_id, client_name, client_address, client_city, " +
+                "client_postal_code, client_phone, status, created_at, total_items, total_amount) " +
+                "VALUES (?, 'Client', 'Street 1', 'City', '12345', '0700000000', 'PENDING', now(), 2, 5.0)", companyId);
+    }
+}
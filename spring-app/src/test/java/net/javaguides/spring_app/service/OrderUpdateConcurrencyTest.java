@@ -0,0 +1,127 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Updates and finalizations of the same order are serialized on the order row: whichever locks it first
+ * completes, and the other one then sees the result (the finalization deducts the updated quantities,
+ * the update is rejected once the order is finalized).
+ */
+@SpringBootTest
+class OrderUpdateConcurrencyTest extends DatabaseTestSupport {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+    private Long productId;
+    private Long orderId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Concurrent Co");
+        Category category = createCategory(companyId);
+        productId = createProduct(category.getId(), "Product", 1.0, 100).getId();
+        orderId = orderService.createOrder(companyId, order(5)).getId();
+    }
+
+    @Test
+    void finalizationWaitsForUpdateAndDeductsUpdatedQuantities() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> update = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            orderService.updateOrder(companyId, orderId, order(8));
+            locked.countDown();
+            await(release);
+        }));
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Order> finalize = CompletableFuture.supplyAsync(() -> orderService.finalizeOrder(companyId, orderId));
+        Thread.sleep(500);
+        assertFalse(finalize.isDone(), "finalization must wait for the update's transaction");
+
+        release.countDown();
+        update.get(10, TimeUnit.SECONDS);
+        assertNotNull(finalize.get(10, TimeUnit.SECONDS).getInvoiceNumber());
+
+        assertOrderFinalized(8);
+    }
+
+    @Test
+    void updateWaitsForFinalizationAndIsRejected() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> finalize = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            orderService.finalizeOrder(companyId, orderId);
+            locked.countDown();
+            await(release);
+        }));
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Order> update = CompletableFuture.supplyAsync(() -> orderService.updateOrder(companyId, orderId, order(8)));
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> orderService.deleteOrder(companyId, orderId));
+        Thread.sleep(500);
+        assertFalse(update.isDone(), "the update must wait for the finalization's transaction");
+        assertFalse(delete.isDone(), "the delete must wait for the finalization's transaction");
+
+        release.countDown();
+        finalize.get(10, TimeUnit.SECONDS);
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> update.get(10, TimeUnit.SECONDS));
+        assertTrue(rejected.getCause().getMessage().contains("only PENDING"));
+        assertThrows(ExecutionException.class, () -> delete.get(10, TimeUnit.SECONDS));
+
+        assertOrderFinalized(5);
+    }
+
+    private void assertOrderFinalized(int quantity) {
+        Map<String, Object> order = jdbcTemplate.queryForMap(
+                "SELECT status, invoice_number FROM orders WHERE id = ?", orderId);
+        assertEquals(Order.OrderStatus.FINALIZED.name(), order.get("status"));
+        assertNotNull(order.get("invoice_number"));
+        assertEquals(quantity, jdbcTemplate.queryForObject(
+                "SELECT SUM(quantity) FROM order_items WHERE order_id = ?", Integer.class, orderId));
+        assertEquals(100 - quantity, jdbcTemplate.queryForObject(
+                "SELECT count FROM products WHERE id = ?", Integer.class, productId));
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM stock_reservations WHERE order_id = ?", Integer.class, orderId));
+    }
+
+    private CreateOrderDTO order(int quantity) {
+        return new CreateOrderDTO("Client", null, "Street 1", "City", "12345", "0700000000", null, null,
+                List.of(new OrderItemDTO(productId, quantity)));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
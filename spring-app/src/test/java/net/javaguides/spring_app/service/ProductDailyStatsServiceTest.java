@@ -0,0 +1,162 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.ProductMovement;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.entity.ProductCountHistory;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Product daily stats: history entries are rolled up per product and day as they are recorded,
+ * and a rebuild (from the history table or an archived month's file) produces the same rows, repairing drift
+ * without blocking history writers.
+ */
+@SpringBootTest(properties = "orders.archive.dir=target/daily-stats-archive-test")
+class ProductDailyStatsServiceTest extends DatabaseTestSupport {
+
+    private static final String ROWS = "SELECT day, units_sold, units_restocked, adjustments, transaction_count, " +
+            "closing_count FROM product_daily_stats WHERE product_id = ? ORDER BY day";
+
+    @Autowired
+    private ProductDailyStatsService productDailyStatsService;
+
+    @Autowired
+    private ProductCountHistoryService productCountHistoryService;
+
+    @Autowired
+    private OrderArchiveService orderArchiveService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+    private Long productId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Rollup Co");
+        Category category = createCategory(companyId);
+        productId = createProduct(category.getId(), "Mug", 2.5, 10).getId();
+    }
+
+    @Test
+    void recordedHistoryIsRolledUpPerDay() {
+        LocalDate today = LocalDate.now();
+        LocalDate yesterday = today.minusDays(1);
+        productCountHistoryService.recordInitialCount(productId, 10);
+        productCountHistoryService.recordCountChange(productId, 10, 7, null);
+        productCountHistoryService.recordCountChange(productId, 7, 12, null);
+        ProductCountHistory earlier = ProductCountHistory.create(productId, 12, 10, ProductCountHistory.ChangeType.SALE, null);
+        earlier.setChangedAt(yesterday.atTime(9, 0));
+        productCountHistoryService.recordCountChanges(List.of(earlier));
+
+        List<Map<String, Object>> incremental = jdbcTemplate.queryForList(ROWS, productId);
+        assertEquals(2, incremental.size());
+        assertEquals(List.of(2L, 0L, 0L, 1L, 10), List.of(incremental.get(0).get("units_sold"),
+                incremental.get(0).get("units_restocked"), incremental.get(0).get("adjustments"),
+                incremental.get(0).get("transaction_count"), incremental.get(0).get("closing_count")));
+        assertEquals(List.of(3L, 5L, 10L, 3L, 12), List.of(incremental.get(1).get("units_sold"),
+                incremental.get(1).get("units_restocked"), incremental.get(1).get("adjustments"),
+                incremental.get(1).get("transaction_count"), incremental.get(1).get("closing_count")));
+
+        productDailyStatsService.rebuild(yesterday, today);
+        assertEquals(incremental, jdbcTemplate.queryForList(ROWS, productId));
+
+        List<ProductMovement> movements = productDailyStatsService.getMovementsSince(companyId, yesterday);
+        assertEquals(1, movements.size());
+        assertEquals(5L, movements.get(0).getUnitsSold());
+        assertEquals(5L, movements.get(0).getUnitsRestocked());
+        assertEquals(4L, movements.get(0).getTransactionCount());
+        assertEquals(3L, productDailyStatsService.getUnitsSoldSince(companyId, today));
+    }
+
+    @Test
+    void archivedMonthIsRebuiltFromItsFile() {
+        insertHistory("2023-05-10 10:00:00", 10, 7);
+        insertHistory("2023-05-10 15:00:00", 7, 9);
+        insertHistory("2023-05-11 08:00:00", 9, 4);
+        orderArchiveService.archiveMonth(companyId, LocalDate.of(2023, 5, 1));
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM product_count_history WHERE product_id = ?", Integer.class, productId));
+
+        assertEquals(2, productDailyStatsService.rebuild(LocalDate.of(2023, 5, 1), LocalDate.of(2023, 5, 31)));
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(ROWS, productId);
+        assertEquals(2, rows.size());
+        assertEquals(List.of(3L, 2L, 2L, 9), List.of(rows.get(0).get("units_sold"), rows.get(0).get("units_restocked"),
+                rows.get(0).get("transaction_count"), rows.get(0).get("closing_count")));
+        assertEquals(List.of(5L, 4), List.of(rows.get(1).get("units_sold"), rows.get(1).get("closing_count")));
+    }
+
+    @Test
+    void rebuildRepairsDriftWhileHistoryIsBeingRecorded() throws Exception {
+        LocalDate today = LocalDate.now();
+        ProductCountHistory earlier = ProductCountHistory.create(productId, 10, 8, ProductCountHistory.ChangeType.SALE, null);
+        earlier.setChangedAt(today.minusDays(1).atTime(9, 0));
+        productCountHistoryService.recordCountChanges(List.of(earlier));
+        productCountHistoryService.recordCountChange(productId, 8, 6, null);
+        jdbcTemplate.update("UPDATE product_daily_stats SET units_sold = 99 WHERE product_id = ? AND day = ?",
+                productId, today.minusDays(1));
+
+        // A sale recorded by a transaction that stays open while the rebuild runs
+        CountDownLatch recorded = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> sale = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(status -> {
+            productCountHistoryService.recordCountChange(productId, 6, 5, null);
+            recorded.countDown();
+            await(release);
+        }));
+        assertTrue(recorded.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Integer> rebuild = CompletableFuture.supplyAsync(
+                () -> productDailyStatsService.rebuild(today.minusDays(1), today.minusDays(1)));
+        assertEquals(1, rebuild.get(10, TimeUnit.SECONDS), "the rebuild must not wait for history writers");
+        release.countDown();
+        sale.get(10, TimeUnit.SECONDS);
+
+        productDailyStatsService.rebuild(today.minusDays(1), today);
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(ROWS, productId);
+        assertEquals(2, rows.size());
+        assertEquals(List.of(2L, 1L, 8), List.of(rows.get(0).get("units_sold"),
+                rows.get(0).get("transaction_count"), rows.get(0).get("closing_count")));
+        assertEquals(List.of(3L, 2L, 5), List.of(rows.get(1).get("units_sold"),
+                rows.get(1).get("transaction_count"), rows.get(1).get("closing_count")));
+    }
+
+    @Test
+    void rowsAreDeletedWithTheProduct() {
+        productCountHistoryService.recordCountChange(productId, 10, 7, null);
+        jdbcTemplate.update("DELETE FROM product_count_history WHERE product_id = ?", productId);
+        jdbcTemplate.update("DELETE FROM products WHERE id = ?", productId);
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM product_daily_stats WHERE product_id = ?", Integer.class, productId));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void insertHistory(String changedAt, int oldCount, int newCount) {
+        jdbcTemplate.update("INSERT INTO product_count_history (product_id, old_count, new_count, change_amount, " +
+                        "change_type, changed_at) VALUES (?, ?, ?, ?, ?, CAST(? AS timestamp))",
+                productId, oldCount, newCount, newCount - oldCount, newCount < oldCount ? "SALE" : "RESTOCK", changedAt);
+    }
+}
@@ -0,0 +1,62 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Quick stats: counted with aggregate queries, cached per company and evicted when stock changes
+ * (after the changing transaction commits).
+ */
+@SpringBootTest
+class QuickStatsServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private QuickStatsService quickStatsService;
+
+    @Autowired
+    private ProductCountHistoryService productCountHistoryService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+    private Long categoryId;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Quick Stats Co");
+        categoryId = createCategory(companyId).getId();
+    }
+
+    @Test
+    void statsAreCachedUntilStockChanges() {
+        Long inStock = createProduct("In stock", 50);
+        createProduct("Low", Product.LOW_STOCK_THRESHOLD);
+        createProduct("Out", 0);
+        assertEquals(Map.of("totalProducts", 3L, "lowStock", 1L, "outOfStock", 1L, "totalSoldLastMonth", 0L),
+                quickStatsService.getQuickStats(companyId));
+
+        // A sale recorded in a transaction: served from the cache until it commits
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("UPDATE products SET count = 0 WHERE id = ?", inStock);
+            productCountHistoryService.recordCountChange(inStock, 50, 0, null);
+            quickStatsService.stockChanged(companyId);
+            assertEquals(1L, quickStatsService.getQuickStats(companyId).get("outOfStock"));
+        });
+        assertEquals(Map.of("totalProducts", 3L, "lowStock", 1L, "outOfStock", 2L, "totalSoldLastMonth", 50L),
+                quickStatsService.getQuickStats(companyId));
+    }
+
+    private Long createProduct(String title, int count) {
+        return createProduct(categoryId, title, 1.0, count).getId();
+    }
+}
@@ -0,0 +1,156 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.OrderStats;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test: hundreds of concurrent finalizations competing for the same hot product
+ * must never oversell it (no negative stock, exactly as many sales as units in stock)
+ * and must hand out unique, gap-free invoice numbers and consistent order statistics.
+ * Every order also takes one unit of a second product, listed before or after the hot one,
+ * so concurrent transactions touch overlapping products in different line orders.
+ */
+@SpringBootTest
+class StockDeductionConcurrencyTest extends DatabaseTestSupport {
+
+    private static final int HOT_STOCK = 100;
+    private static final int ORDERS = 300;
+    private static final int THREADS = 32;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private OrderStatsService orderStatsService;
+
+    private Long companyId;
+    private Product hotProduct;
+    private List<Product> otherProducts;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Stress Co");
+        Category category = createCategory(companyId);
+
+        // Stocked for every order at first, so all carts can be created (and reserve their units)
+        hotProduct = createProduct(category.getId(), "Hot product", 1.0, ORDERS);
+        otherProducts = createProducts(category.getId(), 5, 1.0, 1000);
+    }
+
+    @Test
+    void concurrentFinalizationsNeverOversell() throws Exception {
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            Product other = otherProducts.get(i % otherProducts.size());
+            List<OrderItemDTO> items = i % 2 == 0
+                    ? List.of(new OrderItemDTO(hotProduct.getId(), 1), new OrderItemDTO(other.getId(), 1))
+                    : List.of(new OrderItemDTO(other.getId(), 1), new OrderItemDTO(hotProduct.getId(), 1));
+            orderIds.add(orderService.createOrder(companyId, new CreateOrderDTO("Client", null, "Street 1",
+                    "City", "12345", "0700000000", null, null, items)).getId());
+        }
+
+        // Stock drops to HOT_STOCK and all reservations lapse: every order now competes for the same units
+        jdbcTemplate.update("UPDATE products SET count = ? WHERE id = ?", HOT_STOCK, hotProduct.getId());
+        jdbcTemplate.update("UPDATE stock_reservations SET expires_at = ? WHERE company_id = ?",
+                LocalDateTime.now().minusMinutes(1), companyId);
+
+        AtomicInteger finalized = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        List<Throwable> unexpected = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Long orderId : orderIds) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    orderService.finalizeOrder(companyId, orderId);
+                    finalized.incrementAndGet();
+                } catch (RuntimeException e) {
+                    if (e.getMessage() != null && e.getMessage().contains("insufficient stock")) {
+                        rejected.incrementAndGet();
+                    } else {
+                        synchronized (unexpected) {
+                            unexpected.add(e);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertTrue(unexpected.isEmpty(), "Unexpected failures (e.g. deadlocks): " + unexpected);
+        assertEquals(HOT_STOCK, finalized.get());
+        assertEquals(ORDERS - HOT_STOCK, rejected.get());
+
+        Integer hotCount = jdbcTemplate.queryForObject(
+                "SELECT count FROM products WHERE id = ?", Integer.class, hotProduct.getId());
+        assertEquals(0, hotCount);
+        Integer negative = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products WHERE category_id = ? AND count < 0",
+                Integer.class, hotProduct.getCategoryId());
+        assertEquals(0, negative);
+
+        // Other products: exactly one unit per finalized order, and history matches the stock movement
+        Integer otherSold = jdbcTemplate.queryForObject("SELECT SUM(1000 - count) FROM products WHERE id <> ? AND category_id = ?",
+                Integer.class, hotProduct.getId(), hotProduct.getCategoryId());
+        assertEquals(HOT_STOCK, otherSold);
+        Integer hotHistory = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(change_amount), 0) FROM product_count_history WHERE product_id = ? AND change_type = 'SALE'",
+                Integer.class, hotProduct.getId());
+        assertEquals(-HOT_STOCK, hotHistory);
+        Integer finalizedOrders = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM orders WHERE company_id = ? AND status = ?", Integer.class,
+                companyId, Order.OrderStatus.FINALIZED.name());
+        assertEquals(HOT_STOCK, finalizedOrders);
+
+        // Invoice numbers are unique and gap-free: INV-00001 .. INV-00100
+        List<String> invoiceNumbers = jdbcTemplate.queryForList(
+                "SELECT invoice_number FROM orders WHERE company_id = ? AND invoice_number IS NOT NULL ORDER BY invoice_number",
+                String.class, companyId);
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= HOT_STOCK; i++) {
+            expected.add(InvoiceNumberService.format(i));
+        }
+        assertEquals(expected, invoiceNumbers);
+
+        // Incrementally maintained statistics match a full recomputation
+        OrderStats stats = orderStatsService.getStats(companyId);
+        assertEquals(ORDERS - HOT_STOCK, stats.getPendingCount());
+        assertEquals(HOT_STOCK, stats.getFinalizedCount());
+        assertEquals(2L * HOT_STOCK, stats.getFinalizedItems());
+        assertEquals(2.0 * HOT_STOCK, stats.getFinalizedRevenue(), 0.001);
+        orderStatsService.repairAll();
+        OrderStats repaired = orderStatsService.getStats(companyId);
+        assertEquals(stats.getPendingCount(), repaired.getPendingCount());
+        assertEquals(stats.getPendingItems(), repaired.getPendingItems());
+        assertEquals(stats.getFinalizedCount(), repaired.getFinalizedCount());
+        assertEquals(stats.getFinalizedRevenue(), repaired.getFinalizedRevenue(), 0.001);
+    }
+}
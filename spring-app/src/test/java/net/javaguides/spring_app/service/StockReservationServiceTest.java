@@ -0,0 +1,83 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.dto.CreateOrderDTO;
+import net.javaguides.spring_app.dto.OrderItemDTO;
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Order;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PENDING orders hold their quantities: available-to-promise = count - unexpired reservations.
+ */
+@SpringBootTest
+class StockReservationServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    private Long companyId;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Reservation Co");
+        Category category = createCategory(companyId);
+        product = createProduct(category.getId(), "Product", 1.0, 10);
+    }
+
+    @Test
+    void pendingOrdersHoldStockUntilFinalizedDeletedOrExpired() {
+        Order first = orderService.createOrder(companyId, orderFor(6));
+        assertEquals(4, availableToPromise());
+
+        RuntimeException rejected = assertThrows(RuntimeException.class,
+                () -> orderService.createOrder(companyId, orderFor(5)));
+        assertTrue(rejected.getMessage().contains("Required: 5, Available: 4"), rejected.getMessage());
+
+        Order second = orderService.createOrder(companyId, orderFor(4));
+        assertEquals(0, availableToPromise());
+
+        orderService.updateOrder(companyId, first.getId(), orderFor(2));
+        assertEquals(4, availableToPromise());
+
+        orderService.deleteOrder(companyId, second.getId());
+        assertEquals(8, availableToPromise());
+
+        // Expired reservations stop counting at once; the scheduler then purges them
+        jdbcTemplate.update("UPDATE stock_reservations SET expires_at = ? WHERE company_id = ?",
+                LocalDateTime.now().minusMinutes(1), companyId);
+        assertEquals(10, availableToPromise());
+        assertTrue(stockReservationService.expireReservations() >= 1);
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM stock_reservations WHERE company_id = ?", Integer.class, companyId));
+
+        // An order whose reservation expired can still be finalized from unreserved stock
+        orderService.finalizeOrder(companyId, first.getId());
+        assertEquals(8, availableToPromise());
+    }
+
+    private int availableToPromise() {
+        return stockReservationService.getAvailableToPromise(Set.of(product.getId())).get(product.getId());
+    }
+
+    private CreateOrderDTO orderFor(int quantity) {
+        return new CreateOrderDTO("Client", null, "Street 1", "City", "12345", "0700000000",
+                null, null, List.of(new OrderItemDTO(product.getId(), quantity)));
+    }
+}
@@ -0,0 +1,93 @@
+package net.javaguides.spring_app.service;
+
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.repository.ProductRepository;
+import net.javaguides.spring_app.support.DatabaseTestSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Product versioning: stock deductions bump the version, stale product saves fail,
+ * and concurrency failures are retried up to the configured number of attempts.
+ */
+@SpringBootTest
+class StockRetryServiceTest extends DatabaseTestSupport {
+
+    @Autowired
+    private StockRetryService stockRetryService;
+
+    @Autowired
+    private StockService stockService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long companyId;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        companyId = createCompany("Retry Co");
+        Category category = createCategory(companyId);
+        product = createProduct(category.getId(), "Product", 2.0, 10);
+    }
+
+    @Test
+    void saveBasedOnStaleReadFailsAfterStockDeduction() {
+        Long readVersion = product.getVersion();
+        transactionTemplate.executeWithoutResult(status -> stockService.deductStock(Map.of(product.getId(), 4)));
+
+        Product current = productRepository.findById(product.getId()).orElseThrow();
+        assertEquals(6, current.getCount());
+        assertEquals(readVersion + 1, current.getVersion());
+
+        // An edit based on the count read before the deduction must not overwrite it
+        product.setCount(10);
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> productRepository.save(product));
+        assertEquals(6, productRepository.findById(product.getId()).orElseThrow().getCount());
+    }
+
+    @Test
+    void concurrencyFailuresAreRetriedUpToMaxAttempts() {
+        AtomicInteger calls = new AtomicInteger();
+        String result = stockRetryService.execute("test", () -> {
+            if (calls.incrementAndGet() < 2) {
+                throw new CannotAcquireLockException("lock timeout");
+            }
+            return "done";
+        });
+        assertEquals("done", result);
+        assertEquals(2, calls.get());
+
+        calls.set(0);
+        assertThrows(CannotAcquireLockException.class, () -> stockRetryService.execute("test", () -> {
+            calls.incrementAndGet();
+            throw new CannotAcquireLockException("lock timeout");
+        }));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void conflictsAreCountedPerProduct() {
+        stockRetryService.recordConflict("test", product.getId());
+        stockRetryService.recordConflict("test", product.getId());
+
+        assertTrue(stockRetryService.getConflictsByProduct().get(product.getId()) >= 2);
+    }
+}
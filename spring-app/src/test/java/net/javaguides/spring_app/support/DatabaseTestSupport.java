@@ -0,0 +1,146 @@
+package net.javaguides.spring_app.support;
+
+import net.javaguides.spring_app.entity.Category;
+import net.javaguides.spring_app.entity.Product;
+import net.javaguides.spring_app.entity.User;
+import net.javaguides.spring_app.repository.CategoryRepository;
+import net.javaguides.spring_app.repository.ProductRepository;
+import net.javaguides.spring_app.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Base class of tests that write to the database: creates companies, categories and products, and after each test
+ * deletes everything the test's companies own (children first) and the images it stored.
+ * Tests run in their own schema of the configured database (see src/test/resources/config/application.properties),
+ * so they never touch application data.
+ */
+public abstract class DatabaseTestSupport {
+
+    // Placeholder image reference for test products and categories
+    protected static final String IMAGE = "/api/images/test";
+
+    // Every company-scoped table, children first
+    private static final List<String> COMPANY_DELETES = List.of(
+            "DELETE FROM finalization_jobs WHERE company_id = ?",
+            "DELETE FROM stock_reservations WHERE company_id = ?",
+            "DELETE FROM order_items WHERE order_id IN (SELECT id FROM orders WHERE company_id = ?)",
+            "DELETE FROM orders WHERE company_id = ?",
+            "DELETE FROM order_archives WHERE company_id = ?",
+            "DELETE FROM order_stats WHERE company_id = ?",
+            "DELETE FROM invoice_counters WHERE company_id = ?",
+            "DELETE FROM idempotency_keys WHERE company_id = ?",
+            "DELETE FROM product_daily_stats WHERE company_id = ?",
+            "DELETE FROM product_count_history WHERE product_id IN (SELECT p.id FROM products p " +
+                    "JOIN categories c ON c.id = p.category_id WHERE c.company_id = ?)",
+            "DELETE FROM products WHERE category_id IN (SELECT id FROM categories WHERE company_id = ?)",
+            "DELETE FROM categories WHERE company_id = ?",
+            "DELETE FROM users WHERE id = ?");
+
+    // Stored images (and their thumbnails)
+    private static final List<String> IMAGE_DELETES = List.of(
+            "DELETE FROM images WHERE hash IN (SELECT thumbnail_hash FROM image_thumbnails WHERE source_hash = ?)",
+            "DELETE FROM image_thumbnails WHERE source_hash = ?",
+            "DELETE FROM images WHERE hash = ?");
+
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final List<Long> companyIds = new ArrayList<>();
+    private final List<String> imageHashes = new ArrayList<>();
+
+    @AfterEach
+    void deleteTestData() throws IOException {
+        for (Long companyId : companyIds) {
+            deleteArchiveFiles(companyId);
+            for (String sql : COMPANY_DELETES) {
+                jdbcTemplate.update(sql, companyId);
+            }
+        }
+        for (String hash : imageHashes) {
+            for (String sql : IMAGE_DELETES) {
+                jdbcTemplate.update(sql, hash);
+            }
+        }
+        companyIds.clear();
+        imageHashes.clear();
+    }
+
+    /**
+     * Create a company (user) that is deleted with all its data after the test
+     * @param name the company name
+     * @return the company ID
+     */
+    protected Long createCompany(String name) {
+        String email = name.toLowerCase().replaceAll("[^a-z0-9]+", "-") + "-" + UUID.randomUUID() + "@test.com";
+        return trackCompany(userRepository.save(new User(name, email, "secret")).getId());
+    }
+
+    /**
+     * Delete a company created outside createCompany (e.g. with SQL) with all its data after the test
+     * @param companyId the company ID
+     * @return the company ID
+     */
+    protected Long trackCompany(Long companyId) {
+        companyIds.add(companyId);
+        return companyId;
+    }
+
+    /**
+     * Delete a stored image and its thumbnails after the test
+     * @param hash the image's content hash
+     * @return the hash
+     */
+    protected String trackImage(String hash) {
+        imageHashes.add(hash);
+        return hash;
+    }
+
+    protected Category createCategory(Long companyId) {
+        return categoryRepository.save(new Category(companyId, "Category", IMAGE));
+    }
+
+    protected Product createProduct(Long categoryId, String title, double price, int count) {
+        return productRepository.save(new Product(categoryId, title, IMAGE, price, count));
+    }
+
+    /**
+     * Create products named "Product 0".."Product n-1" in one batch
+     */
+    protected List<Product> createProducts(Long categoryId, int n, double price, int count) {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            products.add(new Product(categoryId, "Product " + i, IMAGE, price, count));
+        }
+        return productRepository.saveAll(products);
+    }
+
+    private void deleteArchiveFiles(Long companyId) throws IOException {
+        List<String> files = jdbcTemplate.query("SELECT orders_file, history_file FROM order_archives WHERE company_id = ?",
+                (rs, rowNum) -> new String[] {rs.getString(1), rs.getString(2)}, companyId)
+                .stream().flatMap(Arrays::stream).toList();
+        for (String file : files) {
+            if (file != null) {
+                Files.deleteIfExists(Path.of(file));
+            }
+        }
+    }
+}